@@ -17,6 +17,8 @@ package org.dataconservancy.packaging.tool.api;
 
 import java.io.FileNotFoundException;
 import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Serialized data package.
@@ -58,4 +60,14 @@ public interface Package {
 	 */
 	boolean isAvailable();
 
+    /**
+     * The volumes the package is split into, when it is too large to be kept as a single file.  Each volume is saved
+     * to its own file, named after the volume; {@link #serialize()} returns the content of all the volumes, one after
+     * the other.
+     * @return the volumes of the package, or the package itself if it isn't split
+     */
+    default List<Package> getVolumes() {
+        return Collections.singletonList(this);
+    }
+
 }
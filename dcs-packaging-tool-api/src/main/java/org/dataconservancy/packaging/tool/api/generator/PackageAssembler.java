@@ -17,10 +17,16 @@
 package org.dataconservancy.packaging.tool.api.generator;
 
 import org.dataconservancy.packaging.tool.model.PackageGenerationParameters;
+import org.dataconservancy.packaging.tool.model.PackageToolException;
+import org.dataconservancy.packaging.tool.model.PackagingToolReturnInfo;
 
+import java.io.IOException;
 import java.io.InputStream;
 
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 
@@ -108,6 +114,68 @@ public interface PackageAssembler {
      **/
     void putResource(URI uri, InputStream content);
 
+    /**
+     * Commit new content of a known length to a previously created or reserved resource.
+     * <p>
+     * Same as {@link #putResource(URI, InputStream)}, but the caller also supplies the number of bytes in the content
+     * when it is known, so that assemblers writing resources directly into a serialized package don't have to buffer
+     * the content to find out its length. By default the length is ignored.
+     * </p>
+     *
+     * @param uri
+     *        URI naming the resource whose content is to be set.
+     * @param content
+     *        InputStream containing the content of the resource.
+     * @param size
+     *        The number of bytes in the content, or a negative number if unknown.
+     **/
+    default void putResource(URI uri, InputStream content, long size) {
+        putResource(uri, content);
+    }
+
+    /**
+     * Commit the content of a local file to a previously created or reserved resource.
+     * <p>
+     * Same as {@link #putResource(URI, InputStream, long)}, but gives assemblers staging resources on disk the
+     * opportunity to link or clone the file rather than copy its content. By default the file is read.
+     * </p>
+     *
+     * @param uri
+     *        URI naming the resource whose content is to be set.
+     * @param source
+     *        The file containing the content of the resource.
+     **/
+    default void putResource(URI uri, Path source) {
+        try (InputStream content = Files.newInputStream(source)) {
+            putResource(uri, content, Files.size(source));
+        } catch (NoSuchFileException e) {
+            throw new PackageToolException(PackagingToolReturnInfo.PKG_FILE_NOT_FOUND_EXCEPTION, e, source.toString());
+        } catch (IOException e) {
+            throw new PackageToolException(PackagingToolReturnInfo.PKG_IO_EXCEPTION, e, source.toString());
+        }
+    }
+
+    /**
+     * Commit the content of a local file, whose checksums are already known, to a previously created or reserved
+     * resource.
+     * <p>
+     * Same as {@link #putResource(URI, Path)}, but assemblers which don't need the content itself, e.g. because they
+     * refer to the file rather than include it, may use the checksums instead of reading the file. By default the
+     * checksums are ignored.
+     * </p>
+     *
+     * @param uri
+     *        URI naming the resource whose content is to be set.
+     * @param source
+     *        The file containing the content of the resource.
+     * @param checksums
+     *        The checksums of the current content of the file, keyed by the name of their algorithm, e.g. "md5"
+     *        or "sha1".
+     **/
+    default void putResource(URI uri, Path source, Map<String, String> checksums) {
+        putResource(uri, source);
+    }
+
     /**
      * Create a new resource in the package.
      * <p>
@@ -128,6 +196,85 @@ public interface PackageAssembler {
                        PackageResourceType type,
                        InputStream content);
 
+    /**
+     * Create a new resource of a known length in the package.
+     * <p>
+     * Same as {@link #createResource(String, PackageResourceType, InputStream)}, but the caller also supplies the
+     * number of bytes in the content when it is known. See {@link #putResource(URI, InputStream, long)}.
+     * </p>
+     *
+     * @param path
+     *        Logical file path (including filename) of the resource relative to
+     *        the package.
+     * @param type
+     *        Resource type (e.g. data, metadata, etc).
+     * @param content
+     *        InputStream containing the content of the resource.
+     * @param size
+     *        The number of bytes in the content, or a negative number if unknown.
+     * @return URI of created resource
+     */
+    default URI createResource(String path,
+                               PackageResourceType type,
+                               InputStream content,
+                               long size) {
+        URI uri = reserveResource(path, type);
+        putResource(uri, content, size);
+        return uri;
+    }
+
+    /**
+     * Create a new resource in the package from a local file.
+     * <p>
+     * Same as {@link #createResource(String, PackageResourceType, InputStream)}, but the content is the content of
+     * the file. See {@link #putResource(URI, Path)}.
+     * </p>
+     *
+     * @param path
+     *        Logical file path (including filename) of the resource relative to
+     *        the package.
+     * @param type
+     *        Resource type (e.g. data, metadata, etc).
+     * @param source
+     *        The file containing the content of the resource.
+     * @return URI of created resource
+     */
+    default URI createResource(String path,
+                               PackageResourceType type,
+                               Path source) {
+        URI uri = reserveResource(path, type);
+        putResource(uri, source);
+        return uri;
+    }
+
+    /**
+     * Create a new resource in the package from a local file whose checksums are already known.
+     * <p>
+     * Same as {@link #createResource(String, PackageResourceType, Path)}. See
+     * {@link #putResource(URI, Path, Map)}.
+     * </p>
+     *
+     * @param path
+     *        Logical file path (including filename) of the resource relative to
+     *        the package.
+     * @param type
+     *        Resource type (e.g. data, metadata, etc).
+     * @param source
+     *        The file containing the content of the resource.
+     * @param checksums
+     *        The checksums of the current content of the file, keyed by the name of their algorithm, e.g. "md5"
+     *        or "sha1".
+     * @return URI of created resource
+     */
+    default URI createResource(String path,
+                               PackageResourceType type,
+                               Path source,
+                               Map<String, String> checksums) {
+        URI uri = reserveResource(path, type);
+        putResource(uri, source, checksums);
+        return uri;
+    }
+
     /**
      * Produce a {@code Package} object based on the added resources.
      * <p>
@@ -0,0 +1,41 @@
+package org.dataconservancy.packaging.tool.api.support;
+
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+/**
+ * Receives progress of a tree being built from the file system. Entries (files and directories) are first discovered
+ * by walking the file system, and then processed, which computes their checksums and formats. Discovery and
+ * processing overlap, so both counts grow while the tree is being built.
+ * <p>
+ * Implementations are called concurrently from the threads building the tree, and must be thread-safe and return
+ * quickly.
+ * </p>
+ */
+@FunctionalInterface
+public interface TreeBuildProgressListener {
+
+    /**
+     * Called every time an entry is discovered or processed.
+     * @param filesDiscovered The number of entries discovered so far.
+     * @param bytesDiscovered The total size of the regular files discovered so far.
+     * @param filesProcessed The number of entries processed so far.
+     * @param bytesProcessed The total size of the regular files processed so far.
+     */
+    void progress(long filesDiscovered, long bytesDiscovered, long filesProcessed, long bytesProcessed);
+}
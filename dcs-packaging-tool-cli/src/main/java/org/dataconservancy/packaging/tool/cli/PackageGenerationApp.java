@@ -37,6 +37,8 @@ import org.apache.commons.lang.StringUtils;
 
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
+import org.dataconservancy.dcs.util.ContentDetectionService;
+import org.dataconservancy.dcs.util.DetectedFormatCache;
 import org.dataconservancy.packaging.tool.api.DomainProfileService;
 import org.dataconservancy.packaging.tool.api.DomainProfileStore;
 import org.dataconservancy.packaging.tool.api.IPMService;
@@ -48,6 +50,9 @@ import org.dataconservancy.packaging.tool.impl.DomainProfileObjectStoreImpl;
 import org.dataconservancy.packaging.tool.impl.DomainProfileRdfTransformService;
 import org.dataconservancy.packaging.tool.impl.DomainProfileServiceImpl;
 import org.dataconservancy.packaging.tool.impl.DomainProfileStoreJenaImpl;
+import org.dataconservancy.packaging.tool.impl.FileInfoCache;
+import org.dataconservancy.packaging.tool.impl.FileInfoExecutor;
+import org.dataconservancy.packaging.tool.impl.IPMServiceImpl;
 import org.dataconservancy.packaging.tool.impl.IpmRdfTransformService;
 import org.dataconservancy.packaging.tool.impl.SimpleURIGenerator;
 import org.dataconservancy.packaging.tool.impl.URIGenerator;
@@ -85,6 +90,7 @@ import org.springframework.context.support.ClassPathXmlApplicationContext;
  */
 public class PackageGenerationApp {
 	private ClassPathXmlApplicationContext appContext;
+    private FileInfoCache fileInfoCache;
     private final Logger log = LoggerFactory.getLogger(this.getClass());
 
     /*
@@ -138,7 +144,7 @@ public class PackageGenerationApp {
     public String archiveFormat;
 
     /** Compression format for tar archives **/
-    @Option(name = "-c", aliases = { "--compression-format"}, metaVar = "gz|none", usage = "Compression format, if archive type is tar.  If not specified, no compression is used.  Ignored if non-tar archive is used.")
+    @Option(name = "-c", aliases = { "--compression-format"}, metaVar = "gz|bzip2|pigz|pbzip2|zstd|lz4|none", usage = "Compression format, if archive type is tar.  pigz and pbzip2 produce gz and bzip2 files compressed on several threads.  zstd and lz4 favour speed over compression ratio.  If not specified, no compression is used.  Ignored if non-tar archive is used.")
     public String compressionFormat;
 
     /** Checksum algorithms **/
@@ -169,6 +175,74 @@ public class PackageGenerationApp {
     @Option(name = "-z", aliases = { "--serialization", "--serialization-format"}, metaVar="JSONLD|TURTLE|XML", usage = "Serialization format for the ORE-ReM file")
     public String serializationFormat;
 
+    /** Number of threads reading content files **/
+    @Option(name = "--io-threads", metaVar = "<n>", usage = "Number of threads reading content files to compute checksums and formats.  Defaults to the number of processors.")
+    public Integer ioThreads;
+
+    /** Number of content files read at the same time from a single device **/
+    @Option(name = "--io-per-device", metaVar = "<n>", usage = "Maximum number of content files read at the same time from a single disk or mount.  Defaults to no limit.")
+    public Integer ioPerDevice;
+
+    /** Use virtual threads to read content files **/
+    @Option(name = "--virtual-threads", usage = "Read content files on virtual threads, if supported by the Java runtime.")
+    public boolean virtualThreads = false;
+
+    /** Number of bytes scanned for format signatures at each end of a content file **/
+    @Option(name = "--format-scan-bytes", metaVar = "<n>", usage = "Only scan this many bytes at the beginning and at the end of content files to detect their formats, which is faster for large files but may miss some formats.  Defaults to scanning entire files.")
+    public Integer formatScanBytes;
+
+    /** File the formats detected in content files are cached in **/
+    @Option(name = "--format-cache", metaVar = "<file>", usage = "Keep the formats detected in content files in this file, so that content identified by an earlier run is not identified again.  Defaults to caching formats for the current run only.")
+    public File formatCacheFile;
+
+    /** File the checksums and formats of content files are cached in **/
+    @Option(name = "--fileinfo-cache", metaVar = "<file>", usage = "Keep the checksums and formats of content files in this file, so that files unchanged since an earlier run are not read again.  Defaults to reading every file.")
+    public File fileInfoCacheFile;
+
+    /** Identify content files from their extension when it belongs to a single format **/
+    @Option(name = "--fast-format-detection", usage = "Identify a content file as the format of its extension, when the extension belongs to a single format and the file matches a signature of that format, without checking the signatures of all other formats.  Faster, but may miss more specific formats.")
+    public boolean fastFormatDetection = false;
+
+    /** Share of the content files identified from their extension which are verified **/
+    @Option(name = "--format-verification-rate", metaVar = "<rate>", usage = "Share, from 0 to 1, of the content files identified from their extension which are identified in full as well, to count the files the fast format detection gets wrong.  Defaults to 0.")
+    public Double formatVerificationRate;
+
+    /** Serialize the package while its resources are added **/
+    @Option(name = "--stream", usage = "Write content straight into the package file instead of staging it first.  Has no effect on exploded packages.")
+    public boolean stream = false;
+
+    /** Number of threads compressing the package **/
+    @Option(name = "--compression-threads", metaVar = "<n>", usage = "Number of threads used by the pigz, pbzip2 and zstd compression formats, defaults to the number of available processors.  When set, zip archives are deflated on that many threads too, in which case the order of their entries varies.")
+    public Integer compressionThreads;
+
+    /** Compression level **/
+    @Option(name = "--compression-level", metaVar = "<n>", usage = "Compression level of the zstd compression format.  Defaults to the format's default level.")
+    public Integer compressionLevel;
+
+    /** How payload files are staged **/
+    @Option(name = "--payload-staging", metaVar = "link|transfer|copy", usage = "How payload files are staged on disk: hard linked to the content files, copied by the operating system, or copied.  Strategies which can't be applied fall back to the next one.  Defaults to copy.")
+    public String payloadStaging;
+
+    /** Split the package into volumes **/
+    @Option(name = "--volume-size", metaVar = "<size>", usage = "Split the package file into numbered volumes of at most this size, in bytes or with a K, M, G or T suffix, e.g. 100G.  Has no effect on exploded packages.")
+    public String volumeSize;
+
+    /** Refer to payload files in fetch.txt **/
+    @Option(name = "--holey", usage = "Refer to local payload files in the fetch.txt of the bag instead of including them, leaving it to the receiver to fetch them.")
+    public boolean holey = false;
+
+    /** Directory of the payload files referred to in fetch.txt **/
+    @Option(name = "--fetch-base-location", metaVar = "<dir>", usage = "Only refer to the payload files under this directory in fetch.txt.  Defaults to all local files.")
+    public String fetchBaseLocation;
+
+    /** URL payload files are fetched from **/
+    @Option(name = "--fetch-base-url", metaVar = "<url>", usage = "URL of the fetch base location, which the paths of the payload files referred to in fetch.txt are appended to.  Defaults to file URLs.")
+    public String fetchBaseUrl;
+
+    /** Update an existing exploded package in place **/
+    @Option(name = "--incremental", usage = "Update an existing exploded package in place, rewriting only the payload files which changed.  Has no effect on archived packages.")
+    public boolean incremental = false;
+
 
 	public PackageGenerationApp() {
 		appContext = new ClassPathXmlApplicationContext(
@@ -292,12 +366,23 @@ public class PackageGenerationApp {
         Node tree = null;
         if(this.contentRootFile != null) {
             if (this.contentRootFile.exists()) {
+                configureFileInfoExecutor();
                 try {
                     IPMService ipmService = appContext.getBean("ipmService", IPMService.class);
                     tree = ipmService.createTreeFromFileSystem(Paths.get(contentRootFile.getPath()));
                 } catch (IOException e) {
                     log.error(e.getMessage());
                     throw new PackageToolException(PackagingToolReturnInfo.CMD_LINE_FILE_NOT_FOUND_EXCEPTION);
+                } finally {
+                    if (ContentDetectionService.getFormatCache() != null) {
+                        ContentDetectionService.getFormatCache().close();
+                    }
+                    if (fileInfoCache != null) {
+                        fileInfoCache.close();
+                    }
+                    if (fastFormatDetection) {
+                        log.info("Format detection: " + ContentDetectionService.getDetectionMetrics());
+                    }
                 }
             } else {
                 throw new PackageToolException(PackagingToolReturnInfo.CMD_LINE_FILE_NOT_FOUND_EXCEPTION);
@@ -410,25 +495,28 @@ public class PackageGenerationApp {
             if (pkg != null) {
                 try {
                     if (pkg.isAvailable()) {
-                        OutputStream os;
-                        if (stdout) {
-                            os = System.out;
-                        } else {
-                            outFile = getOutputFile(packageParams, pkg);
-
-                            if (outFile == null) {
-                                // This will be null if the user opted to not overwrite
-                                System.err.println("Package Generation aborted...");
-                                return;
+                        // A package split into volumes is written to one file per volume, or as a whole to stdout
+                        for (Package volume : stdout ? Collections.singletonList(pkg) : pkg.getVolumes()) {
+                            OutputStream os;
+                            if (stdout) {
+                                os = System.out;
+                            } else {
+                                outFile = getOutputFile(packageParams, volume);
+
+                                if (outFile == null) {
+                                    // This will be null if the user opted to not overwrite
+                                    System.err.println("Package Generation aborted...");
+                                    return;
+                                }
+
+                                System.err.println("Writing to file : " + outFile);
+                                os = new FileOutputStream(outFile);
                             }
-
-                            System.err.println("Writing to file : " + outFile);
-                            os = new FileOutputStream(outFile);
+                            InputStream pkgStream = volume.serialize();
+                            IOUtils.copy(pkgStream, os);
+                            os.close();
+                            pkgStream.close();
                         }
-                        InputStream pkgStream = pkg.serialize();
-                        IOUtils.copy(pkgStream, os);
-                        os.close();
-                        pkgStream.close();
                         pkg.cleanupPackage();
                     }
                 } catch (IOException e) {
@@ -467,6 +555,43 @@ public class PackageGenerationApp {
         return metadata;
     }
 
+    /**
+     * Applies the I/O options given on the command line to the executor reading content files and to format detection.
+     * @throws PackageToolException if an option has an invalid value
+     */
+    private void configureFileInfoExecutor() throws PackageToolException {
+        FileInfoExecutor executor = appContext.getBean("fileInfoExecutor", FileInfoExecutor.class);
+        try {
+            if (ioThreads != null) {
+                executor.setThreads(ioThreads);
+            }
+            if (ioPerDevice != null) {
+                executor.setPerDeviceConcurrency(ioPerDevice);
+            }
+            if (virtualThreads) {
+                executor.setVirtualThreads(true);
+            }
+            if (formatScanBytes != null) {
+                ContentDetectionService.setMaxBytesToScan(formatScanBytes);
+            }
+            if (formatCacheFile != null) {
+                ContentDetectionService.setFormatCache(new DetectedFormatCache(formatCacheFile.toPath()));
+            }
+            if (fileInfoCacheFile != null) {
+                fileInfoCache = new FileInfoCache(fileInfoCacheFile.toPath());
+                appContext.getBean("ipmService", IPMServiceImpl.class).setFileInfoCache(fileInfoCache);
+            }
+            if (fastFormatDetection) {
+                ContentDetectionService.setDetectionPolicy(ContentDetectionService.DetectionPolicy.FAST);
+            }
+            if (formatVerificationRate != null) {
+                ContentDetectionService.setVerificationRate(formatVerificationRate);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new PackageToolException(PackagingToolReturnInfo.CMD_LINE_INPUT_ERROR, e, e.getMessage());
+        }
+    }
+
     /**
      * Create a PackageGenerationParameter for command line flags
      * @return a PackageGenerationParameter object with any command line overrides
@@ -489,6 +614,33 @@ public class PackageGenerationApp {
         if(serializationFormat != null){
             params.addParam(GeneralParameterNames.REM_SERIALIZATION_FORMAT, serializationFormat);
         }
+        if (stream) {
+            params.addParam(GeneralParameterNames.STREAMING_ASSEMBLY, Boolean.TRUE.toString());
+        }
+        if (compressionThreads != null) {
+            params.addParam(GeneralParameterNames.COMPRESSION_THREADS, compressionThreads.toString());
+        }
+        if (compressionLevel != null) {
+            params.addParam(GeneralParameterNames.COMPRESSION_LEVEL, compressionLevel.toString());
+        }
+        if (payloadStaging != null) {
+            params.addParam(GeneralParameterNames.PAYLOAD_STAGING_STRATEGY, payloadStaging);
+        }
+        if (volumeSize != null) {
+            params.addParam(GeneralParameterNames.VOLUME_SIZE, volumeSize);
+        }
+        if (holey) {
+            params.addParam(GeneralParameterNames.HOLEY_BAG, Boolean.TRUE.toString());
+        }
+        if (fetchBaseLocation != null) {
+            params.addParam(GeneralParameterNames.FETCH_BASE_LOCATION, fetchBaseLocation);
+        }
+        if (fetchBaseUrl != null) {
+            params.addParam(GeneralParameterNames.FETCH_BASE_URL, fetchBaseUrl);
+        }
+        if (incremental) {
+            params.addParam(GeneralParameterNames.INCREMENTAL_ASSEMBLY, Boolean.TRUE.toString());
+        }
         return params;
     }
 
@@ -25,6 +25,7 @@ import javafx.scene.image.Image;
 import javafx.stage.Screen;
 import javafx.stage.Stage;
 
+import org.dataconservancy.packaging.tool.impl.IPMServiceImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
@@ -49,6 +50,9 @@ public class App extends Application {
     public void start(Stage stage) throws Exception {
         ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext("classpath*:org/dataconservancy/config/applicationContext.xml", "classpath*:org/dataconservancy/packaging/tool/ser/config/applicationContext.xml", "classpath*:applicationContext.xml");
 
+        // Packages are refreshed repeatedly while they are edited, so only read the files that changed
+        context.getBean("ipmService", IPMServiceImpl.class).setIncrementalRefresh(true);
+
         // min supported size is 800x600
         stage.setMinWidth(800);
         stage.setMinHeight(550);
@@ -372,11 +372,16 @@ public class PackageGenerationPresenterImpl extends BasePresenterImpl implements
             if (createdPackage != null) {
                 try {
                     if (createdPackage.isAvailable()) {
-                        FileOutputStream fos = new FileOutputStream(packageFile);
-                        InputStream packageStream = createdPackage.serialize();
-                        IOUtils.copy(packageStream, fos);
-                        fos.close();
-                        packageStream.close();
+                        //A package split into volumes is saved to one file per volume, named after the package file
+                        for (Package volume : createdPackage.getVolumes()) {
+                            File volumeFile = volume == createdPackage ? packageFile : new File(packageFile.getPath() +
+                                    volume.getPackageName().substring(createdPackage.getPackageName().length()));
+                            FileOutputStream fos = new FileOutputStream(volumeFile);
+                            InputStream packageStream = volume.serialize();
+                            IOUtils.copy(packageStream, fos);
+                            fos.close();
+                            packageStream.close();
+                        }
                         createdPackage.cleanupPackage();
                     }
                 } catch (IOException e) {
@@ -0,0 +1,101 @@
+package org.dataconservancy.packaging.tool.impl;
+
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import org.apache.commons.codec.binary.Hex;
+import org.dataconservancy.dcs.model.Checksum;
+import org.dataconservancy.dcs.model.ChecksumImpl;
+import org.dataconservancy.packaging.tool.model.PackageToolException;
+import org.dataconservancy.packaging.tool.model.PackagingToolReturnInfo;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Output stream computing the checksums of the bytes written through it, for any number of algorithms at once, so
+ * that content can be digested while it is being copied rather than read again afterwards.
+ */
+public class ChecksumOutputStream extends FilterOutputStream {
+
+    private final List<String> algorithms;
+
+    private final MessageDigest[] digests;
+
+    /**
+     * @param out The stream the bytes are written to.
+     * @param algorithms The names of the checksum algorithms, e.g. "md5" or "sha1".
+     * @throws PackageToolException If one of the algorithms is unknown.
+     */
+    public ChecksumOutputStream(OutputStream out, List<String> algorithms) {
+        super(out);
+        this.algorithms = new ArrayList<>(algorithms);
+        this.digests = new MessageDigest[algorithms.size()];
+        for (int i = 0; i < digests.length; i++) {
+            digests[i] = createDigest(algorithms.get(i));
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        for (MessageDigest digest : digests) {
+            digest.update((byte) b);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        for (MessageDigest digest : digests) {
+            digest.update(b, off, len);
+        }
+    }
+
+    /**
+     * Answers the checksums of the bytes written so far, in the same order as the algorithms. The digests are reset,
+     * so this is meant to be called once all the bytes have been written.
+     * @return The checksums, as lower case hex strings.
+     */
+    public List<Checksum> getChecksums() {
+        List<Checksum> checksums = new ArrayList<>(digests.length);
+        for (int i = 0; i < digests.length; i++) {
+            checksums.add(new ChecksumImpl(algorithms.get(i), Hex.encodeHexString(digests[i].digest())));
+        }
+        return checksums;
+    }
+
+    /**
+     * @param algorithm The name of a checksum algorithm.
+     * @return A new digest for the algorithm.
+     * @throws PackageToolException If the algorithm is unknown.
+     */
+    static MessageDigest createDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new PackageToolException(PackagingToolReturnInfo.PKG_NO_SUCH_CHECKSUM_ALGORITHM_EXCEPTION, nsae,
+                    algorithm);
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package org.dataconservancy.packaging.tool.impl;
+
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import org.dataconservancy.dcs.util.ContentDetectionService;
+import org.dataconservancy.dcs.util.PersistentLruCache;
+import org.dataconservancy.packaging.tool.model.ipm.FileInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent cache of the checksums and formats of regular files, so that unchanged files are not read again every
+ * time a tree is built or refreshed from the file system. An entry is only used if the real path, size, last
+ * modified time and file key (the inode on most file systems) of the file all match the ones it was cached with, and
+ * if formats are still detected with the same {@link ContentDetectionService#getDetectionSettings() settings}.
+ * <p>
+ * The entries are held, and persisted if a cache file is given (e.g. {@code ~/.dataconservancy/fileinfo.cache}), by a
+ * {@link PersistentLruCache}; the cache file records the signatures formats were detected with.
+ * </p>
+ * <p>
+ * A fraction of cache hits, given by {@code verificationRate}, can be verified by reading the file again; entries
+ * that turn out to be stale are logged and replaced. A rate of 1 verifies every hit, which is useful to audit the
+ * cache, a rate of 0 (the default) trusts it.
+ * </p>
+ */
+public class FileInfoCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileInfoCache.class);
+
+    private static final int MAGIC = 0x44434649;
+
+    private static final int VERSION = 3;
+
+    private final Path cacheFile;
+
+    private final PersistentLruCache<Entry> entries;
+
+    private double verificationRate = 0;
+
+    private String signatures;
+
+    /**
+     * Creates a cache kept in memory only.
+     */
+    public FileInfoCache() {
+        this(null);
+    }
+
+    /**
+     * @param cacheFile The file the cache is persisted to, or null to only keep the cache in memory.
+     */
+    public FileInfoCache(Path cacheFile) {
+        this.cacheFile = cacheFile;
+        this.entries = new PersistentLruCache<>("FileInfo cache", cacheFile, MAGIC, VERSION, 200000,
+                new PersistentLruCache.RecordCodec<Entry>() {
+                    @Override
+                    public void write(DataOutputStream out, String key, Entry entry) throws IOException {
+                        entry.write(out);
+                    }
+
+                    @Override
+                    public Map.Entry<String, Entry> read(DataInputStream in) throws IOException {
+                        Entry entry = Entry.read(in);
+                        return new AbstractMap.SimpleImmutableEntry<>(entry.key(), entry);
+                    }
+                });
+    }
+
+    public int getMaxEntries() {
+        return entries.getMaxEntries();
+    }
+
+    /**
+     * @param maxEntries The maximum number of files held by the cache, the least recently used are evicted first.
+     */
+    public void setMaxEntries(int maxEntries) {
+        entries.setMaxEntries(maxEntries);
+    }
+
+    public double getVerificationRate() {
+        return verificationRate;
+    }
+
+    /**
+     * @param verificationRate The fraction of cache hits that are verified by reading the file again, between 0 and 1.
+     */
+    public void setVerificationRate(double verificationRate) {
+        if (verificationRate < 0 || verificationRate > 1) {
+            throw new IllegalArgumentException("The verification rate must be between 0 and 1: " + verificationRate);
+        }
+        this.verificationRate = verificationRate;
+    }
+
+    /**
+     * Identifies the signatures formats are detected with, so that a cache file written with other signatures is not
+     * used. Defaults to the signatures of the {@link ContentDetectionService}. Only has an effect before the cache is
+     * first used.
+     * @param signatures The name and version of the signatures.
+     */
+    synchronized void setSignatures(String signatures) {
+        this.signatures = signatures;
+        entries.setSignatures(signatures);
+    }
+
+    /**
+     * Answers the file information of a file, from the cache if the file is unchanged since it was cached, otherwise
+     * by reading the file and caching the result. Only regular files are cached.
+     * @param path The real path of the file.
+     * @return The file information.
+     * @throws IOException If the attributes of the file can't be read.
+     */
+    public FileInfo getFileInfo(Path path) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        if (!attributes.isRegularFile()) {
+            return new FileInfo(path);
+        }
+
+        String settings = ContentDetectionService.getDetectionSettings();
+        String key = key(path, attributes, settings);
+        Entry cached = get(key);
+
+        if (cached != null) {
+            if (verificationRate == 0 || ThreadLocalRandom.current().nextDouble() >= verificationRate) {
+                return new FileInfo(path, attributes, new ArrayList<>(cached.formats),
+                        new EnumMap<>(cached.checksums));
+            }
+
+            FileInfo fileInfo = new FileInfo(path);
+            if (fileInfo.getFormats() != null && fileInfo.getFormats().equals(cached.formats)
+                    && cached.checksums.equals(checksums(fileInfo))) {
+                return fileInfo;
+            }
+
+            LOG.warn("Cached file information for '{}' is stale, replacing it", path);
+            put(key, path, attributes, settings, fileInfo);
+            return fileInfo;
+        }
+
+        FileInfo fileInfo = new FileInfo(path);
+        put(key, path, attributes, settings, fileInfo);
+        return fileInfo;
+    }
+
+    /**
+     * Writes new entries to the cache file, compacting it first if it holds too many superseded or evicted entries.
+     */
+    public void flush() {
+        entries.flush();
+    }
+
+    /**
+     * Flushes and closes the cache file. The cache is read back from the file if it is used again.
+     */
+    public void close() {
+        entries.close();
+    }
+
+    private Entry get(String key) {
+        useSignatures();
+        return entries.get(key);
+    }
+
+    private void put(String key, Path path, BasicFileAttributes attributes, String settings, FileInfo fileInfo) {
+        Map<FileInfo.Algorithm, String> checksums = checksums(fileInfo);
+        if (checksums.isEmpty() || fileInfo.getFormats() == null) {
+            // The file couldn't be read, there is nothing worth caching
+            return;
+        }
+
+        useSignatures();
+        entries.put(key, new Entry(path.toString(), attributes.size(), modified(attributes), fileKey(attributes),
+                settings, checksums, new ArrayList<>(fileInfo.getFormats())));
+    }
+
+    /**
+     * Defaults the signatures of the cache file to the ones of the {@link ContentDetectionService}.
+     */
+    private synchronized void useSignatures() {
+        if (cacheFile != null && signatures == null) {
+            setSignatures(ContentDetectionService.getInstance().getSignatures());
+        }
+    }
+
+    /**
+     * @param fileInfo the file information
+     * @return a new map of the checksums of the file information
+     */
+    static Map<FileInfo.Algorithm, String> checksums(FileInfo fileInfo) {
+        Map<FileInfo.Algorithm, String> checksums = new EnumMap<>(FileInfo.Algorithm.class);
+        for (FileInfo.Algorithm algorithm : FileInfo.Algorithm.values()) {
+            if (fileInfo.getChecksum(algorithm) != null) {
+                checksums.put(algorithm, fileInfo.getChecksum(algorithm));
+            }
+        }
+        return checksums;
+    }
+
+    private static String key(Path path, BasicFileAttributes attributes, String settings) {
+        return key(path.toString(), attributes.size(), modified(attributes), fileKey(attributes), settings);
+    }
+
+    private static String key(String path, long size, long modified, String fileKey, String settings) {
+        return path + '\0' + size + '\0' + modified + '\0' + fileKey + '\0' + settings;
+    }
+
+    private static long modified(BasicFileAttributes attributes) {
+        return attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+    private static String fileKey(BasicFileAttributes attributes) {
+        return attributes.fileKey() != null ? attributes.fileKey().toString() : "";
+    }
+
+    /**
+     * Cached information about one file, along with what identifies the version of the file it was computed for and
+     * the settings its formats were detected with.
+     */
+    private static class Entry {
+
+        private final String path;
+
+        private final long size;
+
+        private final long modified;
+
+        private final String fileKey;
+
+        private final String settings;
+
+        private final Map<FileInfo.Algorithm, String> checksums;
+
+        private final List<String> formats;
+
+        private Entry(String path, long size, long modified, String fileKey, String settings,
+                      Map<FileInfo.Algorithm, String> checksums, List<String> formats) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.fileKey = fileKey;
+            this.settings = settings;
+            this.checksums = checksums;
+            this.formats = formats;
+        }
+
+        private String key() {
+            return FileInfoCache.key(path, size, modified, fileKey, settings);
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeUTF(path);
+            out.writeLong(size);
+            out.writeLong(modified);
+            out.writeUTF(fileKey);
+            out.writeUTF(settings);
+            out.writeByte(checksums.size());
+            for (Map.Entry<FileInfo.Algorithm, String> checksum : checksums.entrySet()) {
+                out.writeUTF(checksum.getKey().name());
+                out.writeUTF(checksum.getValue());
+            }
+            out.writeShort(formats.size());
+            for (String format : formats) {
+                out.writeUTF(format);
+            }
+        }
+
+        private static Entry read(DataInputStream in) throws IOException {
+            String path = in.readUTF();
+            long size = in.readLong();
+            long modified = in.readLong();
+            String fileKey = in.readUTF();
+            String settings = in.readUTF();
+
+            Map<FileInfo.Algorithm, String> checksums = new EnumMap<>(FileInfo.Algorithm.class);
+            int checksumCount = in.readUnsignedByte();
+            for (int i = 0; i < checksumCount; i++) {
+                FileInfo.Algorithm algorithm;
+                try {
+                    algorithm = FileInfo.Algorithm.valueOf(in.readUTF());
+                } catch (IllegalArgumentException e) {
+                    throw new EOFException("Unknown checksum algorithm");
+                }
+                checksums.put(algorithm, in.readUTF());
+            }
+
+            int formatCount = in.readUnsignedShort();
+            List<String> formats = new ArrayList<>(formatCount);
+            for (int i = 0; i < formatCount; i++) {
+                formats.add(in.readUTF());
+            }
+
+            return new Entry(path, size, modified, fileKey, settings, checksums, formats);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package org.dataconservancy.packaging.tool.impl;
+
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dedicated executor for the blocking file reads done when computing {@link
+ * org.dataconservancy.packaging.tool.model.ipm.FileInfo}s, so that they don't run on (and starve) the common
+ * fork/join pool. The executor can be tuned for the storage being read:
+ * <ul>
+ *     <li>{@code threads} bounds the number of files read at the same time. A fast SSD benefits from more threads
+ *     than there are processors, a spinning disk from only a few.</li>
+ *     <li>{@code perDeviceConcurrency} additionally bounds the number of files read at the same time from any one
+ *     file store, so that a tree spanning several disks or network mounts can keep all of them busy without
+ *     thrashing any one of them. Zero, the default, means no per-device limit.</li>
+ *     <li>{@code virtualThreads} runs the reads on virtual threads, when the Java runtime supports them. The number of
+ *     files read at the same time is still bounded by {@code threads}. On runtimes without virtual threads a warning
+ *     is logged and platform threads are used.</li>
+ * </ul>
+ * <p>
+ * The underlying threads are created on first use, so the executor can be configured with setters after it is
+ * constructed. Threads are daemon threads, which exit after being idle for a minute; {@link #shutdown()} releases
+ * them early.
+ * </p>
+ */
+public class FileInfoExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileInfoExecutor.class);
+
+    private static final long IDLE_SECONDS = 60;
+
+    private int threads;
+
+    private int perDeviceConcurrency = 0;
+
+    private boolean virtualThreads = false;
+
+    private ExecutorService executor;
+
+    private final Map<Path, FileStore> fileStores = new ConcurrentHashMap<>();
+
+    private final Map<FileStore, Semaphore> devicePermits = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an executor using as many threads as there are available processors.
+     */
+    public FileInfoExecutor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads The maximum number of files read at the same time.
+     */
+    public FileInfoExecutor(int threads) {
+        setThreads(threads);
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @param threads The maximum number of files read at the same time, must be at least one.
+     */
+    public synchronized void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of FileInfo threads must be at least 1: " + threads);
+        }
+        checkNotStarted();
+        this.threads = threads;
+    }
+
+    public int getPerDeviceConcurrency() {
+        return perDeviceConcurrency;
+    }
+
+    /**
+     * @param perDeviceConcurrency The maximum number of files read at the same time from a single file store, or zero
+     *                             for no limit other than the number of threads.
+     */
+    public synchronized void setPerDeviceConcurrency(int perDeviceConcurrency) {
+        if (perDeviceConcurrency < 0) {
+            throw new IllegalArgumentException("The per-device concurrency must not be negative: " +
+                    perDeviceConcurrency);
+        }
+        checkNotStarted();
+        this.perDeviceConcurrency = perDeviceConcurrency;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * @param virtualThreads True to read files on virtual threads, if the runtime supports them.
+     */
+    public synchronized void setVirtualThreads(boolean virtualThreads) {
+        checkNotStarted();
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Submits a task to the executor.
+     * @param task The task to run.
+     * @return The future of the task.
+     */
+    public Future<?> submit(Runnable task) {
+        return getExecutor().submit(task);
+    }
+
+    /**
+     * Runs an operation reading a file, waiting first until the file store holding the file is below its concurrency
+     * limit.
+     * @param path The path of the file that will be read.
+     * @param operation The operation reading the file.
+     * @param <T> The type of the result of the operation.
+     * @return The result of the operation.
+     * @throws IOException If the operation fails.
+     * @throws InterruptedException If the calling thread is interrupted while waiting for the file store.
+     */
+    public <T> T read(Path path, IOOperation<T> operation) throws IOException, InterruptedException {
+        if (perDeviceConcurrency == 0) {
+            return operation.run();
+        }
+
+        Semaphore permits = devicePermits.computeIfAbsent(fileStore(path),
+                store -> new Semaphore(perDeviceConcurrency, true));
+
+        permits.acquire();
+        try {
+            return operation.run();
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Stops the threads of the executor. Tasks already running are interrupted. The executor may still be used
+     * afterwards, in which case new threads are created.
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Forgets the file stores of the directories read so far. Called once a tree is built, so that the cache doesn't
+     * keep an entry for every directory ever read.
+     */
+    public void clearFileStores() {
+        fileStores.clear();
+    }
+
+    /**
+     * Finds the file store of a path, caching it by parent directory since siblings almost always share a store.
+     */
+    private FileStore fileStore(Path path) throws IOException {
+        Path directory = path.getParent() != null ? path.getParent() : path;
+        FileStore store = fileStores.get(directory);
+        if (store == null) {
+            store = Files.getFileStore(path);
+            fileStores.put(directory, store);
+        }
+        return store;
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = createExecutor();
+        }
+        return executor;
+    }
+
+    private void checkNotStarted() {
+        if (executor != null) {
+            throw new IllegalStateException("The FileInfo executor can't be reconfigured once it is in use");
+        }
+    }
+
+    private ExecutorService createExecutor() {
+        if (virtualThreads) {
+            try {
+                // Looked up reflectively, the tool is built for runtimes that predate virtual threads
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) factory.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                LOG.warn("Virtual threads are not supported by this Java runtime, using {} platform threads", threads);
+            }
+        }
+
+        final AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, "fileinfo-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, IDLE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), factory);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * An operation reading a file.
+     * @param <T> The type of the result of the operation.
+     */
+    @FunctionalInterface
+    public interface IOOperation<T> {
+        T run() throws IOException;
+    }
+}
@@ -0,0 +1,275 @@
+package org.dataconservancy.packaging.tool.impl;
+
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import org.dataconservancy.packaging.tool.api.support.TreeBuildProgressListener;
+import org.dataconservancy.packaging.tool.model.ipm.FileInfo;
+import org.dataconservancy.packaging.tool.model.ipm.Node;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+/**
+ * Computes the {@link FileInfo} of nodes while the tree is still being walked. Nodes reported by the walker are put on
+ * a bounded queue, which is drained by workers running on a {@link FileInfoExecutor}, one per executor thread. When
+ * the workers fall behind the queue fills up and the walking threads block, so the number of pending entries never
+ * exceeds the capacity of the queue.
+ * <p>
+ * The pipeline is used as the visitor of a {@link FileSystemTreeWalker}: {@link #start()} it before the walk,
+ * and {@link #finish()} it once the walk is done to wait for the remaining entries to be processed.
+ * </p>
+ */
+class FileInfoPipeline implements BiConsumer<Node, Path> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileInfoPipeline.class);
+
+    /**
+     * Marks the end of the queue, one is put on the queue for each worker.
+     */
+    private static final Entry END = new Entry(null, null, 0);
+
+    private final BlockingQueue<Entry> queue;
+
+    private final FileInfoExecutor executor;
+
+    private final List<Future<?>> workers = new ArrayList<>();
+
+    private final FileInfoCache cache;
+
+    private final Map<URI, FileInfo> previous;
+
+    private final TreeBuildProgressListener progressListener;
+
+    private final AtomicLong filesDiscovered = new AtomicLong();
+
+    private final AtomicLong bytesDiscovered = new AtomicLong();
+
+    private final AtomicLong filesProcessed = new AtomicLong();
+
+    private final AtomicLong bytesProcessed = new AtomicLong();
+
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    /**
+     * @param executor the executor running the workers computing file information
+     * @param capacity the maximum number of entries waiting to be processed
+     * @param cache the cache of file information of unchanged files, may be null
+     * @param previous file information computed earlier for the same files, keyed by location, which is reused for
+     *                 files whose size and modification time haven't changed; may be null
+     * @param progressListener notified of the progress of the pipeline, may be null
+     */
+    FileInfoPipeline(FileInfoExecutor executor, int capacity, FileInfoCache cache, Map<URI, FileInfo> previous,
+                     TreeBuildProgressListener progressListener) {
+        this.executor = executor;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.cache = cache;
+        this.previous = previous;
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Starts the workers draining the queue.
+     */
+    void start() {
+        for (int i = 0; i < executor.getThreads(); i++) {
+            workers.add(executor.submit(this::drain));
+        }
+    }
+
+    /**
+     * Queues a node discovered by the walker, blocking while the queue is full.
+     * @param node the node to compute the file information for
+     * @param path the path the node was created from
+     * @throws CancellationException if the calling thread is interrupted while waiting for room on the queue
+     * @throws RuntimeException the first unexpected error thrown while processing an entry, which stops the walk
+     */
+    @Override
+    public void accept(Node node, Path path) {
+        if (failure.get() != null) {
+            throw rethrow(failure.get());
+        }
+
+        long size = 0;
+        try {
+            BasicFileAttributes attributes =
+                    Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (attributes.isRegularFile()) {
+                size = attributes.size();
+            }
+        } catch (IOException e) {
+            // The size is only used to report progress, the error is reported when the entry is processed
+        }
+
+        filesDiscovered.incrementAndGet();
+        bytesDiscovered.addAndGet(size);
+        notifyProgress();
+
+        try {
+            queue.put(new Entry(node, path, size));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while queuing " + path);
+        }
+    }
+
+    /**
+     * Waits for every queued entry to be processed, and stops the workers.
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     * @throws RuntimeException the first unexpected error thrown while processing an entry
+     * @throws Error the first error thrown while processing an entry
+     */
+    void finish() throws InterruptedException {
+        for (int i = 0; i < workers.size(); i++) {
+            queue.put(END);
+        }
+
+        for (Future<?> worker : workers) {
+            try {
+                worker.get();
+            } catch (ExecutionException e) {
+                failure.compareAndSet(null, e.getCause());
+            }
+        }
+
+        if (failure.get() != null) {
+            throw rethrow(failure.get());
+        }
+    }
+
+    /**
+     * Stops the workers, discarding entries that have not been processed yet.
+     */
+    void cancel() {
+        for (Future<?> worker : workers) {
+            worker.cancel(true);
+        }
+        queue.clear();
+    }
+
+    private void drain() {
+        try {
+            for (Entry entry = queue.take(); entry != END; entry = queue.take()) {
+                process(entry);
+            }
+        } catch (InterruptedException e) {
+            // The pipeline was cancelled
+        }
+    }
+
+    private void process(Entry entry) throws InterruptedException {
+        try {
+            entry.node.setFileInfo(executor.read(entry.path, () -> createFileInfo(entry.path.toRealPath())));
+        } catch (IOException e) {
+            LOG.warn("Unable to resolve file path '{}': {}", entry.path, e.getMessage(), e);
+        } catch (RuntimeException | Error e) {
+            // Keep draining so the walker is not blocked, the error is rethrown by accept() and finish()
+            failure.compareAndSet(null, e);
+        }
+
+        filesProcessed.incrementAndGet();
+        bytesProcessed.addAndGet(entry.size);
+        notifyProgress();
+    }
+
+    private FileInfo createFileInfo(Path realPath) throws IOException {
+        if (previous != null) {
+            FileInfo known = previous.get(realPath.toUri());
+            if (known != null && known.isFile()) {
+                BasicFileAttributes attributes = Files.readAttributes(realPath, BasicFileAttributes.class);
+                if (isUnchanged(known, attributes)) {
+                    return new FileInfo(realPath, attributes,
+                            known.getFormats() != null ? new ArrayList<>(known.getFormats()) : null,
+                            FileInfoCache.checksums(known));
+                }
+            }
+        }
+
+        if (cache != null) {
+            return cache.getFileInfo(realPath);
+        }
+        return new FileInfo(realPath);
+    }
+
+    /**
+     * Decides whether a file is unchanged since its file information was computed, from its attributes alone. The
+     * modification time is compared to the millisecond, the precision it is persisted with, and the file key only if
+     * it is known.
+     * @param known the file information computed earlier
+     * @param attributes the current attributes of the file
+     * @return true if the size, modification time and file key of the file are unchanged
+     */
+    static boolean isUnchanged(FileInfo known, BasicFileAttributes attributes) {
+        return attributes.isRegularFile()
+                && known.getSize() == attributes.size()
+                && known.getLastModifiedTime() != null
+                && known.getLastModifiedTime().toMillis() == attributes.lastModifiedTime().toMillis()
+                && (known.getFileKey() == null || known.getFileKey().equals(attributes.fileKey()))
+                && known.getChecksum(FileInfo.Algorithm.MD5) != null
+                && known.getChecksum(FileInfo.Algorithm.SHA1) != null;
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        }
+        return new RuntimeException(t);
+    }
+
+    private void notifyProgress() {
+        if (progressListener != null) {
+            progressListener.progress(filesDiscovered.get(), bytesDiscovered.get(), filesProcessed.get(),
+                    bytesProcessed.get());
+        }
+    }
+
+    private static class Entry {
+
+        private final Node node;
+
+        private final Path path;
+
+        private final long size;
+
+        private Entry(Node node, Path path, long size) {
+            this.node = node;
+            this.path = path;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package org.dataconservancy.packaging.tool.impl;
+
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import org.dataconservancy.packaging.tool.model.ipm.Node;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+/**
+ * Builds a tree of {@link Node}s from the file system, listing sibling directories concurrently on a work-stealing
+ * {@link ForkJoinPool}. Each directory is listed by exactly one task, which creates and attaches the nodes of its
+ * children in listing order, so no shared lookup tables are needed to find the parent of a file.
+ * <p>
+ * Entries that are hidden, or whose name starts with a ".", are added to the tree but marked as ignored, as are all of
+ * their descendants. Symbolic links that resolve to a location underneath the root are skipped, to avoid cycles.
+ * </p>
+ * <p>
+ * The walk is cancelled if the thread calling {@link #walk(Path)} is interrupted. In that case the interrupt status of
+ * the calling thread is preserved, and the partially built tree is returned once all the walking threads have stopped.
+ * </p>
+ */
+class FileSystemTreeWalker {
+
+    private final URIGenerator uriGenerator;
+
+    private final int parallelism;
+
+    private final BiConsumer<Node, Path> visitor;
+
+    private boolean ignoreHidden = true;
+
+    private boolean ignoreDot = true;
+
+    private volatile boolean cancelled = false;
+
+    private Path rootPath;
+
+    /**
+     * @param uriGenerator generates the identifiers of created nodes, must be thread-safe
+     * @param parallelism the number of threads listing directories
+     * @param visitor called for every node added to the tree along with the path it was created from; it is called
+     *                concurrently from the walking threads, and must be thread-safe
+     */
+    FileSystemTreeWalker(URIGenerator uriGenerator, int parallelism, BiConsumer<Node, Path> visitor) {
+        this.uriGenerator = uriGenerator;
+        this.parallelism = parallelism;
+        this.visitor = visitor;
+    }
+
+    void setIgnoreHidden(boolean ignoreHidden) {
+        this.ignoreHidden = ignoreHidden;
+    }
+
+    void setIgnoreDot(boolean ignoreDot) {
+        this.ignoreDot = ignoreDot;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Walks the file system under the supplied path.
+     * @param path The path of the root of the tree.
+     * @return The root node of the tree.
+     * @throws IOException If the file system can't be read.
+     */
+    Node walk(Path path) throws IOException {
+        File rootFile = path.toFile();
+        rootPath = rootFile.toPath().toRealPath();
+
+        Node root = createNode(rootFile, null);
+
+        boolean interrupted = false;
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            ForkJoinTask<Void> task = pool.submit(new DirectoryTask(rootFile, root));
+
+            while (!task.isDone()) {
+                try {
+                    task.get(1, TimeUnit.SECONDS);
+                } catch (TimeoutException e) {
+                    // Keep waiting, the walk is still in progress
+                } catch (InterruptedException e) {
+                    cancel();
+                    interrupted = true;
+                    break;
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof UncheckedIOException) {
+                        throw ((UncheckedIOException) e.getCause()).getCause();
+                    }
+                    throw new IOException(e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+            // Wait for the running tasks to stop, so that none of them changes the tree once it is returned
+            while (!pool.isTerminated()) {
+                try {
+                    pool.awaitTermination(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    cancel();
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        return root;
+    }
+
+    /**
+     * Creates the node for a file, attaches it to its parent and reports it to the visitor.
+     * @param file The file the node is created for.
+     * @param parent The parent node, or null for the root.
+     * @return The new node.
+     * @throws IOException If the file attributes can't be read.
+     */
+    private Node createNode(File file, Node parent) throws IOException {
+        final Path fileAsPath = file.toPath();
+        final Node node = new Node(uriGenerator.generateNodeURI());
+
+        if (parent != null) {
+            node.setParent(parent);
+            parent.addChild(node);
+        }
+
+        if (Files.isHidden(fileAsPath) && ignoreHidden) {
+            node.setIgnored(true);
+        }
+
+        if (fileAsPath.getFileName().toString().startsWith(".") && ignoreDot) {
+            node.setIgnored(true);
+        }
+
+        if (parent != null && parent.isIgnored()) {
+            node.setIgnored(true);
+        }
+
+        visitor.accept(node, fileAsPath);
+
+        return node;
+    }
+
+    /**
+     * @param path The path to check.
+     * @return True if the path is a symbolic link resolving to a location underneath the root, false otherwise.
+     * @throws IOException If the link can't be resolved for a reason other than a missing target.
+     */
+    private boolean isLinkUnderRoot(Path path) throws IOException {
+        if (!Files.isSymbolicLink(path)) {
+            return false;
+        }
+
+        try {
+            return path.toRealPath().startsWith(rootPath);
+        } catch (NoSuchFileException e) {
+            // A broken link can't create a cycle
+            return false;
+        }
+    }
+
+    /**
+     * Lists one directory, creates the nodes of its children, and forks a task for each child directory.
+     */
+    private class DirectoryTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final File directory;
+
+        private final Node node;
+
+        private DirectoryTask(File directory, Node node) {
+            this.directory = directory;
+            this.node = node;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled) {
+                return;
+            }
+
+            File[] childFiles = directory.listFiles();
+            if (childFiles == null) {
+                return;
+            }
+
+            List<DirectoryTask> subTasks = new ArrayList<>();
+            try {
+                for (File childFile : childFiles) {
+                    if (cancelled) {
+                        return;
+                    }
+
+                    if (isLinkUnderRoot(childFile.toPath())) {
+                        // ignore: the symbolic link is targeting a file underneath the root
+                        continue;
+                    }
+
+                    Node child = createNode(childFile, node);
+
+                    if (childFile.isDirectory()) {
+                        subTasks.add(new DirectoryTask(childFile, child));
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            invokeAll(subTasks);
+        }
+    }
+}
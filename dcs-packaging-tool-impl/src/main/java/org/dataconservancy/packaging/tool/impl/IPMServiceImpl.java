@@ -18,33 +18,31 @@ package org.dataconservancy.packaging.tool.impl;
  */
 
 
-import org.apache.commons.io.DirectoryWalker;
 import org.dataconservancy.packaging.tool.api.IPMService;
 import org.dataconservancy.packaging.tool.api.support.NodeComparison;
+import org.dataconservancy.packaging.tool.api.support.TreeBuildProgressListener;
 import org.dataconservancy.packaging.tool.impl.support.FilenameValidatorService;
 import org.dataconservancy.packaging.tool.model.ipm.FileInfo;
 import org.dataconservancy.packaging.tool.model.ipm.Node;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
 import java.io.IOException;
 import java.net.URI;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 public class IPMServiceImpl implements IPMService {
-    private Map<URI, File> fileUris = new HashMap<>();
-    private Map<File, Node> fileToNode = new HashMap<>();
-    private Set<Node> visitedFiles = new HashSet<>();
     private final URIGenerator uriGenerator;
+    private int walkerThreads = Runtime.getRuntime().availableProcessors();
+    private FileInfoExecutor fileInfoExecutor;
+    private FileInfoCache fileInfoCache;
+    private boolean incrementalRefresh = false;
+    private int queueCapacity = 1024;
+    private TreeBuildProgressListener progressListener;
     private FilenameValidatorService validatorService;
     private final Logger log = LoggerFactory.getLogger(this.getClass());
 
@@ -53,48 +51,103 @@ public class IPMServiceImpl implements IPMService {
         this.validatorService = new FilenameValidatorService();
     }
 
-    @Override
-    public Node createTreeFromFileSystem(Path path) throws IOException {
+    /**
+     * Sets the number of threads used to list directories when creating a tree from the file system.
+     * @param walkerThreads The number of walker threads, defaults to the number of available processors.
+     */
+    public void setWalkerThreads(int walkerThreads) {
+        this.walkerThreads = walkerThreads;
+    }
 
-        visitedFiles.clear();
-        fileUris.clear();
-        fileToNode.clear();
+    /**
+     * Sets the executor reading files to compute their checksums and formats while a tree is created from the file
+     * system.
+     * @param fileInfoExecutor The executor, defaults to an executor with a thread per available processor, which is
+     *                         created when a tree is first created.
+     */
+    public synchronized void setFileInfoExecutor(FileInfoExecutor fileInfoExecutor) {
+        this.fileInfoExecutor = fileInfoExecutor;
+    }
 
-        Walker walker = new Walker();
+    private synchronized FileInfoExecutor getFileInfoExecutor() {
+        if (fileInfoExecutor == null) {
+            fileInfoExecutor = new FileInfoExecutor();
+        }
+        return fileInfoExecutor;
+    }
 
-        Thread walkerThread = new Thread(() -> {
-            try {
-                walker.doWalk(path.toFile(), visitedFiles);
-            } catch (IOException e) {
-                walker.cancel();
-            }
-        });
+    /**
+     * Sets the cache used to avoid reading files that haven't changed since the last time a tree was built from them.
+     * @param fileInfoCache The cache, or null to always read files. Defaults to null.
+     */
+    public void setFileInfoCache(FileInfoCache fileInfoCache) {
+        this.fileInfoCache = fileInfoCache;
+    }
+
+    /**
+     * Sets whether refreshing a tree reuses the checksums and formats of files whose size and modification time are
+     * unchanged, instead of reading every file again.
+     * @param incrementalRefresh True to only read changed files when refreshing, defaults to false.
+     */
+    public void setIncrementalRefresh(boolean incrementalRefresh) {
+        this.incrementalRefresh = incrementalRefresh;
+    }
+
+    /**
+     * Sets the maximum number of files discovered by the walk that may be waiting for their checksums and formats to be
+     * computed. When this many files are waiting, the walk pauses until some of them are processed.
+     * @param queueCapacity The capacity of the queue, defaults to 1024.
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Sets a listener notified of the progress of trees being created from the file system.
+     * @param progressListener The listener, or null to not report progress.
+     */
+    public void setProgressListener(TreeBuildProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
 
-        walkerThread.start();
+    @Override
+    public Node createTreeFromFileSystem(Path path) throws IOException {
+        return createTreeFromFileSystem(path, null);
+    }
 
-        while (walkerThread.isAlive()) {
-            if (Thread.currentThread().isInterrupted()) {
-                walker.cancel();
+    /**
+     * Creates a tree from the file system, reusing file information computed earlier for unchanged files.
+     * @param path The path on the file system to create a node tree from.
+     * @param previous File information computed earlier keyed by location, or null to read every file.
+     * @return The root of the tree.
+     * @throws IOException If the file system can't be read.
+     */
+    private Node createTreeFromFileSystem(Path path, Map<URI, FileInfo> previous) throws IOException {
+        FileInfoExecutor executor = getFileInfoExecutor();
+        FileInfoPipeline pipeline = new FileInfoPipeline(executor, queueCapacity, fileInfoCache, previous,
+                progressListener);
+        FileSystemTreeWalker walker = new FileSystemTreeWalker(uriGenerator, walkerThreads, pipeline);
+
+        pipeline.start();
+        Node root = null;
+        try {
+            root = walker.walk(path);
+
+            if (!walker.isCancelled()) {
+                pipeline.finish();
             }
-            try {
-                walkerThread.join(1000 * 5);
-            } catch (InterruptedException e) {
-                // ignore
+        } catch (InterruptedException e) {
+            // Return the partially processed tree, callers check the interrupt status
+            Thread.currentThread().interrupt();
+        } finally {
+            pipeline.cancel();
+            executor.clearFileStores();
+            if (fileInfoCache != null) {
+                fileInfoCache.flush();
             }
         }
 
-        visitedFiles.parallelStream().forEach(visitedNode -> {
-            final File file = fileUris.get(visitedNode.getIdentifier());
-            final FileInfo fi;
-            try {
-                fi = new FileInfo(file.toPath().toRealPath());
-                visitedNode.setFileInfo(fi);
-            } catch (IOException e) {
-                log.warn("Unable to resolve file path '{}': {}", file.toPath(), e.getMessage(), e);
-            }
-        });
-
-        return walker.getRoot();
+        return root;
     }
 
     @Override
@@ -340,19 +393,44 @@ public class IPMServiceImpl implements IPMService {
 
     @Override
     public Map<Node, NodeComparison> refreshTreeContent(Node node) throws IOException {
-        Node newTree = buildComparisonTree(node);
+        Map<URI, FileInfo> previous = null;
+        if (incrementalRefresh) {
+            previous = new HashMap<>();
+            addFileInfo(node, previous);
+        }
+
+        Node newTree = buildComparisonTree(node, previous);
         return compareTree(node, newTree);
     }
 
+    /**
+     * Collects the file information of the regular files in a tree, keyed by location.
+     * @param node The root of the tree.
+     * @param fileInfoMap The map the file information is added to.
+     */
+    private void addFileInfo(Node node, Map<URI, FileInfo> fileInfoMap) {
+        if (node.getFileInfo() != null && node.getFileInfo().isFile() && node.getFileInfo().getLocation() != null) {
+            fileInfoMap.put(node.getFileInfo().getLocation(), node.getFileInfo());
+        }
+
+        if (node.getChildren() != null) {
+            for (Node child : node.getChildren()) {
+                addFileInfo(child, fileInfoMap);
+            }
+        }
+    }
+
     /**
      * Builds a tree from the current file system to compare with the existing file system.
      * @param node The node from the existing tree that will be the root of the comparison
+     * @param previous The file information of the existing tree keyed by location, reused for files that haven't
+     *                 changed, or null to read every file.
      * @return The root of the new tree to compare
      * @throws IOException If there is a problem reading from the file system.
      */
-    private Node buildComparisonTree(Node node) throws IOException {
-        Node newTree = createTreeFromFileSystem(Paths.get(node.getFileInfo().getLocation()));
-        buildContentRoots(node, newTree);
+    private Node buildComparisonTree(Node node, Map<URI, FileInfo> previous) throws IOException {
+        Node newTree = createTreeFromFileSystem(Paths.get(node.getFileInfo().getLocation()), previous);
+        buildContentRoots(node, newTree, previous);
 
         return newTree;
     }
@@ -361,24 +439,25 @@ public class IPMServiceImpl implements IPMService {
      * Loops through the existing tree to find any content locations different from their parent, it then builds a tree from the file system under that location.
      * @param node The node to check for different content locations
      * @param newTree The new tree to add the tree from the file system to
+     * @param previous The file information of the existing tree keyed by location, or null to read every file.
      * @throws IOException If there is a problem reading from the file system.
      */
-    private void buildContentRoots(Node node, Node newTree) throws IOException {
+    private void buildContentRoots(Node node, Node newTree, Map<URI, FileInfo> previous) throws IOException {
         if (node.getChildren() != null && node.getFileInfo() != null) {
             for (Node child : node.getChildren()) {
                 if (child.getFileInfo() != null && Paths.get(child.getFileInfo().getLocation()).toFile().exists()) {
                     if (!Paths.get(child.getFileInfo().getLocation()).startsWith(Paths.get(node.getFileInfo().getLocation()))) {
                         Node newTreeParent = getNewTreeNodeForExistingNode(node, newTree);
                         if (newTreeParent != null) {
-                            newTreeParent.addChild(buildComparisonTree(child));
+                            newTreeParent.addChild(buildComparisonTree(child, previous));
                         } else {
-                            newTree.addChild(buildComparisonTree(child));
+                            newTree.addChild(buildComparisonTree(child, previous));
                         }
                     } else if (child.getChildren() != null) {
-                        buildContentRoots(child, newTree);
+                        buildContentRoots(child, newTree, previous);
                     }
                 } else if (child.getChildren() != null) {
-                    buildContentRoots(child, newTree);
+                    buildContentRoots(child, newTree, previous);
                 }
             }
         }
@@ -428,108 +507,4 @@ public class IPMServiceImpl implements IPMService {
             throw new IOException("Error creating package tree. The following names were invalid:\n\n" + invalidNames);
         }
     }
-
-    private class Walker extends DirectoryWalker<Node> {
-
-        private boolean verifyExists = true;
-
-        private boolean ignoreHidden = true;
-
-        private boolean ignoreDot = true;
-
-        private Node root = null;
-
-        private Path rootPath = null;
-
-        private volatile boolean cancelled = false;
-
-        private Walker() {
-
-        }
-
-        private Walker(boolean verifyExists, boolean ignoreHidden, boolean ignoreDot) {
-            this.verifyExists = verifyExists;
-            this.ignoreHidden = ignoreHidden;
-            this.ignoreDot  = ignoreDot;
-        }
-
-        private void doWalk(File baseDir, Collection<Node> results) throws IOException {
-            super.walk(baseDir, results);
-        }
-
-        @Override
-        protected boolean handleDirectory(File directory, int depth, Collection<Node> results) throws IOException {
-            return handle(directory, depth, results);
-        }
-
-        @Override
-        protected void handleFile(File file, int depth, Collection<Node> results) throws IOException {
-            handle(file, depth, results);
-        }
-
-        private boolean handle(File file, int depth, Collection<Node> results) throws IOException {
-            final Path fileAsPath = file.toPath();
-
-            if (Files.isSymbolicLink(fileAsPath) && fileAsPath.toRealPath().startsWith(rootPath)) {
-                // ignore: the symbolic link is targeting a file underneath the root
-                return false;
-            }
-
-            final URI nodeUri = uriGenerator.generateNodeURI();
-            final Node node = new Node(nodeUri);
-
-            fileUris.put(nodeUri, file);
-            fileToNode.put(file, node);
-            results.add(node);
-
-            if (root == null) {
-                root = node;
-                rootPath = fileAsPath.toRealPath();
-            } else {
-                Node parent = fileToNode.get(file.getParentFile());
-                node.setParent(parent);
-                parent.addChild(node);
-            }
-
-            if (Files.isHidden(fileAsPath) && ignoreHidden) {
-                node.setIgnored(true);
-            }
-
-            if (fileAsPath.getFileName().toString().startsWith(".") && ignoreDot) {
-                node.setIgnored(true);
-            }
-
-            if (node.getParent() != null && node.getParent().isIgnored()) {
-                node.setIgnored(node.getParent().isIgnored());
-            }
-
-            if (!verifyExists || file.exists()) {
-                results.add(node);
-                return true;
-            }
-
-            return false;
-        }
-
-        private void cancel() {
-            cancelled = true;
-        }
-
-        @Override
-        protected void handleCancelled(File startDirectory, Collection<Node> results, CancelException cancel)
-                throws IOException {
-            visitedFiles.clear();
-            fileUris.clear();
-            fileToNode.clear();
-        }
-
-        @Override
-        protected boolean handleIsCancelled(File file, int depth, Collection<Node> results) throws IOException {
-            return cancelled;
-        }
-
-        private Node getRoot() {
-            return root;
-        }
-    }
 }
@@ -0,0 +1,244 @@
+package org.dataconservancy.packaging.tool.impl;
+
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compresses and decompresses blocks in the LZ4 block format. The compressor is the fast, greedy, single hash table
+ * variant, which favours speed over compression ratio like the reference implementation's default level.
+ */
+class Lz4Block {
+
+    private static final int MIN_MATCH = 4;
+
+    /**
+     * The last literals of a block, which can't be part of a match.
+     */
+    private static final int LAST_LITERALS = 5;
+
+    /**
+     * The last match must start at least this many bytes before the end of the block.
+     */
+    private static final int MF_LIMIT = 12;
+
+    private static final int MAX_OFFSET = 65535;
+
+    private static final int HASH_LOG = 16;
+
+    /**
+     * After this many failed attempts to find a match, positions are skipped faster, so incompressible content goes
+     * through quickly.
+     */
+    private static final int SKIP_TRIGGER = 6;
+
+    /**
+     * Positions of the last occurrences of 4 byte sequences, plus one so that 0 means none.
+     */
+    private final int[] hashTable = new int[1 << HASH_LOG];
+
+    /**
+     * @param length the number of bytes to compress
+     * @return the size of a buffer large enough for the compressed bytes, whatever they are
+     */
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compresses a block, independently of any block before it.
+     * @param src the bytes to compress
+     * @param srcLength the number of bytes to compress
+     * @param dst the buffer the compressed block is written to, at least {@link #maxCompressedLength(int)} long
+     * @return the size of the compressed block
+     */
+    int compress(byte[] src, int srcLength, byte[] dst) {
+        int op = 0;
+        int anchor = 0;
+
+        if (srcLength >= MF_LIMIT + 1) {
+            Arrays.fill(hashTable, 0);
+            int matchLimit = srcLength - LAST_LITERALS;
+            int lastMatchStart = srcLength - MF_LIMIT;
+            int ip = 0;
+            int attempts = 1 << SKIP_TRIGGER;
+
+            while (ip <= lastMatchStart) {
+                int sequence = readInt(src, ip);
+                int h = hash(sequence);
+                int ref = hashTable[h] - 1;
+                hashTable[h] = ip + 1;
+
+                if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                    ip += attempts++ >>> SKIP_TRIGGER;
+                    continue;
+                }
+                attempts = 1 << SKIP_TRIGGER;
+
+                while (ip > anchor && ref > 0 && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                int matchLength = MIN_MATCH;
+                while (ip + matchLength < matchLimit && src[ref + matchLength] == src[ip + matchLength]) {
+                    matchLength++;
+                }
+
+                op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLength, dst, op);
+                ip += matchLength;
+                anchor = ip;
+                if (ip - 2 <= lastMatchStart) {
+                    hashTable[hash(readInt(src, ip - 2))] = ip - 2 + 1;
+                }
+            }
+        }
+
+        return writeLastLiterals(src, anchor, srcLength - anchor, dst, op);
+    }
+
+    /**
+     * Decompresses a block. Matches may refer to bytes decompressed before the block, from {@code dstStart} on.
+     * @param src the compressed block
+     * @param srcOffset the offset of the compressed block
+     * @param srcLength the size of the compressed block
+     * @param dst the buffer the block is decompressed to
+     * @param dstStart the first byte of {@code dst} matches may refer to
+     * @param dstOffset the offset the block is decompressed at
+     * @param dstLimit the end of the space available in {@code dst}
+     * @return the offset in {@code dst} following the last decompressed byte
+     * @throws IOException if the block is corrupt
+     */
+    static int decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstStart, int dstOffset,
+                          int dstLimit) throws IOException {
+        int ip = srcOffset;
+        int end = srcOffset + srcLength;
+        int op = dstOffset;
+
+        while (ip < end) {
+            int token = src[ip++] & 0xff;
+
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int b;
+                do {
+                    if (ip >= end) {
+                        throw new IOException("Corrupt LZ4 block: truncated literal length");
+                    }
+                    b = src[ip++] & 0xff;
+                    literals += b;
+                } while (b == 255);
+            }
+            if (literals > end - ip || literals > dstLimit - op) {
+                throw new IOException("Corrupt LZ4 block: literals out of bounds");
+            }
+            System.arraycopy(src, ip, dst, op, literals);
+            ip += literals;
+            op += literals;
+
+            if (ip == end) {
+                return op;
+            }
+
+            if (end - ip < 2) {
+                throw new IOException("Corrupt LZ4 block: truncated match offset");
+            }
+            int offset = (src[ip] & 0xff) | (src[ip + 1] & 0xff) << 8;
+            ip += 2;
+            if (offset == 0 || offset > op - dstStart) {
+                throw new IOException("Corrupt LZ4 block: match offset out of bounds");
+            }
+
+            int matchLength = token & 0x0f;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    if (ip >= end) {
+                        throw new IOException("Corrupt LZ4 block: truncated match length");
+                    }
+                    b = src[ip++] & 0xff;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            if (matchLength > dstLimit - op) {
+                throw new IOException("Corrupt LZ4 block: match out of bounds");
+            }
+
+            int ref = op - offset;
+            if (offset >= matchLength) {
+                System.arraycopy(dst, ref, dst, op, matchLength);
+                op += matchLength;
+            } else {
+                // Overlapping match, repeating the last bytes
+                for (int i = 0; i < matchLength; i++) {
+                    dst[op++] = dst[ref++];
+                }
+            }
+        }
+
+        throw new IOException("Corrupt LZ4 block: missing last literals");
+    }
+
+    private static int writeSequence(byte[] src, int literalsOffset, int literals, int offset, int matchLength,
+                                     byte[] dst, int op) {
+        int extraMatchLength = matchLength - MIN_MATCH;
+        int token = op++;
+        dst[token] = (byte) ((Math.min(literals, 15) << 4) | Math.min(extraMatchLength, 15));
+
+        op = writeLength(literals, dst, op);
+        System.arraycopy(src, literalsOffset, dst, op, literals);
+        op += literals;
+
+        dst[op++] = (byte) offset;
+        dst[op++] = (byte) (offset >>> 8);
+
+        return writeLength(extraMatchLength, dst, op);
+    }
+
+    private static int writeLastLiterals(byte[] src, int literalsOffset, int literals, byte[] dst, int op) {
+        dst[op++] = (byte) (Math.min(literals, 15) << 4);
+        op = writeLength(literals, dst, op);
+        System.arraycopy(src, literalsOffset, dst, op, literals);
+        return op + literals;
+    }
+
+    /**
+     * Writes the part of a literal or match length which doesn't fit in the token.
+     */
+    private static int writeLength(int length, byte[] dst, int op) {
+        if (length >= 15) {
+            length -= 15;
+            while (length >= 255) {
+                dst[op++] = (byte) 255;
+                length -= 255;
+            }
+            dst[op++] = (byte) length;
+        }
+        return op;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * 0x9E3779B1) >>> (32 - HASH_LOG);
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+    }
+}
@@ -0,0 +1,278 @@
+package org.dataconservancy.packaging.tool.impl;
+
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import org.apache.commons.compress.compressors.CompressorInputStream;
+import org.apache.commons.io.IOUtils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decompresses the LZ4 frame format, the format of {@code .lz4} files. Any frame written by the reference
+ * implementation can be read, except for frames compressed with a dictionary; checksums are verified when present.
+ */
+public class Lz4FrameInputStream extends CompressorInputStream {
+
+    private static final int SKIPPABLE_MAGIC = 0x184D2A50;
+
+    private static final int SKIPPABLE_MAGIC_MASK = 0xFFFFFFF0;
+
+    /**
+     * How far back matches can refer to, in blocks linked to the blocks before them.
+     */
+    private static final int WINDOW_SIZE = 64 * 1024;
+
+    private final InputStream in;
+
+    private final boolean decompressConcatenated;
+
+    private final byte[] oneByte = new byte[1];
+
+    private final XXHash32 contentChecksum = new XXHash32();
+
+    private byte[] window = new byte[0];
+
+    private byte[] compressed = new byte[0];
+
+    private int readPosition = 0;
+
+    private int blockEnd = 0;
+
+    private boolean inFrame = false;
+
+    private boolean firstFrame = true;
+
+    private boolean endOfStream = false;
+
+    private boolean independentBlocks;
+
+    private boolean hasBlockChecksums;
+
+    private boolean hasContentChecksum;
+
+    private int maxBlockSize;
+
+    /**
+     * Creates a stream reading the first frame only.
+     * @param in the compressed content
+     */
+    public Lz4FrameInputStream(InputStream in) {
+        this(in, false);
+    }
+
+    /**
+     * @param in the compressed content
+     * @param decompressConcatenated whether to read the frames following the first one as part of the same content,
+     *                               as the reference implementation does
+     */
+    public Lz4FrameInputStream(InputStream in, boolean decompressConcatenated) {
+        this.in = in;
+        this.decompressConcatenated = decompressConcatenated;
+    }
+
+    /**
+     * Checks if the signature matches what is expected for an LZ4 frame.
+     * @param signature the bytes to check
+     * @param length the number of bytes to check
+     * @return true if this is an LZ4 frame
+     */
+    public static boolean matches(byte[] signature, int length) {
+        return length >= 4 && readInt(signature, 0) == Lz4FrameOutputStream.MAGIC;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(oneByte, 0, 1) == -1 ? -1 : oneByte[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (readPosition == blockEnd) {
+            if (!nextBlock()) {
+                return -1;
+            }
+        }
+
+        int read = Math.min(len, blockEnd - readPosition);
+        System.arraycopy(window, readPosition, b, off, read);
+        readPosition += read;
+        count(read);
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private boolean nextBlock() throws IOException {
+        if (endOfStream) {
+            return false;
+        }
+        if (!inFrame && !readFrameHeader()) {
+            endOfStream = true;
+            return false;
+        }
+
+        int size = readInt();
+        if (size == 0) {
+            if (hasContentChecksum && readInt() != contentChecksum.getValue()) {
+                throw new IOException("Corrupt LZ4 frame: content checksum mismatch");
+            }
+            inFrame = false;
+            if (!decompressConcatenated) {
+                endOfStream = true;
+            }
+            readPosition = blockEnd = 0;
+            return !endOfStream;
+        }
+
+        boolean isCompressed = (size & Lz4FrameOutputStream.UNCOMPRESSED_FLAG) == 0;
+        size &= ~Lz4FrameOutputStream.UNCOMPRESSED_FLAG;
+        if (size > maxBlockSize) {
+            throw new IOException("Corrupt LZ4 frame: block larger than the maximum block size");
+        }
+
+        // Keep the end of the previous block around, for linked blocks to refer to
+        int start = 0;
+        if (!independentBlocks) {
+            start = Math.min(WINDOW_SIZE, blockEnd);
+            System.arraycopy(window, blockEnd - start, window, 0, start);
+        }
+
+        byte[] block = isCompressed ? compressed : window;
+        int blockOffset = isCompressed ? 0 : start;
+        readFully(block, blockOffset, size);
+        if (hasBlockChecksums && readInt() != XXHash32.hash(block, blockOffset, size)) {
+            throw new IOException("Corrupt LZ4 frame: block checksum mismatch");
+        }
+
+        readPosition = start;
+        blockEnd = isCompressed
+                ? Lz4Block.decompress(compressed, 0, size, window, independentBlocks ? start : 0, start, window.length)
+                : start + size;
+        if (hasContentChecksum) {
+            contentChecksum.update(window, readPosition, blockEnd - readPosition);
+        }
+        return true;
+    }
+
+    /**
+     * Reads a frame header, skipping skippable frames before it.
+     * @return false if there are no more frames
+     */
+    private boolean readFrameHeader() throws IOException {
+        byte[] magic = new byte[4];
+        int magicNumber;
+        do {
+            int read = IOUtils.read(in, magic);
+            if (read == 0 && !firstFrame) {
+                return false;
+            } else if (read < 4) {
+                throw new IOException("Not an LZ4 frame");
+            }
+            magicNumber = readInt(magic, 0);
+            if ((magicNumber & SKIPPABLE_MAGIC_MASK) == SKIPPABLE_MAGIC) {
+                long skip = readInt() & 0xFFFFFFFFL;
+                if (IOUtils.skip(in, skip) != skip) {
+                    throw new EOFException("Truncated LZ4 skippable frame");
+                }
+            }
+        } while ((magicNumber & SKIPPABLE_MAGIC_MASK) == SKIPPABLE_MAGIC);
+
+        if (magicNumber != Lz4FrameOutputStream.MAGIC) {
+            throw new IOException("Not an LZ4 frame");
+        }
+
+        byte[] descriptor = new byte[2 + 8];
+        readFully(descriptor, 0, 2);
+        int flags = descriptor[0] & 0xff;
+        if (flags >>> 6 != 1) {
+            throw new IOException("Unsupported LZ4 frame version " + (flags >>> 6));
+        }
+        if ((flags & 0x01) != 0) {
+            throw new IOException("LZ4 frames compressed with a dictionary are not supported");
+        }
+        independentBlocks = (flags & 0x20) != 0;
+        hasBlockChecksums = (flags & 0x10) != 0;
+        boolean hasContentSize = (flags & 0x08) != 0;
+        hasContentChecksum = (flags & 0x04) != 0;
+
+        int blockSizeId = (descriptor[1] >>> 4) & 0x07;
+        if (blockSizeId < 4) {
+            throw new IOException("Corrupt LZ4 frame: invalid maximum block size");
+        }
+        maxBlockSize = 1 << (8 + 2 * blockSizeId);
+
+        int descriptorLength = 2;
+        if (hasContentSize) {
+            readFully(descriptor, 2, 8);
+            descriptorLength += 8;
+        }
+        int headerChecksum = readByte();
+        if (headerChecksum != ((XXHash32.hash(descriptor, 0, descriptorLength) >>> 8) & 0xff)) {
+            throw new IOException("Corrupt LZ4 frame: header checksum mismatch");
+        }
+
+        int windowLength = (independentBlocks ? 0 : WINDOW_SIZE) + maxBlockSize;
+        if (window.length < windowLength) {
+            byte[] larger = new byte[windowLength];
+            System.arraycopy(window, 0, larger, 0, blockEnd);
+            window = larger;
+        }
+        if (compressed.length < maxBlockSize) {
+            compressed = new byte[maxBlockSize];
+        }
+
+        contentChecksum.reset();
+        readPosition = blockEnd = 0;
+        inFrame = true;
+        firstFrame = false;
+        return true;
+    }
+
+    private int readByte() throws IOException {
+        int b = in.read();
+        if (b == -1) {
+            throw new EOFException("Truncated LZ4 frame");
+        }
+        return b;
+    }
+
+    private int readInt() throws IOException {
+        byte[] b = new byte[4];
+        readFully(b, 0, 4);
+        return readInt(b, 0);
+    }
+
+    private void readFully(byte[] b, int off, int len) throws IOException {
+        if (IOUtils.read(in, b, off, len) != len) {
+            throw new EOFException("Truncated LZ4 frame");
+        }
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+    }
+}
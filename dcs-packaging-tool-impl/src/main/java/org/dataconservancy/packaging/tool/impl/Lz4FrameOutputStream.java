@@ -0,0 +1,151 @@
+package org.dataconservancy.packaging.tool.impl;
+
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import org.apache.commons.compress.compressors.CompressorOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compresses to the LZ4 frame format, the format of {@code .lz4} files, which trades compression ratio for speed.
+ * Blocks are up to 4 MB and independent of each other, and the frame ends with a checksum of the content.
+ */
+public class Lz4FrameOutputStream extends CompressorOutputStream {
+
+    static final int MAGIC = 0x184D2204;
+
+    static final int BLOCK_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Version 01, independent blocks, content checksum.
+     */
+    private static final int FLAGS = 0x64;
+
+    /**
+     * 4 MB maximum block size.
+     */
+    private static final int BLOCK_DESCRIPTOR = 0x70;
+
+    /**
+     * Set on the size of a block stored uncompressed.
+     */
+    static final int UNCOMPRESSED_FLAG = 0x80000000;
+
+    private final OutputStream out;
+
+    private final Lz4Block compressor = new Lz4Block();
+
+    private final XXHash32 contentChecksum = new XXHash32();
+
+    private final byte[] block = new byte[BLOCK_SIZE];
+
+    private final byte[] compressed = new byte[Lz4Block.maxCompressedLength(BLOCK_SIZE)];
+
+    private int blockLength = 0;
+
+    private boolean closed = false;
+
+    /**
+     * Writes the frame header straight away.
+     * @param out the stream the compressed content is written to
+     * @throws IOException if the frame header can't be written
+     */
+    public Lz4FrameOutputStream(OutputStream out) throws IOException {
+        this.out = out;
+
+        byte[] header = new byte[7];
+        writeInt(MAGIC, header, 0);
+        header[4] = (byte) FLAGS;
+        header[5] = (byte) BLOCK_DESCRIPTOR;
+        header[6] = (byte) (XXHash32.hash(header, 4, 2) >>> 8);
+        out.write(header);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+
+        contentChecksum.update(b, off, len);
+        while (len > 0) {
+            int copied = Math.min(len, BLOCK_SIZE - blockLength);
+            System.arraycopy(b, off, block, blockLength, copied);
+            blockLength += copied;
+            off += copied;
+            len -= copied;
+
+            if (blockLength == BLOCK_SIZE) {
+                writeBlock();
+            }
+        }
+    }
+
+    /**
+     * Writes the end of the frame, and closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            if (blockLength > 0) {
+                writeBlock();
+            }
+            byte[] trailer = new byte[8];
+            writeInt(0, trailer, 0);
+            writeInt(contentChecksum.getValue(), trailer, 4);
+            out.write(trailer);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        byte[] size = new byte[4];
+        int compressedLength = compressor.compress(block, blockLength, compressed);
+
+        if (compressedLength < blockLength) {
+            writeInt(compressedLength, size, 0);
+            out.write(size);
+            out.write(compressed, 0, compressedLength);
+        } else {
+            writeInt(blockLength | UNCOMPRESSED_FLAG, size, 0);
+            out.write(size);
+            out.write(block, 0, blockLength);
+        }
+        blockLength = 0;
+    }
+
+    private static void writeInt(int value, byte[] b, int off) {
+        b[off] = (byte) value;
+        b[off + 1] = (byte) (value >>> 8);
+        b[off + 2] = (byte) (value >>> 16);
+        b[off + 3] = (byte) (value >>> 24);
+    }
+}
@@ -26,6 +26,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Path;
+import java.util.Arrays;
+
+import com.github.luben.zstd.ZstdInputStream;
 
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.ArchiveException;
@@ -54,6 +57,11 @@ public class OpenPackageServiceImpl implements OpenPackageService {
     // Location of package state file in package base directory
     private final static String PACKAGE_STATE_PATH = "META-INF/org.dataconservancy.packaging/STATE";
 
+    /**
+     * The first bytes of a zstd frame, Apache Commons Compress doesn't detect zstd.
+     */
+    private final static byte[] ZSTD_MAGIC = {(byte) 0x28, (byte) 0xB5, (byte) 0x2F, (byte) 0xFD};
+
     private PackageStateSerializer package_state_serializer;
     private IpmRdfTransformService ipm_transform_service;
 
@@ -116,11 +124,22 @@ public class OpenPackageServiceImpl implements OpenPackageService {
             is = new BufferedInputStream(is);
         }
 
-        // If file is compressed, uncompress.
+        // If file is compressed, uncompress. Packages compressed in parallel are made of concatenated streams.
 
-        try {
-            is = new CompressorStreamFactory().createCompressorInputStream(is);
-        } catch (CompressorException e) {
+        byte[] signature = new byte[4];
+        is.mark(signature.length);
+        int signatureLength = IOUtils.read(is, signature);
+        is.reset();
+
+        if (Lz4FrameInputStream.matches(signature, signatureLength)) {
+            is = new Lz4FrameInputStream(is, true);
+        } else if (signatureLength == ZSTD_MAGIC.length && Arrays.equals(signature, ZSTD_MAGIC)) {
+            is = new ZstdInputStream(is);
+        } else {
+            try {
+                is = new CompressorStreamFactory(true).createCompressorInputStream(is);
+            } catch (CompressorException e) {
+            }
         }
 
         // Extract entries from archive
@@ -15,9 +15,9 @@
  */
 package org.dataconservancy.packaging.tool.impl;
 
-import org.dataconservancy.dcs.util.ChecksumGeneratorVerifier;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
 import org.dataconservancy.dcs.model.Checksum;
-import org.dataconservancy.dcs.model.ChecksumImpl;
 import org.dataconservancy.packaging.tool.api.PackageChecksumService;
 import org.dataconservancy.packaging.tool.model.PackageToolException;
 import org.dataconservancy.packaging.tool.model.PackagingToolReturnInfo;
@@ -25,40 +25,128 @@ import org.dataconservancy.packaging.tool.model.PackagingToolReturnInfo;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- *  Implementation of the PackageChecksumService interface
+ *  Implementation of the PackageChecksumService interface. Every file is read once, updating the digests of all the
+ *  requested algorithms as it is read, and files are read concurrently on a bounded number of threads.
  */
 public class PackageChecksumServiceImpl implements PackageChecksumService {
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+    private int threads;
+
+    /**
+     * Creates a service reading as many files at the same time as there are available processors.
+     */
+    public PackageChecksumServiceImpl() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads The maximum number of files read at the same time.
+     */
+    public PackageChecksumServiceImpl(int threads) {
+        setThreads(threads);
+    }
 
     public Map<File, List<Checksum>> generatePackageFileChecksums(
             Set<File> packageFiles, List<String> checksumAlgorithms) throws PackageToolException {
 
+        // Fail fast on an unknown algorithm, rather than once per file
+        for (String algorithm : checksumAlgorithms) {
+            ChecksumOutputStream.createDigest(algorithm);
+        }
+
         Map<File, List<Checksum>> packageChecksums = new HashMap<>();
-        for(File file : packageFiles){
-            List<Checksum> fileChecksums = new ArrayList<>();
-            for(String algorithm : checksumAlgorithms){
-                try{
-                    FileInputStream fis = new FileInputStream(file);
-                    ChecksumImpl checksum = new ChecksumImpl(algorithm, ChecksumGeneratorVerifier.generateChecksum(algorithm, fis));
-                    fileChecksums.add(checksum);
-                } catch (FileNotFoundException fnfe) {
-                   throw new PackageToolException(PackagingToolReturnInfo.PKG_FILE_NOT_FOUND_EXCEPTION, fnfe, file.getPath());
-                } catch (NoSuchAlgorithmException nsae){
-                   throw new PackageToolException(PackagingToolReturnInfo.PKG_NO_SUCH_CHECKSUM_ALGORITHM_EXCEPTION, nsae, algorithm);
-                }
-                packageChecksums.put(file, fileChecksums);
+        int poolSize = Math.min(threads, packageFiles.size());
+        if (poolSize <= 1) {
+            for (File file : packageFiles) {
+                packageChecksums.put(file, generateFileChecksums(file, checksumAlgorithms));
+            }
+            return packageChecksums;
+        }
+
+        final int pool = POOL_COUNT.incrementAndGet();
+        final AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(poolSize, runnable -> {
+            Thread thread = new Thread(runnable, "checksum-" + pool + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            Map<File, Future<List<Checksum>>> futures = new HashMap<>();
+            for (File file : packageFiles) {
+                futures.put(file, executor.submit(() -> generateFileChecksums(file, checksumAlgorithms)));
             }
 
+            for (Map.Entry<File, Future<List<Checksum>>> future : futures.entrySet()) {
+                packageChecksums.put(future.getKey(), future.getValue().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PackageToolException(PackagingToolReturnInfo.PKG_IO_EXCEPTION, e,
+                    "Interrupted while generating checksums");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new PackageToolException(PackagingToolReturnInfo.PKG_IO_EXCEPTION, e);
+        } finally {
+            executor.shutdownNow();
         }
+
         return packageChecksums;
     }
 
+    /**
+     * Reads a file once and answers its checksums for each of the algorithms, in the same order as the algorithms.
+     * @param file The file to read.
+     * @param checksumAlgorithms The names of the algorithms, e.g. "md5" or "sha1".
+     * @return The checksums of the file, as lower case hex strings.
+     * @throws PackageToolException If the file can't be read, or if one of the algorithms is unknown.
+     */
+    public static List<Checksum> generateFileChecksums(File file, List<String> checksumAlgorithms)
+            throws PackageToolException {
+        ChecksumOutputStream checksums = new ChecksumOutputStream(new NullOutputStream(), checksumAlgorithms);
+
+        try (InputStream in = new FileInputStream(file)) {
+            IOUtils.copyLarge(in, checksums, new byte[BUFFER_SIZE]);
+        } catch (FileNotFoundException fnfe) {
+            throw new PackageToolException(PackagingToolReturnInfo.PKG_FILE_NOT_FOUND_EXCEPTION, fnfe, file.getPath());
+        } catch (IOException ioe) {
+            throw new PackageToolException(PackagingToolReturnInfo.PKG_IO_EXCEPTION, ioe, file.getPath());
+        }
+
+        return checksums.getChecksums();
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @param threads The maximum number of files read at the same time, at least one.
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of checksum threads must be at least 1, was " + threads);
+        }
+        this.threads = threads;
+    }
+
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.packaging.tool.impl;
+
+import org.apache.commons.io.IOUtils;
+import org.dataconservancy.packaging.tool.api.Package;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * Package split into volumes, each held in its own file. The volumes are the consecutive parts of the serialized
+ * package, so that the package is restored by concatenating them.
+ */
+public class SplitPackageImpl implements Package {
+
+    private static final String VOLUME_CONTENT_TYPE = "application/octet-stream";
+
+    private List<Package> volumes = new ArrayList<>();
+    private String packageName;
+    private String contentType;
+
+    private boolean available;
+
+    /**
+     * @param volumes the files holding the volumes, in order
+     * @param packageName the name of the package, which the names of the volume files are expected to start with
+     * @param contentType the content type of the package, once restored
+     */
+    public SplitPackageImpl(List<File> volumes, String packageName, String contentType) {
+        for (File volume : volumes) {
+            this.volumes.add(new PackageImpl(volume, volume.getName(), VOLUME_CONTENT_TYPE));
+        }
+        this.packageName = packageName;
+        this.contentType = contentType;
+        available = true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * The volumes are read one after the other, which restores the package.
+     */
+    @Override
+    public InputStream serialize() throws FileNotFoundException {
+        Vector<InputStream> streams = new Vector<>();
+        try {
+            for (Package volume : volumes) {
+                streams.add(volume.serialize());
+            }
+        } catch (FileNotFoundException e) {
+            streams.forEach(IOUtils::closeQuietly);
+            throw e;
+        }
+        return new SequenceInputStream(streams.elements());
+    }
+
+    @Override
+    public String getPackageName() {
+        return packageName;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public void cleanupPackage() {
+        available = false;
+        volumes.forEach(Package::cleanupPackage);
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return available;
+    }
+
+    @Override
+    public List<Package> getVolumes() {
+        return Collections.unmodifiableList(volumes);
+    }
+}
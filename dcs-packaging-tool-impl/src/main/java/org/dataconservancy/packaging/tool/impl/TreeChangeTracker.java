@@ -0,0 +1,350 @@
+package org.dataconservancy.packaging.tool.impl;
+
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import org.dataconservancy.packaging.tool.api.IPMService;
+import org.dataconservancy.packaging.tool.api.support.NodeComparison;
+import org.dataconservancy.packaging.tool.model.ipm.FileInfo;
+import org.dataconservancy.packaging.tool.model.ipm.Node;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tracks changes to the file system backing a tree using a {@link WatchService}, so that a tree can be kept up to
+ * date without refreshing all of it. Every directory of the tree is watched; the paths reported by the watch service
+ * accumulate until {@link #pollChanges()} is called, which compares only those paths with the tree and answers the
+ * differences in the same form as {@link IPMService#refreshTreeContent(Node)}, ready to be merged with
+ * {@link IPMService#mergeTree(Node, Map)}. Only added and changed files are read, so a refresh costs in proportion to
+ * the number of changes rather than to the size of the tree.
+ * <p>
+ * If the watch service loses events (e.g. because too many changes happened at once) the next poll falls back to a
+ * full {@link IPMService#refreshTreeContent(Node) refresh}. The changes answered by a poll are expected to be merged
+ * before the next poll, as the tree is compared with the file system as it is at the time of the poll.
+ * </p>
+ * <p>
+ * The nodes of the tree are indexed by path once, when tracking starts, and the index is kept up to date from the
+ * changes answered by each poll. Changes made to the tree by other means are not seen by the tracker.
+ * </p>
+ */
+public class TreeChangeTracker implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TreeChangeTracker.class);
+
+    private final IPMService ipmService;
+
+    private final WatchService watchService;
+
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+
+    private final Set<Path> registeredDirectories = new HashSet<>();
+
+    private final Set<Path> changedPaths = new LinkedHashSet<>();
+
+    private final Map<Path, Node> nodesByPath = new HashMap<>();
+
+    private boolean overflowed = false;
+
+    private boolean rootReplaced = false;
+
+    private Node root;
+
+    /**
+     * @param ipmService The service used to build nodes for added and changed files, and to fall back to a full
+     *                   refresh when events are lost.
+     * @throws IOException If the watch service can't be created.
+     */
+    public TreeChangeTracker(IPMService ipmService) throws IOException {
+        this.ipmService = ipmService;
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Starts tracking changes to the file system backing a tree.
+     * @param root The root of the tree to track.
+     * @throws IOException If the directories of the tree can't be watched.
+     */
+    public synchronized void track(Node root) throws IOException {
+        this.root = root;
+        nodesByPath.clear();
+        rootReplaced = false;
+        registerDirectories(root);
+        root.walk(this::addPath);
+    }
+
+    /**
+     * Answers the changes made to the file system since the last poll, without waiting for new changes.
+     * @return A map of the nodes and their status after comparison, empty if nothing changed.
+     * @throws IOException If the changed files can't be read.
+     */
+    public synchronized Map<Node, NodeComparison> pollChanges() throws IOException {
+        if (root == null) {
+            throw new IllegalStateException("No tree is being tracked");
+        }
+
+        if (rootReplaced) {
+            // The merge of the last refresh replaced the content of the root with a new tree
+            rootReplaced = false;
+            registerDirectories(root);
+            root.walk(this::addPath);
+        }
+
+        drainEvents();
+
+        if (overflowed) {
+            LOG.info("File system events were lost, refreshing the whole tree");
+            overflowed = false;
+            changedPaths.clear();
+            Map<Node, NodeComparison> changes = ipmService.refreshTreeContent(root);
+            indexRefresh(changes);
+            return changes;
+        }
+
+        Map<Node, NodeComparison> changes = new HashMap<>();
+        for (Path path : changedPaths) {
+            compare(path, changes);
+        }
+        changedPaths.clear();
+
+        return changes;
+    }
+
+    /**
+     * Stops tracking changes.
+     * @throws IOException If the watch service can't be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        watchService.close();
+        watchedDirectories.clear();
+        registeredDirectories.clear();
+        changedPaths.clear();
+        nodesByPath.clear();
+        root = null;
+    }
+
+    /**
+     * Compares the current state of a changed path with the tree, and records the difference.
+     */
+    private void compare(Path path, Map<Node, NodeComparison> changes) throws IOException {
+        Node existing = nodesByPath.get(path);
+        BasicFileAttributes attributes = readAttributes(path);
+
+        if (existing != null && (attributes == null || isTypeChanged(existing.getFileInfo(), attributes))) {
+            markNodesRemoved(existing, existing.getParent(), changes);
+            existing = null;
+        }
+
+        if (attributes == null) {
+            return;
+        }
+
+        if (existing == null) {
+            Node parent = nodesByPath.get(path.getParent());
+            if (parent == null || isLinkUnderRoot(path, attributes)) {
+                // Not part of the tree, or will be part of the subtree added for one of its ancestors
+                return;
+            }
+
+            Node added = ipmService.createTreeFromFileSystem(path);
+            if (added == null) {
+                return;
+            }
+            if (parent.isIgnored()) {
+                ipmService.ignoreNode(added, true);
+            }
+
+            registerDirectories(added);
+            added.walk(this::addPath);
+            changes.put(added, new NodeComparison(NodeComparison.Status.ADDED, parent));
+        } else if (attributes.isRegularFile() && !FileInfoPipeline.isUnchanged(existing.getFileInfo(), attributes)) {
+            Node updated = ipmService.createTreeFromFileSystem(path);
+            if (updated != null && isContentChanged(existing.getFileInfo(), updated.getFileInfo())) {
+                changes.put(updated, new NodeComparison(NodeComparison.Status.UPDATED, existing));
+            }
+        }
+    }
+
+    private void markNodesRemoved(Node node, Node parent, Map<Node, NodeComparison> changes) {
+        changes.put(node, new NodeComparison(NodeComparison.Status.DELETED, parent));
+        removePath(node);
+
+        if (node.getChildren() != null) {
+            for (Node child : node.getChildren()) {
+                markNodesRemoved(child, node, changes);
+            }
+        }
+    }
+
+    /**
+     * Updates the index of the tree with the changes of a full refresh, and watches the directories it added.
+     */
+    private void indexRefresh(Map<Node, NodeComparison> changes) throws IOException {
+        NodeComparison rootChange = changes.get(root);
+        if (rootChange != null && rootChange.getStatus() == NodeComparison.Status.DELETED) {
+            nodesByPath.clear();
+            rootReplaced = true;
+            return;
+        }
+
+        // Deletions first, a path whose type changed is both deleted and added
+        for (Map.Entry<Node, NodeComparison> change : changes.entrySet()) {
+            if (change.getValue().getStatus() == NodeComparison.Status.DELETED) {
+                change.getKey().walk(this::removePath);
+            }
+        }
+        for (Map.Entry<Node, NodeComparison> change : changes.entrySet()) {
+            if (change.getValue().getStatus() == NodeComparison.Status.ADDED) {
+                registerDirectories(change.getKey());
+                change.getKey().walk(this::addPath);
+            }
+        }
+    }
+
+    /**
+     * Same criteria as {@link IPMService#compareTree(Node, Node)}: the content changed if both checksums changed.
+     */
+    private boolean isContentChanged(FileInfo existing, FileInfo current) {
+        String existingMd5 = existing.getChecksum(FileInfo.Algorithm.MD5);
+        String existingSha1 = existing.getChecksum(FileInfo.Algorithm.SHA1);
+
+        return current != null && existingMd5 != null && existingSha1 != null
+                && !existingMd5.equalsIgnoreCase(current.getChecksum(FileInfo.Algorithm.MD5))
+                && !existingSha1.equalsIgnoreCase(current.getChecksum(FileInfo.Algorithm.SHA1));
+    }
+
+    private boolean isTypeChanged(FileInfo existing, BasicFileAttributes attributes) {
+        if (!existing.isFile() && !existing.isDirectory()) {
+            // Nothing is known about the type of the node
+            return false;
+        }
+        return existing.isFile() != attributes.isRegularFile() || existing.isDirectory() != attributes.isDirectory();
+    }
+
+    /**
+     * Symbolic links resolving to a location underneath the root are skipped, as when the tree was created.
+     */
+    private boolean isLinkUnderRoot(Path path, BasicFileAttributes attributes) throws IOException {
+        if (!attributes.isSymbolicLink() || root.getFileInfo() == null) {
+            return false;
+        }
+
+        try {
+            return path.toRealPath().startsWith(Paths.get(root.getFileInfo().getLocation()));
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private BasicFileAttributes readAttributes(Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private void addPath(Node node) {
+        if (node.getFileInfo() != null && node.getFileInfo().getLocation() != null) {
+            nodesByPath.put(Paths.get(node.getFileInfo().getLocation()), node);
+        }
+    }
+
+    private void removePath(Node node) {
+        if (node.getFileInfo() != null && node.getFileInfo().getLocation() != null) {
+            nodesByPath.remove(Paths.get(node.getFileInfo().getLocation()), node);
+        }
+    }
+
+    /**
+     * Watches the directories of a tree that are not watched yet.
+     */
+    private void registerDirectories(Node tree) throws IOException {
+        final IOException[] failure = new IOException[1];
+
+        tree.walk(node -> {
+            FileInfo fileInfo = node.getFileInfo();
+            if (failure[0] != null || fileInfo == null || !fileInfo.isDirectory() || fileInfo.getLocation() == null) {
+                return;
+            }
+
+            Path directory = Paths.get(fileInfo.getLocation());
+            if (registeredDirectories.contains(directory) || !Files.isDirectory(directory)) {
+                return;
+            }
+
+            try {
+                WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                watchedDirectories.put(key, directory);
+                registeredDirectories.add(directory);
+            } catch (NoSuchFileException e) {
+                // Deleted since, the deletion will be reported by the watch key of its parent
+            } catch (IOException e) {
+                failure[0] = e;
+            }
+        });
+
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    /**
+     * Collects the paths reported by the watch service since the last poll.
+     */
+    private void drainEvents() {
+        WatchKey key;
+        while ((key = watchService.poll()) != null) {
+            Path directory = watchedDirectories.get(key);
+
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    overflowed = true;
+                } else if (directory != null) {
+                    changedPaths.add(directory.resolve((Path) event.context()));
+                }
+            }
+
+            if (!key.reset()) {
+                // The directory is gone
+                watchedDirectories.remove(key);
+                registeredDirectories.remove(directory);
+            }
+        }
+    }
+}
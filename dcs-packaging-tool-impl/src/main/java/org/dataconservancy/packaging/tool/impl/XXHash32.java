@@ -0,0 +1,135 @@
+package org.dataconservancy.packaging.tool.impl;
+
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+/**
+ * The 32 bit xxHash checksum, with a seed of 0, used by the LZ4 frame format for its header and content checksums.
+ */
+class XXHash32 {
+
+    private static final int PRIME1 = 0x9E3779B1;
+    private static final int PRIME2 = 0x85EBCA77;
+    private static final int PRIME3 = 0xC2B2AE3D;
+    private static final int PRIME4 = 0x27D4EB2F;
+    private static final int PRIME5 = 0x165667B1;
+
+    private int v1;
+    private int v2;
+    private int v3;
+    private int v4;
+
+    private long totalLength;
+
+    private final byte[] stripe = new byte[16];
+
+    private int stripeLength;
+
+    XXHash32() {
+        reset();
+    }
+
+    /**
+     * @param b the bytes
+     * @param off the offset of the first byte to hash
+     * @param len the number of bytes to hash
+     * @return the checksum of the bytes
+     */
+    static int hash(byte[] b, int off, int len) {
+        XXHash32 hash = new XXHash32();
+        hash.update(b, off, len);
+        return hash.getValue();
+    }
+
+    void reset() {
+        v1 = PRIME1 + PRIME2;
+        v2 = PRIME2;
+        v3 = 0;
+        v4 = -PRIME1;
+        totalLength = 0;
+        stripeLength = 0;
+    }
+
+    void update(byte[] b, int off, int len) {
+        totalLength += len;
+
+        if (stripeLength > 0) {
+            int copied = Math.min(len, 16 - stripeLength);
+            System.arraycopy(b, off, stripe, stripeLength, copied);
+            stripeLength += copied;
+            off += copied;
+            len -= copied;
+            if (stripeLength < 16) {
+                return;
+            }
+            processStripe(stripe, 0);
+            stripeLength = 0;
+        }
+
+        int end = off + len;
+        for (; off + 16 <= end; off += 16) {
+            processStripe(b, off);
+        }
+
+        stripeLength = end - off;
+        System.arraycopy(b, off, stripe, 0, stripeLength);
+    }
+
+    int getValue() {
+        int h;
+        if (totalLength >= 16) {
+            h = Integer.rotateLeft(v1, 1) + Integer.rotateLeft(v2, 7) + Integer.rotateLeft(v3, 12)
+                    + Integer.rotateLeft(v4, 18);
+        } else {
+            h = PRIME5;
+        }
+        h += (int) totalLength;
+
+        int i = 0;
+        for (; i + 4 <= stripeLength; i += 4) {
+            h += readInt(stripe, i) * PRIME3;
+            h = Integer.rotateLeft(h, 17) * PRIME4;
+        }
+        for (; i < stripeLength; i++) {
+            h += (stripe[i] & 0xff) * PRIME5;
+            h = Integer.rotateLeft(h, 11) * PRIME1;
+        }
+
+        h ^= h >>> 15;
+        h *= PRIME2;
+        h ^= h >>> 13;
+        h *= PRIME3;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private void processStripe(byte[] b, int off) {
+        v1 = round(v1, readInt(b, off));
+        v2 = round(v2, readInt(b, off + 4));
+        v3 = round(v3, readInt(b, off + 8));
+        v4 = round(v4, readInt(b, off + 12));
+    }
+
+    private static int round(int v, int lane) {
+        return Integer.rotateLeft(v + lane * PRIME2, 13) * PRIME1;
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+    }
+}
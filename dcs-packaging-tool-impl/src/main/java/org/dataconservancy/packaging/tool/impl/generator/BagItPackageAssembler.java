@@ -15,30 +15,42 @@
  */
 package org.dataconservancy.packaging.tool.impl.generator;
 
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdOutputStream;
 import org.apache.commons.codec.DecoderException;
 import org.apache.commons.codec.net.URLCodec;
+import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.ArchiveException;
 import org.apache.commons.compress.archivers.ArchiveOutputStream;
 import org.apache.commons.compress.archivers.ArchiveStreamFactory;
 import org.apache.commons.compress.archivers.ar.ArArchiveEntry;
 import org.apache.commons.compress.archivers.cpio.CpioArchiveEntry;
+import org.apache.commons.compress.archivers.cpio.CpioConstants;
 import org.apache.commons.compress.archivers.jar.JarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ParallelScatterZipCreator;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
 import org.apache.commons.compress.compressors.CompressorException;
-import org.apache.commons.compress.compressors.CompressorOutputStream;
 import org.apache.commons.compress.compressors.CompressorStreamFactory;
+import org.apache.commons.compress.parallel.FileBasedScatterGatherBackingStore;
+import org.apache.commons.compress.parallel.ScatterGatherBackingStore;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
 
 import org.dataconservancy.dcs.util.UriUtility;
 import org.dataconservancy.dcs.model.Checksum;
+import org.dataconservancy.dcs.model.ChecksumImpl;
 import org.dataconservancy.packaging.tool.api.PackageChecksumService;
 import org.dataconservancy.packaging.tool.api.generator.PackageAssembler;
 import org.dataconservancy.packaging.tool.api.generator.PackageResourceType;
 import org.dataconservancy.packaging.tool.api.Package;
+import org.dataconservancy.packaging.tool.impl.ChecksumOutputStream;
+import org.dataconservancy.packaging.tool.impl.Lz4FrameOutputStream;
 import org.dataconservancy.packaging.tool.impl.PackageChecksumServiceImpl;
+import org.dataconservancy.packaging.tool.impl.SplitPackageImpl;
 import org.dataconservancy.packaging.tool.impl.support.FilenameValidator;
 import org.dataconservancy.packaging.tool.impl.support.ValidatorResult;
 import org.dataconservancy.packaging.tool.model.BagItParameterNames;
@@ -55,6 +67,8 @@ import org.slf4j.LoggerFactory;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -63,22 +77,39 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * <p>
@@ -88,7 +119,8 @@ import java.util.stream.Collectors;
  * This implementation uses org.apache.commons.compress library to perform archiving and compression operations
  * on the resulting package. Thereore, it is limited to only support the archiving and compression formats specified in
  * org.apache.commons.compress.archivers.ArchiveStreamFactory and
- * org.apache.commons.compress.compressors.CompressorStreamFactory.
+ * org.apache.commons.compress.compressors.CompressorStreamFactory, with the addition of the zstd and lz4 compression
+ * formats.
  *
  * If the archiving format is "exploded," the assembler will stage the package in the location normally specified for
  * the package file, and the assemblePackage() method will return a null package without deleting the staged content
@@ -107,6 +139,33 @@ public class BagItPackageAssembler implements PackageAssembler {
     private final static String VERSION = "0.97";
     private final static String PROFILE_ID = "http://dataconservancy.org/formats/data-conservancy-pkg-1.0";
 
+    /**
+     * Payload of unknown length bigger than this is spooled to a temporary file when streaming, as the length of an
+     * archive entry has to be known before its content is written.
+     */
+    private final static int STREAMING_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Size of the buffer files are copied through when they are archived as streams.
+     */
+    private final static int ARCHIVING_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * A number of bytes, with an optional multiplier.
+     */
+    private final static Pattern SIZE = Pattern.compile("^(\\d+)\\s*([kKmMgGtT]?)[bB]?$");
+
+    /**
+     * A line of a manifest: the checksum, then the path of the file.
+     */
+    private final static Pattern MANIFEST_LINE = Pattern.compile("^(\\S+)\\s+(.+)$");
+
+    /**
+     * Compression formats which aren't supported by Apache Commons Compress.
+     */
+    private final static String ZSTANDARD = "zstd";
+    private final static String LZ4 = "lz4";
+
     private static PackageChecksumService checksumService = new PackageChecksumServiceImpl();
 
     private PackageGenerationParameters params = null;
@@ -125,6 +184,68 @@ public class BagItPackageAssembler implements PackageAssembler {
 
     private boolean isExploded = false;
 
+    /**
+     * Whether resources are written straight into the serialized package as they are put, rather than staged first.
+     */
+    private boolean isStreaming = false;
+
+    /**
+     * Whether the payload of an existing exploded bag is kept, and only rewritten where it changed.
+     */
+    private boolean isIncremental = false;
+
+    /**
+     * Checksums of the payload files listed in the manifests of the existing bag, when assembling incrementally.
+     */
+    private Map<File, List<Checksum>> previousChecksums = new HashMap<>();
+
+    /**
+     * The serialized package, and the stream it is written through, when streaming.
+     */
+    private File archiveFile = null;
+    private ArchiveOutputStream archiveStream = null;
+
+    /**
+     * Whether payload files which are local files are referred to in fetch.txt rather than included in the bag, and
+     * which of them: the ones under the base location, or all of them if it is null. Their URL is their path
+     * relative to the base location resolved against the base URL, or their file URL if there is no base URL.
+     */
+    private boolean isHoley = false;
+    private Path fetchBaseLocation = null;
+    private URI fetchBaseUrl = null;
+
+    /**
+     * Payload files referred to in fetch.txt, with where they are fetched from.
+     */
+    private Map<File, FetchItem> fetchItems = new HashMap<>();
+
+    /**
+     * Maximum size of the volumes the serialized package is split into, or null if it isn't split, and the stream
+     * writing the volumes.
+     */
+    private Long volumeSize = null;
+    private VolumeOutputStream volumeStream = null;
+
+    /**
+     * Names of the directory entries already written to the serialized package, when streaming.
+     */
+    private Set<String> archivedDirectories = new HashSet<>();
+
+    /**
+     * Payload files whose content was already written to the serialized package, when streaming.
+     */
+    private Set<File> archivedFiles = new HashSet<>();
+
+    /**
+     * Number of payload bytes written to the serialized package, when streaming.
+     */
+    private long archivedPayloadSize = 0;
+
+    /**
+     * Content of the tag files, written at the end of the serialized package when streaming.
+     */
+    private Map<File, byte[]> bufferedTagFiles = new LinkedHashMap<>();
+
     /**
      * Map of the Relative URIs to the Absolute resolvable URI of a file.
      */
@@ -139,6 +260,11 @@ public class BagItPackageAssembler implements PackageAssembler {
      */
     private Set<File> tagFiles = new HashSet<>();
 
+    /**
+     * Checksums of the payload and tag files, computed while their content was written, keyed by their URI
+     */
+    private Map<URI, List<Checksum>> resourceChecksums = new HashMap<>();
+
     /**
      * List of checksums algs to be performed when creating bags
      */
@@ -155,6 +281,33 @@ public class BagItPackageAssembler implements PackageAssembler {
      */
     private String compressionFormat = null;
 
+    /**
+     * Whether the package is compressed in blocks on several threads, as requested by the "pigz" and "pbzip2"
+     * compression formats.
+     */
+    private boolean isParallelCompression = false;
+
+    /**
+     * Number of threads compressing the package when compression is done in parallel.
+     */
+    private int compressionThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Whether the number of compression threads was set in the parameters. Zip archives are only deflated on several
+     * threads then, as the order of their entries, and so the archive, differs from one run to the next.
+     */
+    private boolean isCompressionThreadsSet = false;
+
+    /**
+     * Compression level, for the compression formats with levels. Null when the format's default level is used.
+     */
+    private Integer compressionLevel = null;
+
+    /**
+     * How payload files put as local files are staged.
+     */
+    private GeneralParameterNames.STAGING_STRATEGY stagingStrategy = GeneralParameterNames.STAGING_STRATEGY.COPY;
+
     /**
      * Initializes the Assembler. Operations include:
      * <ul>
@@ -172,7 +325,14 @@ public class BagItPackageAssembler implements PackageAssembler {
      * Optional with defaults parameters:
      * <ul>
      * <li> archiving-format: when not set, is defaulted to ".tar" </li>
-     * <li> compression-format: when not set, no compression will be performed on the serialized content. </li>
+     * <li> compression-format: when not set, no compression will be performed on the serialized content. "pigz" and
+     * "pbzip2" compress to gz and bzip2 on several threads. </li>
+     * <li> compression-threads: when not set, is defaulted to the number of available processors </li>
+     * <li> compression-level: when not set, the default level of the compression format is used </li>
+     * <li> payload-staging-strategy: when not set, is defaulted to copying </li>
+     * <li> incremental-assembly: when not set, the content of an existing exploded bag is removed first </li>
+     * <li> volume-size: when not set, the serialized package is a single file </li>
+     * <li> holey-bag: when not set, the content of all payload files is included in the bag </li>
      * <li> checksum-algs: when not set, is defaulted to "md5" </li>
      * </ul>
      * <p>
@@ -225,6 +385,111 @@ public class BagItPackageAssembler implements PackageAssembler {
             validateCompressionFormat();
         }
 
+        //retrieve the number of compression threads, if it is set in the input parameters
+        if (params.getParam(GeneralParameterNames.COMPRESSION_THREADS) != null &&
+                !params.getParam(GeneralParameterNames.COMPRESSION_THREADS).isEmpty()) {
+            String threads = params.getParam(GeneralParameterNames.COMPRESSION_THREADS, 0);
+            try {
+                compressionThreads = Integer.parseInt(threads);
+            } catch (NumberFormatException e) {
+                compressionThreads = 0;
+            }
+            if (compressionThreads < 1) {
+                throw new PackageToolException(PackagingToolReturnInfo.PKG_ASSEMBLER_INVALID_PARAMS,
+                        String.format("Specified number of compression threads <%s> is not a positive number.",
+                                threads));
+            }
+            isCompressionThreadsSet = true;
+        }
+
+        //retrieve the compression level, if it is set in the input parameters
+        if (params.getParam(GeneralParameterNames.COMPRESSION_LEVEL) != null &&
+                !params.getParam(GeneralParameterNames.COMPRESSION_LEVEL).isEmpty()) {
+            String level = params.getParam(GeneralParameterNames.COMPRESSION_LEVEL, 0);
+            try {
+                compressionLevel = Integer.parseInt(level);
+            } catch (NumberFormatException e) {
+                throw new PackageToolException(PackagingToolReturnInfo.PKG_ASSEMBLER_INVALID_PARAMS,
+                        String.format("Specified compression level <%s> is not a number.", level));
+            }
+        }
+
+        //retrieve the payload staging strategy, if it is set in the input parameters
+        if (params.getParam(GeneralParameterNames.PAYLOAD_STAGING_STRATEGY) != null &&
+                !params.getParam(GeneralParameterNames.PAYLOAD_STAGING_STRATEGY).isEmpty()) {
+            String strategy = params.getParam(GeneralParameterNames.PAYLOAD_STAGING_STRATEGY, 0);
+            try {
+                stagingStrategy = GeneralParameterNames.STAGING_STRATEGY.valueOf(strategy.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new PackageToolException(PackagingToolReturnInfo.PKG_ASSEMBLER_INVALID_PARAMS,
+                        String.format("Specified payload staging strategy <%s> is not supported. The supported " +
+                                "strategies are: %s.", strategy,
+                                Arrays.toString(GeneralParameterNames.STAGING_STRATEGY.values())));
+            }
+        }
+
+        //retrieve streaming mode, if it is set in the input parameters
+        if (params.getParam(GeneralParameterNames.STREAMING_ASSEMBLY) != null &&
+                !params.getParam(GeneralParameterNames.STREAMING_ASSEMBLY).isEmpty()) {
+            isStreaming = Boolean.parseBoolean(params.getParam(GeneralParameterNames.STREAMING_ASSEMBLY, 0));
+            if (isStreaming && isExploded) {
+                log.info("Exploded packages are always staged, ignoring " + GeneralParameterNames.STREAMING_ASSEMBLY);
+                isStreaming = false;
+            }
+        }
+
+        //retrieve the volume size, if it is set in the input parameters
+        if (params.getParam(GeneralParameterNames.VOLUME_SIZE) != null &&
+                !params.getParam(GeneralParameterNames.VOLUME_SIZE).isEmpty()) {
+            String size = params.getParam(GeneralParameterNames.VOLUME_SIZE, 0);
+            volumeSize = parseSize(size);
+            if (volumeSize == null || volumeSize < 1) {
+                throw new PackageToolException(PackagingToolReturnInfo.PKG_ASSEMBLER_INVALID_PARAMS,
+                        String.format("Specified volume size <%s> is not a positive number of bytes.", size));
+            }
+            if (isExploded) {
+                log.info("Exploded packages are not split into volumes, ignoring " + GeneralParameterNames.VOLUME_SIZE);
+                volumeSize = null;
+            }
+        }
+
+        //retrieve holey bag mode, if it is set in the input parameters
+        if (params.getParam(GeneralParameterNames.HOLEY_BAG) != null &&
+                !params.getParam(GeneralParameterNames.HOLEY_BAG).isEmpty()) {
+            isHoley = Boolean.parseBoolean(params.getParam(GeneralParameterNames.HOLEY_BAG, 0));
+        }
+        if (isHoley) {
+            String baseLocation = params.getParam(GeneralParameterNames.FETCH_BASE_LOCATION, 0);
+            if (baseLocation != null && !baseLocation.isEmpty()) {
+                fetchBaseLocation = Paths.get(baseLocation).toAbsolutePath().normalize();
+            }
+            String baseUrl = params.getParam(GeneralParameterNames.FETCH_BASE_URL, 0);
+            if (baseUrl != null && !baseUrl.isEmpty()) {
+                try {
+                    fetchBaseUrl = new URI(baseUrl.endsWith("/") ? baseUrl : baseUrl + "/");
+                } catch (URISyntaxException e) {
+                    throw new PackageToolException(PackagingToolReturnInfo.PKG_ASSEMBLER_INVALID_PARAMS, e,
+                            String.format("Specified fetch base URL <%s> is not a valid URL.", baseUrl));
+                }
+                if (fetchBaseLocation == null) {
+                    throw new PackageToolException(PackagingToolReturnInfo.PKG_ASSEMBLER_INVALID_PARAMS,
+                            String.format("A fetch base URL <%s> was specified without a fetch base location.",
+                                    baseUrl));
+                }
+            }
+        }
+
+        //retrieve incremental mode, if it is set in the input parameters
+        if (params.getParam(GeneralParameterNames.INCREMENTAL_ASSEMBLY) != null &&
+                !params.getParam(GeneralParameterNames.INCREMENTAL_ASSEMBLY).isEmpty()) {
+            isIncremental = Boolean.parseBoolean(params.getParam(GeneralParameterNames.INCREMENTAL_ASSEMBLY, 0));
+            if (isIncremental && !isExploded) {
+                log.info("Only exploded packages are assembled incrementally, ignoring " +
+                        GeneralParameterNames.INCREMENTAL_ASSEMBLY);
+                isIncremental = false;
+            }
+        }
+
         //we write out the package to a "staging" location, which is the same as the output location specified by the
         //user in the case of an exploded package. For compressed bags we create a parent directory in the tmp directory
         //This can be overridden in the defaultGenerationParams file
@@ -250,7 +515,8 @@ public class BagItPackageAssembler implements PackageAssembler {
             }
         }
 
-        packageLocationDir = new File(packageStagingLocationName);
+        //absolute, so that staged files compare equal to the files resolved from their URIs
+        packageLocationDir = new File(packageStagingLocationName).getAbsoluteFile();
 
         //Creating base directory for the bag based on specified package name
         if (!packageLocationDir.exists()) {
@@ -273,14 +539,29 @@ public class BagItPackageAssembler implements PackageAssembler {
 
         //Creating base directory
         bagBaseDir = new File(packageLocationDir, packageName);
-        //Creating base directory for the bag based on specified package name
-        if (!bagBaseDir.exists()) {
+        //Creating base directory for the bag based on specified package name. Nothing is staged when streaming.
+        if (isStreaming) {
+            log.debug("Streaming bag to: " + packageLocationDir.getPath());
+        } else if (!bagBaseDir.exists()) {
             log.debug("Creating bag base dir: " + bagBaseDir.getPath());
             boolean isDirCreated = bagBaseDir.mkdirs();
             if (!isDirCreated) {
                 throw new PackageToolException(PackagingToolReturnInfo.PKG_DIR_CREATION_EXP,
                         "Attempt to create a base directory for bag at " + bagBaseDir.getPath() + " failed.");
             }
+        } else if (isIncremental) {
+            //If it exists keep its payload, which is only rewritten where it changed, and remove everything else
+            readPreviousManifests();
+            File existingPayloadDir = new File(bagBaseDir, PackageResourceType.DATA.getRelativePackageLocation());
+            for (File file : bagBaseDir.listFiles()) {
+                if (!file.equals(existingPayloadDir)) {
+                    try {
+                        FileUtils.forceDelete(file);
+                    } catch (IOException e) {
+                        log.warn("Exception thrown when cleaning existing directory: " + e.getMessage());
+                    }
+                }
+            }
         } else {
             //If it exists remove everything in it and start fresh
             try {
@@ -293,7 +574,7 @@ public class BagItPackageAssembler implements PackageAssembler {
         //Creating payload directory
         payloadDir = new File(bagBaseDir, PackageResourceType.DATA.getRelativePackageLocation());
         //Creating payloadDir
-        if (!payloadDir.exists()) {
+        if (!isStreaming && !payloadDir.exists()) {
             log.debug("Creating payload dir: " + payloadDir.getPath());
             boolean isDirCreated = payloadDir.mkdirs();
             if (!isDirCreated) {
@@ -304,7 +585,7 @@ public class BagItPackageAssembler implements PackageAssembler {
 
         //Creating the package info directory
         pkgInfoDir = new File(bagBaseDir, PackageResourceType.METADATA.getRelativePackageLocation());
-        if (!pkgInfoDir.exists()) {
+        if (!isStreaming && !pkgInfoDir.exists()) {
             log.debug("Creating package structure dir :" + pkgInfoDir.getPath());
             boolean isDirCreated = pkgInfoDir.mkdirs();
             if (!isDirCreated) {
@@ -315,7 +596,7 @@ public class BagItPackageAssembler implements PackageAssembler {
 
         //Creating the ontology directory
         ontologyDir = new File(bagBaseDir, PackageResourceType.ONTOLOGY.getRelativePackageLocation());
-        if (!ontologyDir.exists()) {
+        if (!isStreaming && !ontologyDir.exists()) {
             log.debug("Creating ontology dir :" + ontologyDir.getPath());
             boolean isDirCreated = ontologyDir.mkdirs();
             if (!isDirCreated) {
@@ -326,7 +607,7 @@ public class BagItPackageAssembler implements PackageAssembler {
 
         //Creating the ORE-ReM directory
         remDir = new File(bagBaseDir, PackageResourceType.ORE_REM.getRelativePackageLocation());
-        if (!remDir.exists()) {
+        if (!isStreaming && !remDir.exists()) {
             log.debug("Creating ORE-ReM dir :" + remDir.getPath());
             boolean isDirCreated = remDir.mkdirs();
             if (!isDirCreated) {
@@ -337,7 +618,7 @@ public class BagItPackageAssembler implements PackageAssembler {
 
         //Creating the package state directory
         stateDir = new File(bagBaseDir, PackageResourceType.PACKAGE_STATE.getRelativePackageLocation());
-        if (!stateDir.exists()) {
+        if (!isStreaming && !stateDir.exists()) {
             log.debug("Creating Package State dir :" + stateDir.getPath());
             boolean isDirCreated = stateDir.mkdirs();
             if (!isDirCreated) {
@@ -345,6 +626,14 @@ public class BagItPackageAssembler implements PackageAssembler {
                         "Attempt to create the Package State directory for bag at " + stateDir.getPath() + " failed.");
             }
         }
+
+        if (isStreaming) {
+            openArchive();
+            //same directory entries as a staged bag
+            for (File dir : new File[] {payloadDir, pkgInfoDir, ontologyDir, remDir, stateDir}) {
+                archiveDirectories(dir);
+            }
+        }
     }
     
     public URI reserveDirectory(String path, PackageResourceType type) {
@@ -381,8 +670,10 @@ public class BagItPackageAssembler implements PackageAssembler {
             //Create file from given path
             File newFile = new File(containingDirectory, decodedPath);
 
-            //Create folders in the path
-            if (!newFile.getParentFile().exists()) {
+            //Create folders in the path, or their entries in the archive when streaming
+            if (isStreaming) {
+                archiveDirectories(isDirectory ? newFile : newFile.getParentFile());
+            } else if (!newFile.getParentFile().exists()) {
                 log.debug("Creating parent folders");
                 boolean isDirCreated = newFile.getParentFile().mkdirs();
                 if (!isDirCreated) {
@@ -437,10 +728,28 @@ public class BagItPackageAssembler implements PackageAssembler {
 
     @Override
     public void putResource(URI uri, InputStream content) {
+        putResource(uri, content, -1);
+    }
+
+    /**
+     * {@inheritDoc}
+     * When streaming, payload content of a known length is written straight into the serialized package; payload
+     * content of unknown length is buffered first, in memory or in a temporary file if it is large.
+     */
+    @Override
+    public void putResource(URI uri, InputStream content, long size) {
         URI resolvableURI = fileURIMap.get(uri);
         File newFile = new File(resolvableURI);
-        try (OutputStream fileOS = new FileOutputStream(newFile)) {
-            IOUtils.copy(content, fileOS);
+
+        if (isStreaming && dataFiles.contains(newFile)) {
+            resourceChecksums.put(uri, archivePayloadFile(newFile, content, size));
+            return;
+        }
+
+        // Digest the content while it is copied, so it doesn't have to be read again for the manifests
+        try (ChecksumOutputStream checksumOS = newChecksumStream(newFile)) {
+            IOUtils.copy(content, checksumOS);
+            resourceChecksums.put(uri, checksumOS.getChecksums());
         } catch (FileNotFoundException e) {
             throw new PackageToolException(PackagingToolReturnInfo.PKG_FILE_NOT_FOUND_EXCEPTION, e);
         } catch (IOException e) {
@@ -448,6 +757,82 @@ public class BagItPackageAssembler implements PackageAssembler {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * Unless streaming, the file is staged according to the payload staging strategy: hard linked, copied by the
+     * operating system, or copied as a stream, each strategy falling back to the next one when it can't be applied.
+     * Files which are linked or copied by the operating system are digested when the package is assembled.
+     * When assembling incrementally, files which are the same as in the existing bag are not staged again. In a
+     * holey bag, payload files are referred to in fetch.txt rather than staged.
+     */
+    @Override
+    public void putResource(URI uri, Path source) {
+        if (isHoley && fetchResource(uri, source, Collections.emptyMap())) {
+            return;
+        }
+        stageResource(uri, source, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The checksums are used for the manifests, rather than reading the file, if there are checksums for all of
+     * the algorithms of the manifests: in a holey bag for the payload files referred to in fetch.txt, and otherwise
+     * for the files which are linked or copied by the operating system, or unchanged when assembling incrementally.
+     */
+    @Override
+    public void putResource(URI uri, Path source, Map<String, String> checksums) {
+        if (isHoley && fetchResource(uri, source, checksums)) {
+            return;
+        }
+        stageResource(uri, source, knownChecksums(checksums));
+    }
+
+    /**
+     * Stages a payload file according to the payload staging strategy.
+     * @param uri the URI of the payload file
+     * @param source the file
+     * @param knownChecksums the checksums of the file for all of the algorithms of the manifests, or null if they
+     *        are not known
+     */
+    private void stageResource(URI uri, Path source, List<Checksum> knownChecksums) {
+        if (isIncremental && isUnchanged(uri, source, knownChecksums)) {
+            return;
+        }
+        if (isStreaming || stagingStrategy == GeneralParameterNames.STAGING_STRATEGY.COPY) {
+            PackageAssembler.super.putResource(uri, source);
+            return;
+        }
+        if (!Files.isRegularFile(source)) {
+            throw new PackageToolException(PackagingToolReturnInfo.PKG_FILE_NOT_FOUND_EXCEPTION, source.toString());
+        }
+
+        Path target = new File(fileURIMap.get(uri)).toPath();
+        resourceChecksums.remove(uri);
+
+        if (stagingStrategy == GeneralParameterNames.STAGING_STRATEGY.LINK) {
+            try {
+                Files.deleteIfExists(target);
+                Files.createLink(target, source.toRealPath());
+                if (knownChecksums != null) {
+                    resourceChecksums.put(uri, knownChecksums);
+                }
+                return;
+            } catch (IOException | UnsupportedOperationException e) {
+                log.debug("Couldn't link " + target + " to " + source + ", copying it instead: " + e.getMessage());
+            }
+        }
+
+        try {
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+            if (knownChecksums != null) {
+                resourceChecksums.put(uri, knownChecksums);
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            log.debug("Couldn't transfer " + source + " to " + target + ", copying it instead: " + e.getMessage());
+            PackageAssembler.super.putResource(uri, source);
+        }
+    }
+
     /**
      *
      * @param path
@@ -496,6 +881,24 @@ public class BagItPackageAssembler implements PackageAssembler {
         }
         try {
 
+            if (isIncremental) {
+                this.removeStalePayload();
+            }
+
+            if (isStreaming) {
+                //resources reserved but never put are empty
+                for (File file : dataFiles) {
+                    if (!archivedFiles.contains(file) && !fetchItems.containsKey(file)) {
+                        putResource(bagUri(file), new ByteArrayInputStream(new byte[0]), 0);
+                    }
+                }
+                for (File file : tagFiles) {
+                    if (!bufferedTagFiles.containsKey(file)) {
+                        putResource(bagUri(file), new ByteArrayInputStream(new byte[0]), 0);
+                    }
+                }
+            }
+
             //Write bag-info.txt
             File bagInfoFile = this.writeBagInfoTxt();
             tagFiles.add(bagInfoFile);
@@ -504,9 +907,14 @@ public class BagItPackageAssembler implements PackageAssembler {
             File bagItFile = this.writeBagItTxt();
             tagFiles.add(bagItFile);
 
-            //calculate payload files checksums
-            Map<File, List<Checksum>> payloadFileChecksums =
-                    checksumService.generatePackageFileChecksums(dataFiles, checksumAlgs);
+            //Write fetch.txt
+            if (!fetchItems.isEmpty()) {
+                File fetchFile = this.writeFetchTxt();
+                tagFiles.add(fetchFile);
+            }
+
+            //collect payload files checksums, computed when their content was written
+            Map<File, List<Checksum>> payloadFileChecksums = this.collectChecksums(dataFiles);
 
             //write manifest files.
             for (String alg : checksumAlgs) {
@@ -515,9 +923,8 @@ public class BagItPackageAssembler implements PackageAssembler {
                 tagFiles.add(manifestFile);
             }
 
-            //calculate checksums for tag files, including the newly create manifest files.
-            Map<File, List<Checksum>> tagFileChecksums =
-                    checksumService.generatePackageFileChecksums(tagFiles, checksumAlgs);
+            //collect checksums for tag files, including the newly create manifest files.
+            Map<File, List<Checksum>> tagFileChecksums = this.collectChecksums(tagFiles);
 
             for (String alg: checksumAlgs) {
                 String tagManifestName = "tagmanifest-" + alg + ".txt";
@@ -530,11 +937,11 @@ public class BagItPackageAssembler implements PackageAssembler {
 
                 boolean useCompression = (compressionFormat != null && !compressionFormat.isEmpty() && !compressionFormat.equals("none"));
 
-                File archivedBag = this.archiveBag();
-                if (useCompression) {
-                   finalFile = this.compressFile(archivedBag);
+                if (isStreaming) {
+                    //the payload is already in the archive, add the tag files to complete it
+                    finalFile = this.finishArchive();
                 } else {
-                   finalFile = archivedBag;
+                    finalFile = this.archiveBag();
                 }
 
                 String contentType;
@@ -546,13 +953,14 @@ public class BagItPackageAssembler implements PackageAssembler {
                 }
 
 
-                pkg = new org.dataconservancy.packaging.tool.impl.PackageImpl(finalFile, finalFile.getName(), contentType);
+                if (volumeStream != null && volumeStream.getVolumes().size() > 1) {
+                    pkg = new SplitPackageImpl(volumeStream.getVolumes(), finalFile.getName(), contentType);
+                } else {
+                    pkg = new org.dataconservancy.packaging.tool.impl.PackageImpl(finalFile, finalFile.getName(), contentType);
+                }
 
                 //remove unneeded files
                 FileUtils.deleteDirectory(this.bagBaseDir);
-                if (useCompression) {
-                    FileUtils.forceDelete(archivedBag);
-                }
             }
         } catch (IOException e) {
             log.warn("Could not remove files and/or directory created during package generation." + e.getMessage());
@@ -570,19 +978,270 @@ public class BagItPackageAssembler implements PackageAssembler {
         params.addParam(key, value);
     }
 
+    /**
+     * Parses a number of bytes, optionally followed by a K, M, G or T multiplier, in powers of 1024.
+     * @param size the number of bytes, e.g. "100G"
+     * @return the number of bytes, or null if it isn't a number of bytes
+     */
+    private static Long parseSize(String size) {
+        Matcher matcher = SIZE.matcher(size.trim());
+        if (!matcher.matches()) {
+            return null;
+        }
+        String multiplier = matcher.group(2).toUpperCase();
+        int shift = multiplier.isEmpty() ? 0 : 10 * ("KMGT".indexOf(multiplier) + 1);
+        try {
+            long number = Long.parseLong(matcher.group(1));
+            if (number > (Long.MAX_VALUE >> shift)) {
+                return null;
+            }
+            return number << shift;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Refers to a local payload file in fetch.txt rather than staging it, if it is one of the files referred to.
+     * @param uri the URI of the payload file
+     * @param source the file
+     * @param checksums the known checksums of the file, keyed by algorithm
+     * @return true if the file is referred to, false if it has to be staged
+     */
+    private boolean fetchResource(URI uri, Path source, Map<String, String> checksums) throws PackageToolException {
+        File target = new File(fileURIMap.get(uri));
+        Path location = source.toAbsolutePath().normalize();
+        if (!dataFiles.contains(target) || (fetchBaseLocation != null && !location.startsWith(fetchBaseLocation))) {
+            return false;
+        }
+
+        URI url;
+        if (fetchBaseUrl != null) {
+            String relativePath = FilenameUtils.separatorsToUnix(fetchBaseLocation.relativize(location).toString());
+            try {
+                url = new URI(fetchBaseUrl.toString() + new URI(null, null, relativePath, null).getRawPath());
+            } catch (URISyntaxException e) {
+                throw new PackageToolException(PackagingToolReturnInfo.PKG_ASSEMBLER_URI_GENERATION_EXP, e);
+            }
+        } else {
+            url = location.toUri();
+        }
+
+        try {
+            long size = Files.size(source);
+
+            List<Checksum> fileChecksums = knownChecksums(checksums);
+            if (fileChecksums == null) {
+                //read the file only if some of the checksums are not known
+                fileChecksums = digest(source);
+            }
+
+            //a file of the existing bag, when assembling incrementally, is replaced by the reference
+            Files.deleteIfExists(target.toPath());
+
+            resourceChecksums.put(uri, fileChecksums);
+            fetchItems.put(target, new FetchItem(url, size));
+            return true;
+        } catch (NoSuchFileException e) {
+            throw new PackageToolException(PackagingToolReturnInfo.PKG_FILE_NOT_FOUND_EXCEPTION, e);
+        } catch (IOException e) {
+            throw new PackageToolException(PackagingToolReturnInfo.PKG_IO_EXCEPTION, e);
+        }
+    }
+
+    /**
+     * Reads the payload manifests of the existing bag, for the configured checksum algorithms.
+     */
+    private void readPreviousManifests() throws PackageToolException {
+        for (String alg : checksumAlgs) {
+            File manifestFile = new File(bagBaseDir, "manifest-" + alg + ".txt");
+            if (!manifestFile.isFile()) {
+                continue;
+            }
+            try {
+                for (String line : Files.readAllLines(manifestFile.toPath(), Charset.forName(ENCODING))) {
+                    Matcher matcher = MANIFEST_LINE.matcher(line);
+                    if (matcher.matches()) {
+                        File file = new File(bagBaseDir, matcher.group(2)).getAbsoluteFile();
+                        previousChecksums.computeIfAbsent(file, f -> new ArrayList<>())
+                                .add(new ChecksumImpl(alg, matcher.group(1)));
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("Exception thrown when reading existing manifest " + manifestFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Checks whether a file is the same as the payload file of the existing bag it would be staged to, according to
+     * the manifests of the existing bag. If it is, the checksums of the file are kept for the new manifests.
+     * @param uri the URI of the payload file
+     * @param source the file
+     * @param knownChecksums the checksums of the file for all of the algorithms of the manifests, or null if the
+     *        file has to be read to compare it
+     * @return true if the file doesn't have to be staged again
+     */
+    private boolean isUnchanged(URI uri, Path source, List<Checksum> knownChecksums) throws PackageToolException {
+        File target = new File(fileURIMap.get(uri));
+        List<Checksum> previous = previousChecksums.get(target);
+        try {
+            if (previous == null || !target.isFile() || target.length() != Files.size(source)) {
+                return false;
+            }
+
+            List<Checksum> checksums = knownChecksums != null ? knownChecksums : digest(source);
+            for (Checksum previousChecksum : previous) {
+                if (!checksums.contains(previousChecksum)) {
+                    return false;
+                }
+            }
+            resourceChecksums.put(uri, checksums);
+            return true;
+        } catch (NoSuchFileException e) {
+            throw new PackageToolException(PackagingToolReturnInfo.PKG_FILE_NOT_FOUND_EXCEPTION, e);
+        } catch (IOException e) {
+            throw new PackageToolException(PackagingToolReturnInfo.PKG_IO_EXCEPTION, e);
+        }
+    }
+
+    /**
+     * Answers the checksums of a file for the algorithms of the manifests out of checksums already known.
+     * @param checksums the known checksums of the file, keyed by algorithm
+     * @return the checksums for all of the algorithms of the manifests, or null if some of them are not known
+     */
+    private List<Checksum> knownChecksums(Map<String, String> checksums) {
+        List<Checksum> fileChecksums = new ArrayList<>();
+        for (String alg : checksumAlgs) {
+            String checksum = checksums.get(alg.toLowerCase());
+            if (checksum == null) {
+                return null;
+            }
+            fileChecksums.add(new ChecksumImpl(alg, checksum));
+        }
+        return fileChecksums;
+    }
+
+    /**
+     * Reads a file to compute its checksums for the algorithms of the manifests.
+     * @param source the file
+     * @return the checksums of the file
+     */
+    private List<Checksum> digest(Path source) throws IOException {
+        try (InputStream in = Files.newInputStream(source);
+             ChecksumOutputStream checksumOS = new ChecksumOutputStream(new NullOutputStream(), checksumAlgs)) {
+            IOUtils.copyLarge(in, checksumOS, new byte[ARCHIVING_BUFFER_SIZE]);
+            return checksumOS.getChecksums();
+        }
+    }
+
+    /**
+     * Removes the payload files of the existing bag which are not part of the payload anymore, and the directories
+     * left empty which weren't reserved.
+     */
+    private void removeStalePayload() throws PackageToolException {
+        Set<File> reservedDirectories = fileURIMap.entrySet().stream()
+                .filter(entry -> entry.getKey().toString().endsWith("/"))
+                .map(entry -> new File(entry.getValue()))
+                .collect(Collectors.toSet());
+
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(payloadDir.toPath())) {
+            //children before their parents
+            paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new PackageToolException(PackagingToolReturnInfo.PKG_IO_EXCEPTION, e,
+                    "Exception occurred when listing the existing payload.");
+        }
+
+        for (Path path : paths) {
+            File file = path.toFile();
+            boolean isStale;
+            if (file.equals(payloadDir)) {
+                isStale = false;
+            } else if (file.isDirectory()) {
+                String[] children = file.list();
+                isStale = children != null && children.length == 0 &&
+                        !reservedDirectories.contains(file.getAbsoluteFile());
+            } else {
+                isStale = !dataFiles.contains(file);
+            }
+
+            if (isStale) {
+                log.debug("Removing " + file + ", which is not part of the payload anymore");
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    throw new PackageToolException(PackagingToolReturnInfo.PKG_IO_EXCEPTION, e,
+                            "Exception occurred when removing " + file + " from the existing payload.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Answers the checksums of some of the files of the bag. Checksums computed while the files were written are
+     * reused; only files whose content was not written by this assembler are read.
+     * @param files the payload or tag files
+     * @return the checksums of each of the files
+     */
+    private Map<File, List<Checksum>> collectChecksums(Set<File> files) throws PackageToolException {
+        Map<File, List<Checksum>> fileChecksums = new HashMap<>();
+        Set<File> unchecked = new HashSet<>();
+
+        for (File file : files) {
+            List<Checksum> checksums = resourceChecksums.get(bagUri(file));
+            if (checksums != null) {
+                fileChecksums.put(file, checksums);
+            } else {
+                unchecked.add(file);
+            }
+        }
+
+        if (!unchecked.isEmpty()) {
+            fileChecksums.putAll(checksumService.generatePackageFileChecksums(unchecked, checksumAlgs));
+        }
+
+        return fileChecksums;
+    }
+
+    /**
+     * Keeps the checksums of a tag file written by the assembler itself, so that it doesn't have to be read again.
+     * @param file the tag file
+     * @param checksumOS the stream the content of the tag file was written to
+     */
+    private void recordChecksums(File file, ChecksumOutputStream checksumOS) throws PackageToolException {
+        URI relativeURI = bagUri(file);
+        fileURIMap.putIfAbsent(relativeURI, file.toURI());
+        resourceChecksums.put(relativeURI, checksumOS.getChecksums());
+    }
+
+    private URI bagUri(File file) throws PackageToolException {
+        try {
+            return UriUtility.makeBagUriString(file, packageLocationDir);
+        } catch (URISyntaxException e) {
+            throw new PackageToolException(PackagingToolReturnInfo.PKG_ASSEMBLER_URI_GENERATION_EXP, e);
+        }
+    }
+
     private File writeManifestFile(String alg, Map<File, List<Checksum>> fileChecksums, String fileName)
             throws PackageToolException {
         File manifestFile = new File(bagBaseDir, fileName);
-        try (Writer writer = newWriter(manifestFile)){
+        ChecksumOutputStream checksumOS;
+        try (Writer writer = newWriter(checksumOS = newChecksumStream(manifestFile))) {
             String newLine = System.getProperty("line.separator");
             String lineFormat = "%s  %s";
 
-            Set<File> files = fileChecksums.keySet();
+            //sorted by path, so that the manifest doesn't depend on where the bag was staged
+            Map<String, File> files = new TreeMap<>();
+            for (File file : fileChecksums.keySet()) {
+                files.put(FilenameUtils.separatorsToUnix(Paths.get(bagBaseDir.getPath()).relativize(Paths.get(file.getPath())).toString()), file);
+            }
 
-            for (File file : files) {
-                List<Checksum> checksums = fileChecksums.get(file);
+            for (Map.Entry<String, File> fileAndPath : files.entrySet()) {
+                List<Checksum> checksums = fileChecksums.get(fileAndPath.getValue());
 
-                final String filePath = FilenameUtils.separatorsToUnix(Paths.get(bagBaseDir.getPath()).relativize(Paths.get(file.getPath())).toString());
+                final String filePath = fileAndPath.getKey();
                 for (Checksum checksum : checksums) {
                     if (checksum.getAlgorithm().equals(alg)) {
                         writer.write(String.format(lineFormat, checksum.getValue(),
@@ -595,12 +1254,14 @@ public class BagItPackageAssembler implements PackageAssembler {
             throw new PackageToolException(PackagingToolReturnInfo.PKG_IO_EXCEPTION, e,
                     "Exception occurred when writing one of the manifest files.");
         }
+        recordChecksums(manifestFile, checksumOS);
         return manifestFile;
     }
 
     private File writeBagInfoTxt() throws PackageToolException {
         File bagInfoFile = new File(bagBaseDir, "bag-info.txt");
-        try (Writer writer = newWriter(bagInfoFile)) {
+        ChecksumOutputStream checksumOS;
+        try (Writer writer = newWriter(checksumOS = newChecksumStream(bagInfoFile))) {
             String newLine = System.getProperty("line.separator");
             String lineFormat = "%s: %s ";
 
@@ -608,10 +1269,18 @@ public class BagItPackageAssembler implements PackageAssembler {
                 packageMetadata.put(BagItParameterNames.BAGIT_PROFILE_ID, Collections.singletonList(PROFILE_ID));
             }
 
+            long payloadSize = isStreaming ? archivedPayloadSize : FileUtils.sizeOfDirectory(payloadDir);
+            //the payload of a holey bag includes the files to be fetched
+            for (FetchItem fetchItem : fetchItems.values()) {
+                payloadSize += fetchItem.size;
+            }
+            long bagSize = isStreaming ? archivedPayloadSize + bufferedTagFilesSize() :
+                    FileUtils.sizeOfDirectory(bagBaseDir);
+
             packageMetadata.put(BagItParameterNames.PAYLOAD_OXUM, Collections.singletonList(
-                    FileUtils.sizeOfDirectory(payloadDir) + "." + dataFiles.size()));
+                    payloadSize + "." + dataFiles.size()));
             packageMetadata.put(BagItParameterNames.BAG_SIZE, Collections.singletonList(
-                    FileUtils.byteCountToDisplaySize(FileUtils.sizeOfDirectory(bagBaseDir))));
+                    FileUtils.byteCountToDisplaySize(bagSize)));
 
             // DC-2197: The field names are sorted so that we can more easily test; field value ordering is preserved
             TreeSet<String> bagInfoFields = packageMetadata.keySet().stream()
@@ -634,13 +1303,15 @@ public class BagItPackageAssembler implements PackageAssembler {
             throw new PackageToolException(PackagingToolReturnInfo.PKG_IO_EXCEPTION, e,
                     "Exception occurred when writing bag-info.txt file.");
         }
+        recordChecksums(bagInfoFile, checksumOS);
 
         return bagInfoFile;
     }
 
     private File writeBagItTxt() throws PackageToolException {
         File bagItFile = new File(bagBaseDir, "bagit.txt");
-        try (Writer writer = newWriter(bagItFile)) {
+        ChecksumOutputStream checksumOS;
+        try (Writer writer = newWriter(checksumOS = newChecksumStream(bagItFile))) {
             String newLine = System.getProperty("line.separator");
             String lineFormat = "%s: %s ";
 
@@ -653,19 +1324,51 @@ public class BagItPackageAssembler implements PackageAssembler {
             throw new PackageToolException(PackagingToolReturnInfo.PKG_IO_EXCEPTION, e,
                     "Exception occurred when writing bagit.txt file.");
         }
+        recordChecksums(bagItFile, checksumOS);
         return bagItFile;
     }
 
+    private File writeFetchTxt() throws PackageToolException {
+        File fetchFile = new File(bagBaseDir, "fetch.txt");
+        ChecksumOutputStream checksumOS;
+        try (Writer writer = newWriter(checksumOS = newChecksumStream(fetchFile))) {
+            String newLine = System.getProperty("line.separator");
+            String lineFormat = "%s %d %s";
+
+            //sorted by path, like the manifests
+            Map<String, FetchItem> items = new TreeMap<>();
+            for (Map.Entry<File, FetchItem> fetchItem : fetchItems.entrySet()) {
+                items.put(FilenameUtils.separatorsToUnix(Paths.get(bagBaseDir.getPath()).relativize(
+                        Paths.get(fetchItem.getKey().getPath())).toString()), fetchItem.getValue());
+            }
+
+            for (Map.Entry<String, FetchItem> item : items.entrySet()) {
+                writer.write(String.format(lineFormat, item.getValue().url.toASCIIString(), item.getValue().size,
+                        item.getKey()) + newLine);
+            }
+        } catch (IOException e) {
+            throw new PackageToolException(PackagingToolReturnInfo.PKG_IO_EXCEPTION, e,
+                    "Exception occurred when writing fetch.txt file.");
+        }
+        recordChecksums(fetchFile, checksumOS);
+        return fetchFile;
+    }
+
+    /**
+     * Serializes the staged bag. The archive is compressed as it is written, if a compression format is set.
+     * @return the archive
+     * @throws PackageToolException
+     */
     private File archiveBag() throws PackageToolException {
-        File archivedFile = new File(packageLocationDir, bagBaseDir.getName() + "." + archivingFormat);
+        if (archivingFormat.equals(ArchiveStreamFactory.TAR) && !isCompressed() && volumeSize == null) {
+            return transferBag();
+        } else if (archivingFormat.equals(ArchiveStreamFactory.ZIP) && isCompressionThreadsSet
+                && compressionThreads > 1) {
+            return scatterBag();
+        }
+
+        openArchive();
         try {
-            FileOutputStream fos = new FileOutputStream(archivedFile);
-            ArchiveOutputStream aos = new ArchiveStreamFactory()
-                    .createArchiveOutputStream(archivingFormat, new BufferedOutputStream(fos));
-            if (aos instanceof TarArchiveOutputStream) {
-                ((TarArchiveOutputStream) aos).setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
-                ((TarArchiveOutputStream) aos).setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
-            }
             // Get to putting all the files in the compressed output file
             if (bagBaseDir.listFiles() != null) {
                 for (File f : bagBaseDir.listFiles()) {
@@ -673,23 +1376,17 @@ public class BagItPackageAssembler implements PackageAssembler {
                     if (Thread.currentThread().isInterrupted()) {
                         break;
                     }
-                    addFilesToArchive(aos, f);
+                    addFilesToArchive(archiveStream, f);
                 }
             }
-            aos.close();
-            fos.close();
-        } catch (FileNotFoundException e) {
-            throw new PackageToolException(PackagingToolReturnInfo.PKG_FILE_NOT_FOUND_EXCEPTION, e,
-                    "Exception occurred when serializing the bag.");
+            archiveStream.close();
         } catch (IOException e) {
+            IOUtils.closeQuietly(archiveStream);
             throw new PackageToolException(PackagingToolReturnInfo.PKG_IO_EXCEPTION, e,
                     "Exception occurred when serializing the bag.");
-        } catch (ArchiveException e) {
-            throw new PackageToolException(PackagingToolReturnInfo.PKG_ASSEMBLER_ARCHIVE_EXP, e,
-                    "Archiving format \"" + archivingFormat+ "\" is not supported.");
         }
 
-        return archivedFile;
+        return archiveFile;
     }
 
     private void addFilesToArchive(ArchiveOutputStream taos, File file) throws IOException {
@@ -714,10 +1411,10 @@ public class BagItPackageAssembler implements PackageAssembler {
         }
         if (file.isFile()) {
             // Add the file to the archive
-            BufferedInputStream bis = new BufferedInputStream(new FileInputStream(file));
-            IOUtils.copy(bis, taos);
+            try (InputStream in = new FileInputStream(file)) {
+                IOUtils.copyLarge(in, taos, new byte[ARCHIVING_BUFFER_SIZE]);
+            }
             taos.closeArchiveEntry();
-            bis.close();
         } else if (file.isDirectory()) {
             // close the archive entry
             taos.closeArchiveEntry();
@@ -729,34 +1426,339 @@ public class BagItPackageAssembler implements PackageAssembler {
     }
 
     /**
-     * Produce a compressed file from input file.
-     * The produced compressed file will be placed at the specified package-location.
-     * @param file the input file
-     * @return  the compressed file
+     * Serializes the bag to an uncompressed tar archive, transferring the content of the files to the archive within
+     * the operating system.
+     * @return the archive
      * @throws PackageToolException
      */
-    private File compressFile(File file) throws PackageToolException {
-        if (compressionFormat != null) {
-            File compressedFile = new File(packageLocationDir, file.getName()+ "." + compressionFormat);
-            try (CompressorOutputStream compressedStream = new CompressorStreamFactory()
-                        .createCompressorOutputStream(compressionFormat, new FileOutputStream(compressedFile));
-                FileInputStream uncompressedStream = new FileInputStream(file)) {
-                IOUtils.copy(uncompressedStream, compressedStream);
-            } catch (FileNotFoundException e) {
-                throw new PackageToolException(PackagingToolReturnInfo.PKG_FILE_NOT_FOUND_EXCEPTION, e,
-                        "Exception occurred when compressing the serialized bag.");
-            } catch (IOException e) {
-                throw new PackageToolException(PackagingToolReturnInfo.PKG_IO_EXCEPTION, e,
-                        "Exception occurred when compressing the serialized bag.");
-            } catch (CompressorException e) {
-                throw new PackageToolException(PackagingToolReturnInfo.PKG_ASSEMBLER_COMPRESSION_EXP, e,
-                        "Compression format \"" + compressionFormat + "\" is not supported.");
+    private File transferBag() throws PackageToolException {
+        archiveFile = new File(packageLocationDir, bagBaseDir.getName() + "." + archivingFormat);
+        try (TarChannelWriter writer = new TarChannelWriter(archiveFile)) {
+            if (bagBaseDir.listFiles() != null) {
+                for (File f : bagBaseDir.listFiles()) {
+                    //To support the cancelling of package creation we check here to see if the thread has been interrupted.
+                    if (Thread.currentThread().isInterrupted()) {
+                        break;
+                    }
+                    transferFilesToArchive(writer, f);
+                }
             }
+        } catch (IOException e) {
+            throw new PackageToolException(PackagingToolReturnInfo.PKG_IO_EXCEPTION, e,
+                    "Exception occurred when serializing the bag.");
+        }
 
-            return compressedFile;
-        } else return file;
+        return archiveFile;
     }
 
+    private void transferFilesToArchive(TarChannelWriter writer, File file) throws IOException {
+        if (file.isFile()) {
+            writer.putFile(file, entryName(file));
+        } else if (file.isDirectory()) {
+            writer.putDirectory(file, entryName(file));
+            for (File childFile : file.listFiles()) {
+                transferFilesToArchive(writer, childFile);
+            }
+        }
+    }
+
+    /**
+     * Serializes the staged bag to a zip archive, deflating the files on {@link #compressionThreads} threads. Each
+     * thread deflates its files to a temporary file in the package location, and the deflated entries are then copied
+     * to the archive, so that entries may not be in the same order as in the bag.
+     * @return the archive
+     * @throws PackageToolException
+     */
+    private File scatterBag() throws PackageToolException {
+        openArchive();
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(compressionThreads, runnable -> {
+            Thread thread = new Thread(runnable, "zip-deflater-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<ScatterGatherBackingStore> backingStores = Collections.synchronizedList(new ArrayList<>());
+        ParallelScatterZipCreator zipCreator = new ParallelScatterZipCreator(executor, () -> {
+            ScatterGatherBackingStore backingStore =
+                    new FileBasedScatterGatherBackingStore(File.createTempFile("scatter", ".tmp", packageLocationDir));
+            backingStores.add(backingStore);
+            return backingStore;
+        });
+
+        try {
+            if (bagBaseDir.listFiles() != null) {
+                for (File f : bagBaseDir.listFiles()) {
+                    //To support the cancelling of package creation we check here to see if the thread has been interrupted.
+                    if (Thread.currentThread().isInterrupted()) {
+                        break;
+                    }
+                    scatterFilesToArchive(zipCreator, f);
+                }
+            }
+            zipCreator.writeTo((ZipArchiveOutputStream) archiveStream);
+            archiveStream.close();
+        } catch (IOException | ExecutionException e) {
+            IOUtils.closeQuietly(archiveStream);
+            throw new PackageToolException(PackagingToolReturnInfo.PKG_IO_EXCEPTION, e,
+                    "Exception occurred when serializing the bag.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            IOUtils.closeQuietly(archiveStream);
+            throw new PackageToolException(PackagingToolReturnInfo.PKG_IO_EXCEPTION, e,
+                    "Interrupted while serializing the bag.");
+        } finally {
+            executor.shutdownNow();
+            synchronized (backingStores) {
+                for (ScatterGatherBackingStore backingStore : backingStores) {
+                    try {
+                        backingStore.close();
+                    } catch (IOException e) {
+                        log.warn("Unable to delete temporary file used to deflate the bag", e);
+                    }
+                }
+            }
+        }
+
+        return archiveFile;
+    }
+
+    private void scatterFilesToArchive(ParallelScatterZipCreator zipCreator, File file) {
+        ZipArchiveEntry entry = new ZipArchiveEntry(file, entryName(file));
+        entry.setMethod(ZipArchiveEntry.DEFLATED);
+        if (file.isFile()) {
+            zipCreator.addArchiveEntry(entry, () -> {
+                try {
+                    return new FileInputStream(file);
+                } catch (FileNotFoundException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } else if (file.isDirectory()) {
+            zipCreator.addArchiveEntry(entry, () -> new ByteArrayInputStream(new byte[0]));
+            for (File childFile : file.listFiles()) {
+                scatterFilesToArchive(zipCreator, childFile);
+            }
+        }
+    }
+
+    private boolean isCompressed() {
+        return compressionFormat != null && !compressionFormat.isEmpty() && !compressionFormat.equals("none");
+    }
+
+    /**
+     * Opens the archive the bag is serialized to. The compressor, if a compression format is set, is chained under the
+     * archive so that the archive is compressed as it is written.
+     * @throws PackageToolException
+     */
+    private void openArchive() throws PackageToolException {
+        String extension = archivingFormat;
+        if (compressionFormat != null && !compressionFormat.equals("none")) {
+            extension += "." + compressionFormat;
+        }
+        archiveFile = new File(packageLocationDir, bagBaseDir.getName() + "." + extension);
+
+        OutputStream out = null;
+        try {
+            if (volumeSize != null) {
+                volumeStream = new VolumeOutputStream(archiveFile, volumeSize);
+                out = new BufferedOutputStream(volumeStream);
+            } else {
+                out = new BufferedOutputStream(new FileOutputStream(archiveFile));
+            }
+            if (isParallelCompression && compressionFormat.equals(CompressorStreamFactory.GZIP)) {
+                out = ParallelCompressorOutputStream.gzip(out, compressionThreads);
+            } else if (isParallelCompression && compressionFormat.equals(CompressorStreamFactory.BZIP2)) {
+                out = ParallelCompressorOutputStream.bzip2(out, compressionThreads);
+            } else if (ZSTANDARD.equals(compressionFormat)) {
+                ZstdOutputStream zstd = new ZstdOutputStream(out);
+                out = zstd;
+                zstd.setLevel(compressionLevel != null ? compressionLevel : Zstd.defaultCompressionLevel());
+                if (compressionThreads > 1) {
+                    zstd.setWorkers(compressionThreads);
+                }
+            } else if (LZ4.equals(compressionFormat)) {
+                out = new Lz4FrameOutputStream(out);
+            } else if (compressionFormat != null && !compressionFormat.equals("none")) {
+                out = new CompressorStreamFactory().createCompressorOutputStream(compressionFormat, out);
+            }
+            archiveStream = new ArchiveStreamFactory().createArchiveOutputStream(archivingFormat, out);
+            if (archiveStream instanceof TarArchiveOutputStream) {
+                ((TarArchiveOutputStream) archiveStream).setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
+                ((TarArchiveOutputStream) archiveStream).setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+            }
+        } catch (FileNotFoundException e) {
+            throw new PackageToolException(PackagingToolReturnInfo.PKG_FILE_NOT_FOUND_EXCEPTION, e,
+                    "Exception occurred when serializing the bag.");
+        } catch (CompressorException e) {
+            IOUtils.closeQuietly(out);
+            throw new PackageToolException(PackagingToolReturnInfo.PKG_ASSEMBLER_COMPRESSION_EXP, e,
+                    "Compression format \"" + compressionFormat + "\" is not supported.");
+        } catch (IOException e) {
+            IOUtils.closeQuietly(out);
+            throw new PackageToolException(PackagingToolReturnInfo.PKG_ASSEMBLER_COMPRESSION_EXP, e,
+                    "Exception occurred when setting up \"" + compressionFormat + "\" compression.");
+        } catch (ArchiveException e) {
+            IOUtils.closeQuietly(out);
+            throw new PackageToolException(PackagingToolReturnInfo.PKG_ASSEMBLER_ARCHIVE_EXP, e,
+                    "Archiving format \"" + archivingFormat+ "\" is not supported.");
+        }
+    }
+
+    /**
+     * Writes the content of a payload file straight into the streamed archive.
+     * @param file the payload file, as it would have been staged
+     * @param content the content of the payload file
+     * @param size the length of the content, or a negative number if unknown
+     * @return the checksums of the content
+     * @throws PackageToolException
+     */
+    private List<Checksum> archivePayloadFile(File file, InputStream content, long size) throws PackageToolException {
+        if (!archivedFiles.add(file)) {
+            throw new PackageToolException(PackagingToolReturnInfo.PKG_ASSEMBLER_DUPLICATE_RESOURCE,
+                    String.format("The content of %s has already been written to the package", file));
+        }
+
+        File spooledFile = null;
+        try {
+            if (size < 0) {
+                //find out the length of the content before writing its entry
+                byte[] buffer = new byte[STREAMING_BUFFER_SIZE];
+                int read = IOUtils.read(content, buffer);
+                if (read < buffer.length) {
+                    content = new ByteArrayInputStream(buffer, 0, read);
+                    size = read;
+                } else {
+                    spooledFile = File.createTempFile("resource", ".tmp", packageLocationDir);
+                    try (OutputStream spool = new BufferedOutputStream(new FileOutputStream(spooledFile))) {
+                        spool.write(buffer);
+                        IOUtils.copyLarge(content, spool);
+                    }
+                    content = new BufferedInputStream(new FileInputStream(spooledFile));
+                    size = spooledFile.length();
+                }
+            }
+
+            archiveDirectories(file.getParentFile());
+            archiveStream.putArchiveEntry(createArchiveEntry(file, size));
+            ChecksumOutputStream checksumOS = new ChecksumOutputStream(archiveStream, checksumAlgs);
+            IOUtils.copyLarge(content, checksumOS);
+            archiveStream.closeArchiveEntry();
+
+            archivedPayloadSize += size;
+            return checksumOS.getChecksums();
+        } catch (IOException e) {
+            throw new PackageToolException(PackagingToolReturnInfo.PKG_IO_EXCEPTION, e,
+                    "Exception occurred when serializing the bag.");
+        } finally {
+            if (spooledFile != null) {
+                IOUtils.closeQuietly(content);
+                FileUtils.deleteQuietly(spooledFile);
+            }
+        }
+    }
+
+    /**
+     * Writes the entries of a directory of the streamed archive, and of its parent directories, unless already
+     * written.
+     * @param directory the directory, as it would have been staged
+     * @throws PackageToolException
+     */
+    private void archiveDirectories(File directory) throws PackageToolException {
+        //as when archiving a staged bag, the base directory of the bag has no entry of its own
+        if (directory.equals(bagBaseDir) || archivedDirectories.contains(entryName(directory))) {
+            return;
+        }
+        archiveDirectories(directory.getParentFile());
+
+        if (archivingFormat.equals(ArchiveStreamFactory.AR)) {
+            //ar archives have no directories
+            return;
+        }
+
+        try {
+            archiveStream.putArchiveEntry(createArchiveEntry(directory, -1));
+            archiveStream.closeArchiveEntry();
+            archivedDirectories.add(entryName(directory));
+        } catch (IOException e) {
+            throw new PackageToolException(PackagingToolReturnInfo.PKG_IO_EXCEPTION, e,
+                    "Exception occurred when serializing the bag.");
+        }
+    }
+
+    /**
+     * Completes the streamed archive with the tag files, and closes it.
+     * @return the archive
+     * @throws PackageToolException
+     */
+    private File finishArchive() throws PackageToolException {
+        try {
+            for (Map.Entry<File, byte[]> tagFile : bufferedTagFiles.entrySet()) {
+                //To support the cancelling of package creation we check here to see if the thread has been interrupted.
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                archiveDirectories(tagFile.getKey().getParentFile());
+                archiveStream.putArchiveEntry(createArchiveEntry(tagFile.getKey(), tagFile.getValue().length));
+                archiveStream.write(tagFile.getValue());
+                archiveStream.closeArchiveEntry();
+            }
+            archiveStream.close();
+        } catch (IOException e) {
+            throw new PackageToolException(PackagingToolReturnInfo.PKG_IO_EXCEPTION, e,
+                    "Exception occurred when serializing the bag.");
+        }
+        return archiveFile;
+    }
+
+    private long bufferedTagFilesSize() {
+        long size = 0;
+        for (byte[] content : bufferedTagFiles.values()) {
+            size += content.length;
+        }
+        return size;
+    }
+
+    /**
+     * Creates the archive entry of a file or directory that is not staged.
+     * @param file the file or directory, as it would have been staged
+     * @param size the length of the file, or a negative number for a directory
+     * @return the archive entry
+     */
+    private ArchiveEntry createArchiveEntry(File file, long size) {
+        boolean isDirectory = size < 0;
+        String name = isDirectory ? entryName(file) + "/" : entryName(file);
+        long now = System.currentTimeMillis();
+
+        switch (archivingFormat) {
+            case ArchiveStreamFactory.TAR:
+                TarArchiveEntry tarEntry = new TarArchiveEntry(name);
+                tarEntry.setSize(isDirectory ? 0 : size);
+                return tarEntry;
+            case ArchiveStreamFactory.JAR:
+            case ArchiveStreamFactory.ZIP:
+                ZipArchiveEntry zipEntry = archivingFormat.equals(ArchiveStreamFactory.JAR) ?
+                        new JarArchiveEntry(name) : new ZipArchiveEntry(name);
+                zipEntry.setSize(isDirectory ? 0 : size);
+                zipEntry.setTime(now);
+                return zipEntry;
+            case ArchiveStreamFactory.AR:
+                return new ArArchiveEntry(name, size);
+            case ArchiveStreamFactory.CPIO:
+                CpioArchiveEntry cpioEntry = new CpioArchiveEntry(name);
+                cpioEntry.setMode(isDirectory ? CpioConstants.C_ISDIR | 0755 : CpioConstants.C_ISREG | 0644);
+                cpioEntry.setSize(isDirectory ? 0 : size);
+                cpioEntry.setTime(now / 1000);
+                return cpioEntry;
+            default:
+                throw new PackageToolException(PackagingToolReturnInfo.PKG_ASSEMBLER_ARCHIVE_EXP,
+                        "Archiving format \"" + archivingFormat+ "\" is not supported.");
+        }
+    }
+
+    private String entryName(File file) {
+        return FilenameUtils.separatorsToUnix(Paths.get(packageLocationDir.getPath()).relativize(Paths.get(file.getPath())).toString());
+    }
 
     /**
      * Returns a resolvable File URI given a package relative URI.
@@ -857,27 +1859,78 @@ public class BagItPackageAssembler implements PackageAssembler {
             compressionFormat = CompressorStreamFactory.GZIP;
         }
 
+        // parallel formats produce plain gz and bzip2 files, made of concatenated streams
+        isParallelCompression = false;
+        if (compressionFormat.equals("pigz")) {
+            compressionFormat = CompressorStreamFactory.GZIP;
+            isParallelCompression = true;
+        } else if (compressionFormat.equals("pbzip2")) {
+            compressionFormat = CompressorStreamFactory.BZIP2;
+            isParallelCompression = true;
+        }
+
         if (!compressionFormat.equals(CompressorStreamFactory.BZIP2)
                 && !compressionFormat.equals(CompressorStreamFactory.GZIP)
                 && !compressionFormat.equals(CompressorStreamFactory.PACK200)
+                && !compressionFormat.equals(ZSTANDARD)
+                && !compressionFormat.equals(LZ4)
                 && !compressionFormat.equals("none")) {
             throw new PackageToolException ( PackagingToolReturnInfo.PKG_ASSEMBLER_INVALID_PARAMS,
                     String.format("Specified compression format %s is not supported. The supported compression " +
-                            "formats are: %s (or %s), %s, %s, none.",
+                            "formats are: %s (or %s), %s, %s, %s, %s, %s, %s, none.",
                             compressionFormat,
-                            CompressorStreamFactory.GZIP, "gzip", CompressorStreamFactory.BZIP2, CompressorStreamFactory.PACK200));
+                            CompressorStreamFactory.GZIP, "gzip", CompressorStreamFactory.BZIP2, CompressorStreamFactory.PACK200,
+                            "pigz", "pbzip2", ZSTANDARD, LZ4));
         }
     }
 
     /**
      * Creates a new Writer that encodes bytes according to {@link #ENCODING}.
      *
-     * @param forFile the file the Writer will write to
+     * @param out the stream the Writer will write to
      * @return a Writer encoding bytes according to {@link #ENCODING}
-     * @throws FileNotFoundException if the supplied file is not found
      * @throws UnsupportedEncodingException if the {@lnk #ENCODING} is not supported by the platform
      */
-    private Writer newWriter(File forFile) throws FileNotFoundException, UnsupportedEncodingException {
-        return new OutputStreamWriter(new FileOutputStream(forFile), ENCODING);
+    private Writer newWriter(OutputStream out) throws UnsupportedEncodingException {
+        return new OutputStreamWriter(out, ENCODING);
+    }
+
+    /**
+     * Creates a new stream writing to a file, and computing the checksums of the configured algorithms on the way.
+     *
+     * @param forFile the file the stream will write to
+     * @return a stream computing the checksums of what is written to the file
+     * @throws IOException if the supplied file can't be written
+     */
+    private ChecksumOutputStream newChecksumStream(File forFile) throws IOException {
+        OutputStream out;
+        if (isStreaming) {
+            //tag files are kept in memory until the end of the archive
+            out = new ByteArrayOutputStream() {
+                @Override
+                public void close() {
+                    bufferedTagFiles.put(forFile, toByteArray());
+                }
+            };
+        } else if (isIncremental && forFile.isFile()) {
+            //files of the existing bag are only rewritten if their content changed
+            out = new IncrementalFileOutputStream(forFile);
+        } else {
+            out = new FileOutputStream(forFile);
+        }
+        return new ChecksumOutputStream(out, checksumAlgs);
+    }
+
+    /**
+     * Where a payload file of a holey bag is fetched from, and its length.
+     */
+    private static class FetchItem {
+        private final URI url;
+        private final long size;
+
+        private FetchItem(URI url, long size) {
+            this.url = url;
+            this.size = size;
+        }
     }
 }
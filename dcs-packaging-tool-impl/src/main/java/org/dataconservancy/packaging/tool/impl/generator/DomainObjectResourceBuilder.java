@@ -22,8 +22,13 @@ import java.io.InputStream;
 import java.net.URI;
 
 import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.TreeMap;
@@ -39,6 +44,7 @@ import org.apache.jena.util.ResourceUtils;
 
 import org.dataconservancy.packaging.tool.api.generator.PackageResourceType;
 import org.dataconservancy.packaging.tool.model.PackageToolException;
+import org.dataconservancy.packaging.tool.model.ipm.FileInfo;
 import org.dataconservancy.packaging.tool.model.ipm.Node;
 import org.dataconservancy.packaging.tool.ontologies.Ontologies;
 import org.dataconservancy.packaging.tool.ser.PackageStateSerializer;
@@ -221,24 +227,13 @@ class DomainObjectResourceBuilder
     private URI createBinaryResource(Node node, PackageModelBuilderState state) throws IOException, URISyntaxException {
         URI resource;
         try {
-            resource = state.assembler
-                    .createResource(BINARY_PATH + remediatePath(path(node, ""), profileId(state)),
-                            PackageResourceType.DATA,
-                            node.getFileInfo()
-                                    .getLocation()
-                                    .toURL()
-                                    .openStream());
+            resource = createBinaryResource(node, BINARY_PATH + remediatePath(path(node, ""), profileId(state)),
+                    state);
         } catch (PackageToolException e) {
             if (e.getCode() == 409) {
                 // handle duplicate reservation
                 String uniquePath = unique(node, remediatePath(path(node, ""), profileId(state)));
-                resource = state.assembler
-                        .createResource(BINARY_PATH + uniquePath,
-                                PackageResourceType.DATA,
-                                node.getFileInfo()
-                                        .getLocation()
-                                        .toURL()
-                                        .openStream());
+                resource = createBinaryResource(node, BINARY_PATH + uniquePath, state);
             } else {
                 throw e;
             }
@@ -248,6 +243,48 @@ class DomainObjectResourceBuilder
         return resource;
     }
 
+    /**
+     * Local files are handed to the assembler as files, so that it can link or clone them rather than copy them, along
+     * with the checksums computed when they were ingested if the files haven't changed since.
+     */
+    private URI createBinaryResource(Node node, String path, PackageModelBuilderState state) throws IOException {
+        URI location = node.getFileInfo().getLocation();
+        if ("file".equals(location.getScheme())) {
+            Path file = Paths.get(location);
+            return state.assembler.createResource(path, PackageResourceType.DATA, file,
+                    ingestedChecksums(node.getFileInfo(), file));
+        }
+        return state.assembler.createResource(path, PackageResourceType.DATA, location.toURL().openStream(), -1);
+    }
+
+    /**
+     * @return the checksums computed when the file was ingested, keyed by algorithm, or none if the size or
+     *         modification time of the file changed since, so that the assembler digests it again
+     */
+    private static Map<String, String> ingestedChecksums(FileInfo fileInfo, Path file) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            // The assembler reports the missing file
+            return Collections.emptyMap();
+        }
+
+        if (fileInfo.getSize() != attributes.size() || fileInfo.getLastModifiedTime() == null
+                || fileInfo.getLastModifiedTime().toMillis() != attributes.lastModifiedTime().toMillis()) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, String> checksums = new HashMap<>();
+        for (FileInfo.Algorithm algorithm : FileInfo.Algorithm.values()) {
+            String checksum = fileInfo.getChecksum(algorithm);
+            if (checksum != null) {
+                checksums.put(algorithm.name().toLowerCase(), checksum);
+            }
+        }
+        return checksums;
+    }
+
     private URI reserveObjectResource(Node node, PackageModelBuilderState state) throws URISyntaxException {
         URI resource;
         try {
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.packaging.tool.impl.generator;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes the content of a file, but only replaces the file if the content differs from what it already holds. What
+ * is written is compared with the file as it comes; the file is only read as long as the content is the same. From
+ * the first difference on, the content is written to a new file, starting with the part of the old file which was
+ * the same, and the new file replaces the old one when the stream is closed.
+ * <p>
+ * The old file is never written to, so that files it is linked to are left alone. If writing fails, the new file is
+ * deleted and the old one is kept.
+ * </p>
+ */
+class IncrementalFileOutputStream extends OutputStream {
+
+    private final File file;
+
+    private final FileChannel existing;
+
+    private File replacement = null;
+
+    private FileChannel out = null;
+
+    /**
+     * Number of bytes written, which were the same as the content of the old file.
+     */
+    private long matched = 0;
+
+    private byte[] compared = new byte[0];
+
+    private boolean closed = false;
+
+    /**
+     * @param file the existing file the content is written to
+     * @throws IOException if the file can't be read
+     */
+    IncrementalFileOutputStream(File file) throws IOException {
+        this.file = file;
+        this.existing = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+
+    /**
+     * @return whether the file was replaced, which is only known once the stream is closed
+     */
+    boolean isChanged() {
+        return replacement != null;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+
+        if (out == null) {
+            int same = compare(b, off, len);
+            matched += same;
+            if (same == len) {
+                return;
+            }
+            startReplacement();
+            off += same;
+            len -= same;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+        try {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        } catch (IOException e) {
+            discard();
+            throw e;
+        }
+    }
+
+    /**
+     * Replaces the file if the content differed from it, or was shorter.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        boolean replaced = false;
+        try {
+            if (out == null && matched != existing.size()) {
+                startReplacement();
+            }
+            existing.close();
+            if (out != null) {
+                out.close();
+                Files.move(replacement.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            replaced = true;
+        } finally {
+            if (!replaced) {
+                discard();
+            }
+        }
+    }
+
+    /**
+     * Compares content with the old file, from where the previous comparison stopped.
+     * @return the number of bytes which were the same
+     */
+    private int compare(byte[] b, int off, int len) throws IOException {
+        if (compared.length < len) {
+            compared = new byte[len];
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(compared, 0, len);
+        while (buffer.hasRemaining() && existing.read(buffer, matched + buffer.position()) > 0) {
+            // read until the buffer is full or the old file ends
+        }
+
+        int read = buffer.position();
+        for (int i = 0; i < read; i++) {
+            if (compared[i] != b[off + i]) {
+                return i;
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Starts the new file with the part of the old file which was the same.
+     */
+    private void startReplacement() throws IOException {
+        // The prefix of a temporary file must be at least 3 characters long, whatever the name of the file
+        replacement = File.createTempFile("." + file.getName() + "-", ".tmp", file.getParentFile());
+        try {
+            out = FileChannel.open(replacement.toPath(), StandardOpenOption.WRITE);
+            long transferred = 0;
+            while (transferred < matched) {
+                long count = existing.transferTo(transferred, matched - transferred, out);
+                if (count <= 0) {
+                    throw new IOException(file + " was truncated while being compared");
+                }
+                transferred += count;
+            }
+        } catch (IOException e) {
+            discard();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the stream after a failure, deleting the new file and keeping the old one.
+     */
+    private void discard() {
+        closed = true;
+        IOUtils.closeQuietly(existing);
+        IOUtils.closeQuietly(out);
+        out = null;
+        if (replacement != null) {
+            try {
+                Files.deleteIfExists(replacement.toPath());
+            } catch (IOException ignored) {
+                // Already failing
+            }
+            replacement = null;
+        }
+    }
+}
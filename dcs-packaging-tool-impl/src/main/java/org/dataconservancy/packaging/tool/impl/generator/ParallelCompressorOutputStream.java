@@ -0,0 +1,250 @@
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.packaging.tool.impl.generator;
+
+import org.apache.commons.compress.compressors.CompressorOutputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses on several threads at once, by cutting the content into blocks compressed independently of each other
+ * and writing them out in order, each block as a complete compressed stream (a gzip member, or a bzip2 stream). The
+ * output is a concatenation of compressed streams, which standard tools (gzip, pigz, bzip2, pbzip2) and decompressors
+ * set to decompress concatenated streams read as a single stream.
+ * <p>
+ * Compression is slightly less effective than with a single stream, as each block is compressed without knowledge of
+ * the blocks before it; the blocks are large enough for the difference to be negligible.
+ * </p>
+ */
+public class ParallelCompressorOutputStream extends CompressorOutputStream {
+
+    /**
+     * Size of the gzip blocks.
+     */
+    static final int GZIP_BLOCK_SIZE = 1024 * 1024;
+
+    /**
+     * Size of the bzip2 blocks, the size of a single block at the highest bzip2 compression level.
+     */
+    static final int BZIP2_BLOCK_SIZE = 900 * 1000;
+
+    private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+    /**
+     * Compresses a block into a complete compressed stream.
+     */
+    @FunctionalInterface
+    interface BlockCompressor {
+        byte[] compress(byte[] block, int length) throws IOException;
+    }
+
+    private final OutputStream out;
+
+    private final BlockCompressor compressor;
+
+    private final int blockSize;
+
+    private final int maxPendingBlocks;
+
+    private final ExecutorService executor;
+
+    private final Deque<Future<byte[]>> pendingBlocks = new ArrayDeque<>();
+
+    private byte[] block;
+
+    private int blockLength = 0;
+
+    private boolean isEmpty = true;
+
+    private boolean closed = false;
+
+    private boolean cancelled = false;
+
+    /**
+     * Creates a stream writing concatenated gzip members.
+     * @param out the stream the compressed content is written to
+     * @param threads the number of blocks compressed at the same time
+     * @return the compressing stream
+     */
+    public static ParallelCompressorOutputStream gzip(OutputStream out, int threads) {
+        return new ParallelCompressorOutputStream(out, threads, GZIP_BLOCK_SIZE, (block, length) -> {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(block, 0, length);
+            }
+            return compressed.toByteArray();
+        });
+    }
+
+    /**
+     * Creates a stream writing concatenated bzip2 streams.
+     * @param out the stream the compressed content is written to
+     * @param threads the number of blocks compressed at the same time
+     * @return the compressing stream
+     */
+    public static ParallelCompressorOutputStream bzip2(OutputStream out, int threads) {
+        return new ParallelCompressorOutputStream(out, threads, BZIP2_BLOCK_SIZE, (block, length) -> {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+            try (BZip2CompressorOutputStream bzip2 = new BZip2CompressorOutputStream(compressed)) {
+                bzip2.write(block, 0, length);
+            }
+            return compressed.toByteArray();
+        });
+    }
+
+    /**
+     * @param out the stream the compressed content is written to
+     * @param threads the number of blocks compressed at the same time, at least one
+     * @param blockSize the number of bytes in each block
+     * @param compressor compresses a block into a complete compressed stream
+     */
+    ParallelCompressorOutputStream(OutputStream out, int threads, int blockSize, BlockCompressor compressor) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of compression threads must be at least 1, was " + threads);
+        }
+
+        this.out = out;
+        this.compressor = compressor;
+        this.blockSize = blockSize;
+        // Enough blocks to keep all the threads busy while the oldest one is written out, and no more
+        this.maxPendingBlocks = 2 * threads;
+        this.block = new byte[blockSize];
+
+        final int pool = POOL_COUNT.incrementAndGet();
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "compressor-" + pool + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (cancelled) {
+            throw new IOException("Compression failed");
+        }
+
+        while (len > 0) {
+            int copied = Math.min(len, blockSize - blockLength);
+            System.arraycopy(b, off, block, blockLength, copied);
+            blockLength += copied;
+            off += copied;
+            len -= copied;
+
+            if (blockLength == blockSize) {
+                submitBlock();
+            }
+        }
+    }
+
+    /**
+     * Writes out the blocks already compressed. The current block is not cut short, so that flushing doesn't
+     * degrade compression.
+     */
+    @Override
+    public void flush() throws IOException {
+        while (!pendingBlocks.isEmpty() && pendingBlocks.peek().isDone()) {
+            writeNextBlock();
+        }
+        out.flush();
+    }
+
+    /**
+     * Compresses the remaining content, writes out all the blocks and closes the underlying stream. If compression
+     * failed, only the underlying stream is closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            if (!cancelled) {
+                // Empty content still has to be a valid compressed stream
+                if (blockLength > 0 || isEmpty) {
+                    submitBlock();
+                }
+                while (!pendingBlocks.isEmpty()) {
+                    writeNextBlock();
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            out.close();
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        final byte[] full = block;
+        final int length = blockLength;
+        pendingBlocks.add(executor.submit(() -> compressor.compress(full, length)));
+
+        isEmpty = false;
+        block = new byte[blockSize];
+        blockLength = 0;
+
+        while (pendingBlocks.size() >= maxPendingBlocks) {
+            writeNextBlock();
+        }
+    }
+
+    private void writeNextBlock() throws IOException {
+        Future<byte[]> next = pendingBlocks.poll();
+        try {
+            out.write(next.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            cancel();
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to compress", e.getCause());
+        }
+    }
+
+    private void cancel() {
+        cancelled = true;
+        pendingBlocks.forEach(pending -> pending.cancel(true));
+        pendingBlocks.clear();
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.packaging.tool.impl.generator;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes an uncompressed tar archive straight to a file channel. The content of files is transferred with
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, so that it is copied by the
+ * operating system instead of going through buffers on the Java heap.
+ * <p>
+ * Entry headers, including the GNU long name and PAX headers, are produced by {@link TarArchiveOutputStream} with the
+ * modes used by the assembler, and records and blocks are padded the way it pads them, so the archive is the same as
+ * the one {@link TarArchiveOutputStream} would write.
+ * </p>
+ */
+class TarChannelWriter implements Closeable {
+
+    private static final int RECORD_SIZE = TarConstants.DEFAULT_RCDSIZE;
+
+    private static final int BLOCK_SIZE = TarConstants.DEFAULT_BLKSIZE;
+
+    private final FileChannel channel;
+
+    private boolean closed = false;
+
+    /**
+     * @param archive the file the archive is written to, replacing its content
+     * @throws IOException if the file can't be opened
+     */
+    TarChannelWriter(File archive) throws IOException {
+        this.channel = FileChannel.open(archive.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Adds an entry for a directory, without its content.
+     * @param directory the directory
+     * @param name the name of the entry
+     * @throws IOException if the entry can't be written
+     */
+    void putDirectory(File directory, String name) throws IOException {
+        writeFully(ByteBuffer.wrap(header(new TarArchiveEntry(directory, name))));
+    }
+
+    /**
+     * Adds an entry for a file, with its content.
+     * @param file the file
+     * @param name the name of the entry
+     * @throws IOException if the entry can't be written, or the file changed size while it was being archived
+     */
+    void putFile(File file, String name) throws IOException {
+        TarArchiveEntry entry = new TarArchiveEntry(file, name);
+        writeFully(ByteBuffer.wrap(header(entry)));
+
+        long size = entry.getSize();
+        try (FileChannel content = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long transferred = 0;
+            while (transferred < size) {
+                long count = content.transferTo(transferred, size - transferred, channel);
+                if (count <= 0) {
+                    throw new IOException(String.format("%s was truncated while being archived, %d of %d bytes " +
+                            "were written", file, transferred, size));
+                }
+                transferred += count;
+            }
+        }
+
+        padTo(RECORD_SIZE);
+    }
+
+    /**
+     * Writes the end of archive records and closes the channel.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            writeFully(ByteBuffer.allocate(2 * RECORD_SIZE));
+            padTo(BLOCK_SIZE);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * The records written before the content of an entry, by a {@link TarArchiveOutputStream} which is discarded
+     * before the content would be written.
+     */
+    private byte[] header(TarArchiveEntry entry) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream(RECORD_SIZE);
+        TarArchiveOutputStream tar = new TarArchiveOutputStream(header);
+        tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
+        tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+        tar.putArchiveEntry(entry);
+        return header.toByteArray();
+    }
+
+    private void padTo(int multiple) throws IOException {
+        int remainder = (int) (channel.position() % multiple);
+        if (remainder != 0) {
+            writeFully(ByteBuffer.allocate(multiple - remainder));
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.packaging.tool.impl.generator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writes content to a series of files, the volumes, each of them holding up to a maximum number of bytes. The volumes
+ * are named after the file the content would have been written to, followed by their number: {@code .001},
+ * {@code .002}, etc. Content which fits in a single volume is written to the file itself, without a number.
+ * <p>
+ * A volume is only created once there is content to write to it, and is complete as soon as the next one is created,
+ * so that volumes can be moved elsewhere while the following ones are written.
+ * </p>
+ */
+class VolumeOutputStream extends OutputStream {
+
+    private final File file;
+
+    private final long volumeSize;
+
+    private final List<File> volumes = new ArrayList<>();
+
+    private OutputStream out = null;
+
+    private long written = 0;
+
+    private boolean closed = false;
+
+    /**
+     * @param file the file the content would be written to, if it wasn't split
+     * @param volumeSize the maximum number of bytes of each volume
+     */
+    VolumeOutputStream(File file, long volumeSize) {
+        if (volumeSize < 1) {
+            throw new IllegalArgumentException("The volume size must be positive: " + volumeSize);
+        }
+        this.file = file;
+        this.volumeSize = volumeSize;
+    }
+
+    /**
+     * @return the files holding the volumes written so far, in order
+     */
+    List<File> getVolumes() {
+        return Collections.unmodifiableList(volumes);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+
+        while (len > 0) {
+            if (out == null || written == volumeSize) {
+                nextVolume();
+            }
+            int count = (int) Math.min(len, volumeSize - written);
+            out.write(b, off, count);
+            written += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        if (out == null) {
+            //empty content still has a file
+            nextVolume();
+        }
+        out.close();
+    }
+
+    private void nextVolume() throws IOException {
+        if (out != null) {
+            out.close();
+        }
+
+        File volume;
+        if (volumes.isEmpty()) {
+            volume = file;
+        } else {
+            if (volumes.size() == 1) {
+                //the content doesn't fit in one file after all, number the first volume
+                File first = volumeFile(1);
+                if (!file.renameTo(first)) {
+                    throw new IOException("Unable to rename " + file + " to " + first);
+                }
+                volumes.set(0, first);
+            }
+            volume = volumeFile(volumes.size() + 1);
+        }
+
+        out = new FileOutputStream(volume);
+        volumes.add(volume);
+        written = 0;
+    }
+
+    private File volumeFile(int number) {
+        return new File(file.getPath() + String.format(".%03d", number));
+    }
+}
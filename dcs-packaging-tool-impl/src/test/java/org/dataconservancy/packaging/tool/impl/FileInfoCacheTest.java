@@ -0,0 +1,253 @@
+package org.dataconservancy.packaging.tool.impl;
+
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import org.dataconservancy.dcs.util.ContentDetectionService;
+import org.dataconservancy.dcs.util.ContentDetectionService.DetectionPolicy;
+import org.dataconservancy.packaging.tool.model.ipm.FileInfo;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FileInfoCacheTest {
+
+    @Rule
+    public TemporaryFolder tmpfolder = new TemporaryFolder();
+
+    private Path cacheFile;
+
+    private Path content;
+
+    @Before
+    public void setup() throws IOException {
+        cacheFile = tmpfolder.getRoot().toPath().resolve("cache").resolve("fileinfo.cache");
+        content = tmpfolder.newFile("horse.txt").toPath().toRealPath();
+        Files.write(content, "neigh".getBytes());
+    }
+
+    /**
+     * Tests that cached file information is read back from the cache file, and used instead of reading the file again.
+     * @throws IOException
+     */
+    @Test
+    public void testCacheIsPersisted() throws IOException {
+        FileInfoCache cache = new FileInfoCache(cacheFile);
+        FileInfo original = cache.getFileInfo(content);
+        cache.close();
+
+        assertTrue(Files.size(cacheFile) > 0);
+
+        // Change the content but keep the size and modification time, so only a cache hit can return the old checksum
+        FileTime modified = Files.getLastModifiedTime(content);
+        Files.write(content, "whiny".getBytes(), StandardOpenOption.TRUNCATE_EXISTING);
+        Files.setLastModifiedTime(content, modified);
+
+        FileInfoCache reopened = new FileInfoCache(cacheFile);
+        FileInfo cached = reopened.getFileInfo(content);
+
+        assertEquals(original, cached);
+        assertEquals(original.getSize(), cached.getSize());
+        reopened.close();
+    }
+
+    /**
+     * Tests that a file whose modification time changed is read again.
+     * @throws IOException
+     */
+    @Test
+    public void testModifiedFileIsReadAgain() throws IOException {
+        FileInfoCache cache = new FileInfoCache(cacheFile);
+        FileInfo original = cache.getFileInfo(content);
+
+        Files.write(content, "whiny".getBytes(), StandardOpenOption.TRUNCATE_EXISTING);
+        Files.setLastModifiedTime(content, FileTime.fromMillis(Files.getLastModifiedTime(content).toMillis() + 2000));
+
+        FileInfo updated = cache.getFileInfo(content);
+
+        assertNotEquals(original.getChecksum(FileInfo.Algorithm.MD5), updated.getChecksum(FileInfo.Algorithm.MD5));
+        cache.close();
+    }
+
+    /**
+     * Tests that verification detects and replaces stale entries.
+     * @throws IOException
+     */
+    @Test
+    public void testVerificationReplacesStaleEntries() throws IOException {
+        FileInfoCache cache = new FileInfoCache(cacheFile);
+        cache.getFileInfo(content);
+
+        FileTime modified = Files.getLastModifiedTime(content);
+        Files.write(content, "whiny".getBytes(), StandardOpenOption.TRUNCATE_EXISTING);
+        Files.setLastModifiedTime(content, modified);
+
+        cache.setVerificationRate(1);
+        FileInfo verified = cache.getFileInfo(content);
+
+        assertEquals(new FileInfo(content), verified);
+
+        cache.setVerificationRate(0);
+        assertEquals(verified, cache.getFileInfo(content));
+        cache.close();
+    }
+
+    /**
+     * Tests that a cache file written with other format signatures is started over.
+     * @throws IOException
+     */
+    @Test
+    public void testOtherSignaturesStartOver() throws IOException {
+        FileInfoCache cache = new FileInfoCache(cacheFile);
+        cache.setSignatures("V68");
+        FileInfo original = cache.getFileInfo(content);
+        cache.close();
+
+        FileTime modified = Files.getLastModifiedTime(content);
+        Files.write(content, "whiny".getBytes(), StandardOpenOption.TRUNCATE_EXISTING);
+        Files.setLastModifiedTime(content, modified);
+
+        FileInfoCache reopened = new FileInfoCache(cacheFile);
+        reopened.setSignatures("V77");
+        assertNotEquals(original, reopened.getFileInfo(content));
+        reopened.close();
+    }
+
+    /**
+     * Tests that a file is read again once formats are detected with another scan window.
+     * @throws IOException
+     */
+    @Test
+    public void testOtherScanWindowIsReadAgain() throws IOException {
+        FileInfoCache cache = new FileInfoCache(cacheFile);
+        FileInfo original = cache.getFileInfo(content);
+
+        FileTime modified = Files.getLastModifiedTime(content);
+        Files.write(content, "whiny".getBytes(), StandardOpenOption.TRUNCATE_EXISTING);
+        Files.setLastModifiedTime(content, modified);
+
+        int maxBytesToScan = ContentDetectionService.getMaxBytesToScan();
+        try {
+            ContentDetectionService.setMaxBytesToScan(4096);
+            assertNotEquals(original, cache.getFileInfo(content));
+        } finally {
+            ContentDetectionService.setMaxBytesToScan(maxBytesToScan);
+        }
+        cache.close();
+    }
+
+    /**
+     * Tests that a file is read again once formats are detected with another detection policy.
+     * @throws IOException
+     */
+    @Test
+    public void testOtherDetectionPolicyIsReadAgain() throws IOException {
+        FileInfoCache cache = new FileInfoCache(cacheFile);
+        FileInfo original = cache.getFileInfo(content);
+
+        FileTime modified = Files.getLastModifiedTime(content);
+        Files.write(content, "whiny".getBytes(), StandardOpenOption.TRUNCATE_EXISTING);
+        Files.setLastModifiedTime(content, modified);
+
+        DetectionPolicy policy = ContentDetectionService.getDetectionPolicy();
+        try {
+            ContentDetectionService.setDetectionPolicy(policy == DetectionPolicy.FAST ? DetectionPolicy.FULL
+                    : DetectionPolicy.FAST);
+            assertNotEquals(original, cache.getFileInfo(content));
+        } finally {
+            ContentDetectionService.setDetectionPolicy(policy);
+        }
+        cache.close();
+    }
+
+    /**
+     * Tests that a cache file in use by one cache is not written by another, which works in memory only.
+     * @throws IOException
+     */
+    @Test
+    public void testCacheFileInUse() throws IOException {
+        FileInfoCache cache = new FileInfoCache(cacheFile);
+        cache.getFileInfo(content);
+        cache.flush();
+        long length = Files.size(cacheFile);
+
+        Path other = tmpfolder.newFile("donkey.txt").toPath().toRealPath();
+        Files.write(other, "heehaw".getBytes());
+        FileInfoCache second = new FileInfoCache(cacheFile);
+        second.getFileInfo(other);
+        second.close();
+        assertEquals(length, Files.size(cacheFile));
+
+        cache.getFileInfo(other);
+        cache.close();
+        assertTrue(Files.size(cacheFile) > length);
+    }
+
+    /**
+     * Tests that the least recently used entries are evicted once the cache is full.
+     * @throws IOException
+     */
+    @Test
+    public void testEviction() throws IOException {
+        Path other = tmpfolder.newFile("donkey.txt").toPath().toRealPath();
+        Files.write(other, "heehaw".getBytes());
+
+        FileInfoCache cache = new FileInfoCache(null);
+        cache.setMaxEntries(1);
+        FileInfo original = cache.getFileInfo(content);
+        cache.getFileInfo(other);
+
+        FileTime modified = Files.getLastModifiedTime(content);
+        Files.write(content, "whiny".getBytes(), StandardOpenOption.TRUNCATE_EXISTING);
+        Files.setLastModifiedTime(content, modified);
+
+        assertNotEquals(original, cache.getFileInfo(content));
+    }
+
+    /**
+     * Tests that a record truncated by a crash is dropped, keeping the records before it.
+     * @throws IOException
+     */
+    @Test
+    public void testTruncatedCacheFile() throws IOException {
+        FileInfoCache cache = new FileInfoCache(cacheFile);
+        FileInfo original = cache.getFileInfo(content);
+        cache.close();
+
+        Files.write(cacheFile, new byte[] {0, 42, 1}, StandardOpenOption.APPEND);
+
+        FileTime modified = Files.getLastModifiedTime(content);
+        Files.write(content, "whiny".getBytes(), StandardOpenOption.TRUNCATE_EXISTING);
+        Files.setLastModifiedTime(content, modified);
+
+        FileInfoCache reopened = new FileInfoCache(cacheFile);
+        assertEquals(original, reopened.getFileInfo(content));
+        reopened.close();
+    }
+}
@@ -0,0 +1,120 @@
+package org.dataconservancy.packaging.tool.impl;
+
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FileInfoExecutorTest {
+
+    @Rule
+    public TemporaryFolder tmpfolder = new TemporaryFolder();
+
+    private FileInfoExecutor underTest = new FileInfoExecutor(4);
+
+    @After
+    public void tearDown() {
+        underTest.shutdown();
+    }
+
+    /**
+     * Tests that no more than the per-device limit of reads run at the same time against a single file store, even
+     * when more threads are available.
+     * @throws Exception
+     */
+    @Test
+    public void testPerDeviceConcurrencyLimit() throws Exception {
+        underTest.setPerDeviceConcurrency(1);
+
+        final Path file = tmpfolder.newFile("sheep.txt").toPath();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(underTest.submit(() -> {
+                try {
+                    underTest.read(file, () -> {
+                        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                        try {
+                            Thread.sleep(10);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        running.decrementAndGet();
+                        return null;
+                    });
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        assertEquals(1, maxRunning.get());
+    }
+
+    /**
+     * Tests that the executor can't be reconfigured once its threads have been started.
+     * @throws Exception
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testCannotReconfigureOnceStarted() throws Exception {
+        underTest.submit(() -> { }).get();
+        underTest.setThreads(2);
+    }
+
+    /**
+     * Tests that the number of threads must be positive.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidThreads() {
+        underTest.setThreads(0);
+    }
+
+    /**
+     * Tests that asking for virtual threads falls back to platform threads on runtimes without them.
+     * @throws Exception
+     */
+    @Test
+    public void testVirtualThreads() throws Exception {
+        underTest.setVirtualThreads(true);
+
+        File file = tmpfolder.newFile("goat.txt");
+        Object result = underTest.submit(() -> { }).get();
+
+        assertEquals(null, result);
+        assertTrue(underTest.read(file.toPath(), () -> file.exists()));
+    }
+}
@@ -0,0 +1,78 @@
+package org.dataconservancy.packaging.tool.impl;
+
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import org.dataconservancy.packaging.tool.model.ipm.Node;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.net.URI;
+import java.nio.file.Path;
+
+import static org.junit.Assert.fail;
+
+public class FileInfoPipelineTest {
+
+    @Rule
+    public TemporaryFolder tmpfolder = new TemporaryFolder();
+
+    private FileInfoExecutor executor = new FileInfoExecutor(1) {
+        @Override
+        public <T> T read(Path path, IOOperation<T> operation) {
+            throw new OutOfMemoryError("Reading " + path);
+        }
+    };
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Tests that an error killing a worker stops the walk instead of blocking it on a full queue, and is rethrown once
+     * the pipeline finishes.
+     * @throws Exception
+     */
+    @Test(timeout = 10000)
+    public void testWorkerErrorStopsWalk() throws Exception {
+        Path file = tmpfolder.newFile("cow.txt").toPath();
+        FileInfoPipeline pipeline = new FileInfoPipeline(executor, 1, null, null, null);
+        pipeline.start();
+
+        try {
+            for (int i = 0; i < 100; i++) {
+                pipeline.accept(new Node(URI.create("urn:node:" + i)), file);
+            }
+            fail("Expected the error of the worker");
+        } catch (OutOfMemoryError e) {
+            // expected
+        }
+
+        try {
+            pipeline.finish();
+            fail("Expected the error of the worker");
+        } catch (OutOfMemoryError e) {
+            // expected
+        } finally {
+            pipeline.cancel();
+        }
+    }
+}
@@ -36,9 +36,11 @@ import java.nio.file.FileSystemException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -117,6 +119,96 @@ public class IPMServiceTest {
         assertTrue(subDirFound);
     }
 
+    /**
+     * Tests that the progress listener sees every file discovered and processed, and that every node has its file
+     * information once the tree is returned, even if the walk has to wait for a small queue to be drained.
+     * @throws IOException
+     */
+    @Test
+    public void testGenerateTreeReportsProgress() throws IOException {
+        File mainDir = tmpfolder.newFolder("orchard");
+        for (int i = 0; i < 5; i++) {
+            File subDir = new File(mainDir, "row" + i);
+            subDir.mkdir();
+            for (int j = 0; j < 10; j++) {
+                Files.write(new File(subDir, "tree" + j + ".txt").toPath(), ("apple " + i + j).getBytes());
+            }
+        }
+
+        final AtomicLong filesDiscovered = new AtomicLong();
+        final AtomicLong bytesDiscovered = new AtomicLong();
+        final AtomicLong filesProcessed = new AtomicLong();
+        final AtomicLong bytesProcessed = new AtomicLong();
+
+        IPMServiceImpl service = new IPMServiceImpl(uriGenerator);
+        service.setQueueCapacity(2);
+        service.setFileInfoExecutor(new FileInfoExecutor(2));
+        service.setProgressListener((discovered, discoveredBytes, processed, processedBytes) -> {
+            assertTrue(processed <= discovered);
+            filesDiscovered.accumulateAndGet(discovered, Math::max);
+            bytesDiscovered.accumulateAndGet(discoveredBytes, Math::max);
+            filesProcessed.accumulateAndGet(processed, Math::max);
+            bytesProcessed.accumulateAndGet(processedBytes, Math::max);
+        });
+
+        Node root = service.createTreeFromFileSystem(mainDir.toPath());
+
+        assertEquals(56, filesDiscovered.get());
+        assertEquals(56, filesProcessed.get());
+        assertEquals(50 * "apple 00".length(), bytesDiscovered.get());
+        assertEquals(bytesDiscovered.get(), bytesProcessed.get());
+
+        assertNotNull(root.getFileInfo());
+        assertEquals(5, root.getChildren().size());
+        for (Node row : root.getChildren()) {
+            assertNotNull(row.getFileInfo());
+            assertEquals(10, row.getChildren().size());
+            for (Node tree : row.getChildren()) {
+                assertNotNull(tree.getFileInfo());
+                assertNotNull(tree.getFileInfo().getChecksum(FileInfo.Algorithm.SHA1));
+            }
+        }
+    }
+
+    /**
+     * Tests that refreshing a tree only reads files whose size or modification time changed once incremental refresh
+     * is turned on, and every file once it is turned off again.
+     * @throws IOException
+     */
+    @Test
+    public void testIncrementalRefreshTreeContent() throws IOException {
+        File mainDir = tmpfolder.newFolder("barn");
+        Path hay = new File(mainDir, "hay.txt").toPath();
+        Path straw = new File(mainDir, "straw.txt").toPath();
+        Files.write(hay, "one".getBytes());
+        Files.write(straw, "two".getBytes());
+
+        IPMServiceImpl service = new IPMServiceImpl(uriGenerator);
+        service.setIncrementalRefresh(true);
+        Node root = service.createTreeFromFileSystem(mainDir.toPath());
+
+        // Same size and modification time, so the change is not noticed by an incremental refresh
+        FileTime hayModified = Files.getLastModifiedTime(hay);
+        Files.write(hay, "uno".getBytes());
+        Files.setLastModifiedTime(hay, hayModified);
+
+        Files.write(straw, "dos".getBytes());
+        Files.setLastModifiedTime(straw, FileTime.fromMillis(Files.getLastModifiedTime(straw).toMillis() + 2000));
+
+        Map<Node, NodeComparison> result = service.refreshTreeContent(root);
+        assertEquals(1, result.size());
+        Node updated = result.keySet().iterator().next();
+        assertEquals("straw.txt", updated.getFileInfo().getName());
+        assertEquals(NodeComparison.Status.UPDATED, result.get(updated).getStatus());
+
+        service.setIncrementalRefresh(false);
+        result = service.refreshTreeContent(root);
+        assertEquals(2, result.size());
+        for (NodeComparison comparison : result.values()) {
+            assertEquals(NodeComparison.Status.UPDATED, comparison.getStatus());
+        }
+    }
+
     /**
      * Tests that symbolic links that create cycles are ignored and not added to the package
      * @throws Exception
@@ -0,0 +1,170 @@
+package org.dataconservancy.packaging.tool.impl;
+
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the LZ4 frame compressor, along with the decompressor and the checksums it relies on.
+ */
+public class Lz4FrameOutputStreamTest {
+
+    /**
+     * Tests the checksum against reference values.
+     */
+    @Test
+    public void testXXHash32() {
+        assertEquals(0x02CC5D05, XXHash32.hash(new byte[0], 0, 0));
+        assertEquals(0x32D153FF, XXHash32.hash("abc".getBytes(), 0, 3));
+        byte[] longer = "Nobody inspects the spammish repetition".getBytes();
+        assertEquals(0xE2293B2F, XXHash32.hash(longer, 0, longer.length));
+
+        XXHash32 streamed = new XXHash32();
+        for (int i = 0; i < longer.length; i += 5) {
+            streamed.update(longer, i, Math.min(5, longer.length - i));
+        }
+        assertEquals(0xE2293B2F, streamed.getValue());
+
+        // The header checksum of the frames written by the reference implementation with its default settings
+        assertEquals(0xA7, (XXHash32.hash(new byte[] {0x64, 0x40}, 0, 2) >>> 8) & 0xff);
+    }
+
+    /**
+     * Tests that content of various sizes and compressibility is read back as it was written.
+     * @throws Exception
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        Random random = new Random(11);
+
+        byte[] text = new byte[5 * 1024 * 1024 + 3];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = (byte) ("the quick brown fox jumps over the lazy dog ".charAt((i * 7 / 5) % 44) + i % 3);
+        }
+        byte[] noise = new byte[Lz4FrameOutputStream.BLOCK_SIZE + 100];
+        random.nextBytes(noise);
+        byte[] runs = new byte[70000];
+        Arrays.fill(runs, (byte) 'z');
+
+        for (byte[] content : new byte[][] {new byte[0], "a".getBytes(), "hello, hello, hello!".getBytes(), text,
+                noise, runs}) {
+            byte[] compressed = compress(content);
+            assertArrayEquals(content, IOUtils.toByteArray(
+                    new Lz4FrameInputStream(new ByteArrayInputStream(compressed))));
+        }
+
+        assertTrue(compress(text).length < text.length / 4);
+        assertTrue(compress(runs).length < 500);
+    }
+
+    /**
+     * Tests that concatenated frames are read as one content, when asked to.
+     * @throws Exception
+     */
+    @Test
+    public void testConcatenatedFrames() throws Exception {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        frames.write(compress("first frame, ".getBytes()));
+        // A skippable frame in between
+        frames.write(new byte[] {0x50, 0x2A, 0x4D, 0x18, 3, 0, 0, 0, 1, 2, 3});
+        frames.write(compress("second frame".getBytes()));
+
+        assertEquals("first frame, ", IOUtils.toString(
+                new Lz4FrameInputStream(new ByteArrayInputStream(frames.toByteArray()))));
+        assertEquals("first frame, second frame", IOUtils.toString(
+                new Lz4FrameInputStream(new ByteArrayInputStream(frames.toByteArray()), true)));
+    }
+
+    /**
+     * Tests reading linked blocks with block checksums, which are features of the format this compressor doesn't
+     * use, but the reference implementation may.
+     * @throws Exception
+     */
+    @Test
+    public void testLinkedBlocksWithChecksums() throws Exception {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        // Version 01, linked blocks, block checksums, no content checksum, 64 KB blocks
+        byte[] descriptor = {0x50, 0x40};
+        frame.write(new byte[] {0x04, 0x22, 0x4D, 0x18});
+        frame.write(descriptor);
+        frame.write(XXHash32.hash(descriptor, 0, 2) >>> 8);
+
+        byte[] first = "abcdefgh".getBytes();
+        writeInt(frame, first.length | Lz4FrameOutputStream.UNCOMPRESSED_FLAG);
+        frame.write(first);
+        writeInt(frame, XXHash32.hash(first, 0, first.length));
+
+        // A match of "abcd", 8 bytes back in the first block, then 5 literals
+        byte[] second = {0x00, 0x08, 0x00, 0x50, '1', '2', '3', '4', '5'};
+        writeInt(frame, second.length);
+        frame.write(second);
+        writeInt(frame, XXHash32.hash(second, 0, second.length));
+
+        writeInt(frame, 0);
+
+        assertEquals("abcdefghabcd12345", IOUtils.toString(
+                new Lz4FrameInputStream(new ByteArrayInputStream(frame.toByteArray()))));
+    }
+
+    /**
+     * Tests that corrupt content is detected.
+     * @throws Exception
+     */
+    @Test
+    public void testCorruptContent() throws Exception {
+        byte[] compressed = compress("hello, hello, hello, hello, hello, hello!".getBytes());
+        // The first literal, following the frame header, the block size and the token
+        compressed[12] ^= 0x01;
+
+        try {
+            IOUtils.toByteArray(new Lz4FrameInputStream(new ByteArrayInputStream(compressed)));
+            fail("Expected the corruption to be detected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Corrupt LZ4"));
+        }
+    }
+
+    private byte[] compress(byte[] content) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = new Lz4FrameOutputStream(compressed)) {
+            out.write(content);
+        }
+        return compressed.toByteArray();
+    }
+
+    private void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+}
@@ -26,12 +26,19 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
+import java.util.zip.GZIPOutputStream;
+
+import com.github.luben.zstd.ZstdOutputStream;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.dataconservancy.dcs.util.UriUtility;
 import org.dataconservancy.packaging.tool.model.OpenedPackage;
 import org.dataconservancy.packaging.tool.model.PackageState;
@@ -119,6 +126,58 @@ public class OpenPackageServiceImplTest {
         test_extract(PACKAGE_TAR_GZ_RESOURCE);
     }
 
+    private interface Compressor {
+        OutputStream compress(OutputStream out) throws IOException;
+    }
+
+    // Check that the tar package compressed on the fly is extracted
+    private void test_extract_compressed(Compressor compressor) throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (InputStream is = this.getClass().getResourceAsStream(PACKAGE_TAR_RESOURCE);
+             OutputStream os = compressor.compress(compressed)) {
+            IOUtils.copy(is, os);
+        }
+
+        File base_dir = tmpfolder.newFolder();
+        assertEquals("fakebag", service.extract(base_dir, new ByteArrayInputStream(compressed.toByteArray())));
+        assertTrue(new File(new File(base_dir, "fakebag"), "data").exists());
+    }
+
+    @Test
+    public void testExtractTarZstd() throws Exception {
+        test_extract_compressed(ZstdOutputStream::new);
+    }
+
+    @Test
+    public void testExtractTarLz4() throws Exception {
+        test_extract_compressed(Lz4FrameOutputStream::new);
+    }
+
+    @Test
+    public void testExtractTarGzConcatenated() throws Exception {
+        // A gzip member for each 1000 bytes, as written by parallel gzip compressors
+        test_extract_compressed(out -> new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                for (int i = off; i < off + len; i += 1000) {
+                    GZIPOutputStream member = new GZIPOutputStream(out);
+                    member.write(b, i, Math.min(1000, off + len - i));
+                    member.finish();
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.close();
+            }
+        });
+    }
+
     // Test opening a valid package which is available as a resource
     private void test_package(String res) throws Exception {
         File pkgfile = tmpfolder.newFile();
@@ -154,6 +154,36 @@ public class PackageChecksumServiceImplTest {
       assertEquals(expected, underTest.generatePackageFileChecksums(files, algorithms));
     }
 
+    /**
+     * Tests that checksums computed for many files at the same time match the ones computed one file at a time.
+     */
+    @Test
+    public void testManyFilesInParallelResult() throws Exception {
+      Set<File> files = new HashSet<>();
+      for (int i = 0; i < 50; i++) {
+          File file = tmpfolder.newFile("testFile" + i + ".txt");
+          PrintWriter out = new PrintWriter(file);
+          for (int j = 0; j <= i * 100; j++) {
+              out.println("This is line " + j + " of test file " + i);
+          }
+          out.close();
+          files.add(file);
+      }
+
+      List<String> algorithms = new ArrayList<>();
+      algorithms.add("md5");
+      algorithms.add("sha1");
+
+      Map<File, List<Checksum>> expected = new PackageChecksumServiceImpl(1).generatePackageFileChecksums(files, algorithms);
+      assertEquals(files.size(), expected.size());
+      assertEquals(expected, new PackageChecksumServiceImpl(4).generatePackageFileChecksums(files, algorithms));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidThreads(){
+      underTest.setThreads(0);
+    }
+
     @Test
     public void testUnknownAlgorithmThrowsException(){
         Set<File> files = new HashSet<>();
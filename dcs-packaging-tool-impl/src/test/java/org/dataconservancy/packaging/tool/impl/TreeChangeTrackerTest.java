@@ -0,0 +1,183 @@
+package org.dataconservancy.packaging.tool.impl;
+
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import org.dataconservancy.packaging.tool.api.IPMService;
+import org.dataconservancy.packaging.tool.api.support.NodeComparison;
+import org.dataconservancy.packaging.tool.model.ipm.Node;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TreeChangeTrackerTest {
+
+    /**
+     * How long to wait for the watch service to report changes, some implementations poll every few seconds.
+     */
+    private static final long TIMEOUT_MILLIS = 30000;
+
+    @Rule
+    public TemporaryFolder tmpfolder = new TemporaryFolder();
+
+    private IPMService ipmService;
+
+    private TreeChangeTracker underTest;
+
+    private File mainDir;
+
+    private Node root;
+
+    @Before
+    public void setup() throws IOException {
+        ipmService = new IPMServiceImpl(new SimpleURIGenerator());
+
+        mainDir = tmpfolder.newFolder("pond");
+        Files.write(new File(mainDir, "duck.txt").toPath(), "quack".getBytes());
+        Files.write(new File(mainDir, "frog.txt").toPath(), "ribbit".getBytes());
+        new File(mainDir, "reeds").mkdir();
+
+        root = ipmService.createTreeFromFileSystem(mainDir.toPath());
+
+        underTest = new TreeChangeTracker(ipmService);
+        underTest.track(root);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        underTest.close();
+    }
+
+    /**
+     * Tests that added, deleted and updated files are reported, and that merging them brings the tree up to date.
+     * @throws Exception
+     */
+    @Test
+    public void testChangesAreTracked() throws Exception {
+        Path duck = new File(mainDir, "duck.txt").toPath();
+        Files.write(duck, "honk!".getBytes());
+        Files.setLastModifiedTime(duck, FileTime.fromMillis(Files.getLastModifiedTime(duck).toMillis() + 2000));
+        Files.delete(new File(mainDir, "frog.txt").toPath());
+        Files.write(new File(mainDir, "reeds/fish.txt").toPath(), "blub".getBytes());
+
+        Map<Node, NodeComparison> changes = pollUntil(3);
+
+        Map<String, NodeComparison.Status> statuses = new HashMap<>();
+        changes.forEach((node, comparison) -> statuses.put(node.getFileInfo().getName(), comparison.getStatus()));
+        assertEquals(NodeComparison.Status.UPDATED, statuses.get("duck.txt"));
+        assertEquals(NodeComparison.Status.DELETED, statuses.get("frog.txt"));
+        assertEquals(NodeComparison.Status.ADDED, statuses.get("fish.txt"));
+
+        assertTrue(ipmService.mergeTree(root, changes));
+
+        assertEquals(2, root.getChildren().size());
+        assertNull(findChild(root, "frog.txt"));
+        assertEquals(ipmService.createTreeFromFileSystem(duck).getFileInfo(),
+                findChild(root, "duck.txt").getFileInfo());
+        assertNotNull(findChild(findChild(root, "reeds"), "fish.txt"));
+    }
+
+    /**
+     * Tests that directories added to the tree are watched, so changes made inside them are reported too.
+     * @throws Exception
+     */
+    @Test
+    public void testAddedDirectoriesAreWatched() throws Exception {
+        File lilies = new File(mainDir, "lilies");
+        lilies.mkdir();
+
+        Map<Node, NodeComparison> changes = pollUntil(1);
+        ipmService.mergeTree(root, changes);
+        assertNotNull(findChild(root, "lilies"));
+
+        Files.write(new File(lilies, "dragonfly.txt").toPath(), "bzzz".getBytes());
+
+        changes = pollUntil(1);
+        Node added = changes.keySet().iterator().next();
+        assertEquals("dragonfly.txt", added.getFileInfo().getName());
+        assertEquals(findChild(root, "lilies"), changes.get(added).getNode());
+    }
+
+    /**
+     * Tests that the tracker keeps up with the changes merged by earlier polls, so a deleted file created again is
+     * reported as added.
+     * @throws Exception
+     */
+    @Test
+    public void testDeletedFileIsAddedAgain() throws Exception {
+        Path frog = new File(mainDir, "frog.txt").toPath();
+        Files.delete(frog);
+
+        Map<Node, NodeComparison> changes = pollUntil(1);
+        assertEquals(NodeComparison.Status.DELETED, changes.values().iterator().next().getStatus());
+        ipmService.mergeTree(root, changes);
+
+        Files.write(frog, "croak".getBytes());
+
+        changes = pollUntil(1);
+        Node added = changes.keySet().iterator().next();
+        assertEquals("frog.txt", added.getFileInfo().getName());
+        assertEquals(NodeComparison.Status.ADDED, changes.get(added).getStatus());
+        assertEquals(root, changes.get(added).getNode());
+    }
+
+    /**
+     * Tests that nothing is reported when nothing changed.
+     * @throws Exception
+     */
+    @Test
+    public void testNoChanges() throws Exception {
+        assertTrue(underTest.pollChanges().isEmpty());
+    }
+
+    private Map<Node, NodeComparison> pollUntil(int expected) throws Exception {
+        Map<Node, NodeComparison> changes = new HashMap<>();
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (changes.size() < expected && System.currentTimeMillis() < deadline) {
+            changes.putAll(underTest.pollChanges());
+            Thread.sleep(50);
+        }
+        return changes;
+    }
+
+    private Node findChild(Node parent, String name) {
+        if (parent.getChildren() != null) {
+            for (Node child : parent.getChildren()) {
+                if (child.getFileInfo() != null && name.equals(child.getFileInfo().getName())) {
+                    return child;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -15,10 +15,13 @@
  */
 package org.dataconservancy.packaging.tool.impl.generator;
 
+import com.github.luben.zstd.ZstdInputStream;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.input.NullInputStream;
 import org.dataconservancy.packaging.tool.api.PackagingFormat;
 import org.dataconservancy.packaging.tool.api.generator.PackageResourceType;
+import org.dataconservancy.packaging.tool.impl.Lz4FrameInputStream;
 import org.dataconservancy.packaging.tool.impl.ResourceConstrained;
 import org.junit.Assert;
 
@@ -65,11 +68,16 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -850,6 +858,677 @@ public class BagItPackageAssemblerTest {
         assertNull(pkg);
     }
 
+    /**
+     * Test that the payload manifests hold the checksums computed when the payload was put, rather than checksums of
+     * the staged files read back afterwards.
+     * @throws IOException
+     */
+    @Test
+    public void testPayloadChecksumsComputedOnPut() throws IOException {
+        PackageGenerationParameters params = new PackageGenerationParameters();
+        setupCommonPackageParams(params, packageMetadata);
+        params.addParam(GeneralParameterNames.ARCHIVING_FORMAT, "exploded");
+        params.addParam(GeneralParameterNames.CHECKSUM_ALGORITHMS, checksumAlg);
+        params.addParam(GeneralParameterNames.CHECKSUM_ALGORITHMS, "sha1");
+
+        underTest = new BagItPackageAssembler();
+        underTest.init(params, packageMetadata);
+
+        String fileContent = "This is the data file. data data data data data data data data data data data data.";
+        URI result = underTest.createResource("myProject/dataFile.txt", PackageResourceType.DATA,
+                new ByteArrayInputStream(fileContent.getBytes()));
+
+        // Changing the staged file behind the assembler's back must not change the manifests
+        FileUtils.writeStringToFile(new File(underTest.getResolvableURI(result)), "Changed behind its back");
+
+        underTest.assemblePackage();
+
+        File bagDir = new File(packageLocationName, packageName);
+        String expectedPath = "  data/myProject/dataFile.txt";
+        assertEquals(DigestUtils.md5Hex(fileContent) + expectedPath,
+                FileUtils.readFileToString(new File(bagDir, "manifest-md5.txt")).trim());
+        assertEquals(DigestUtils.sha1Hex(fileContent) + expectedPath,
+                FileUtils.readFileToString(new File(bagDir, "manifest-sha1.txt")).trim());
+    }
+
+    /**
+     * Test that the tag manifest, built from checksums computed while the tag files were written, matches the tag
+     * files of the bag.
+     * @throws IOException
+     */
+    @Test
+    public void testTagManifestChecksums() throws IOException {
+        PackageGenerationParameters params = new PackageGenerationParameters();
+        setupCommonPackageParams(params, packageMetadata);
+        params.addParam(GeneralParameterNames.ARCHIVING_FORMAT, "exploded");
+        params.addParam(GeneralParameterNames.CHECKSUM_ALGORITHMS, checksumAlg);
+
+        underTest = new BagItPackageAssembler();
+        underTest.init(params, packageMetadata);
+
+        underTest.createResource("myProject/dataFile.txt", PackageResourceType.DATA,
+                new ByteArrayInputStream("This is the data file.".getBytes()));
+        underTest.createResource("metadataFile.txt", PackageResourceType.METADATA,
+                new ByteArrayInputStream("This is the metadata file.".getBytes()));
+
+        underTest.assemblePackage();
+
+        File bagDir = new File(packageLocationName, packageName);
+        Set<String> taggedFiles = new HashSet<>();
+        for (String line : FileUtils.readLines(new File(bagDir, "tagmanifest-md5.txt"))) {
+            String[] checksumAndPath = line.split("  ", 2);
+            try (InputStream tagFile = new FileInputStream(new File(bagDir, checksumAndPath[1]))) {
+                assertEquals(checksumAndPath[1], DigestUtils.md5Hex(tagFile), checksumAndPath[0]);
+            }
+            taggedFiles.add(checksumAndPath[1]);
+        }
+
+        assertTrue(taggedFiles.contains("bagit.txt"));
+        assertTrue(taggedFiles.contains("bag-info.txt"));
+        assertTrue(taggedFiles.contains("manifest-md5.txt"));
+        assertTrue(taggedFiles.contains(pkgInfoDir + "/metadataFile.txt"));
+    }
+
+    /**
+     * Test that payload files staged with each of the strategies have the content and checksums of the original files,
+     * and that linked files are the original files when they are on the same file system.
+     * @throws IOException
+     */
+    @Test
+    public void testPayloadStagingStrategies() throws IOException {
+        File source = new File(packageStagingLocation, "source.txt");
+        FileUtils.writeStringToFile(source, "This is the data file.");
+
+        for (GeneralParameterNames.STAGING_STRATEGY strategy : GeneralParameterNames.STAGING_STRATEGY.values()) {
+            PackageGenerationParameters params = new PackageGenerationParameters();
+            setupCommonPackageParams(params, packageMetadata);
+            params.addParam(GeneralParameterNames.ARCHIVING_FORMAT, "exploded");
+            params.addParam(GeneralParameterNames.CHECKSUM_ALGORITHMS, checksumAlg);
+            params.addParam(GeneralParameterNames.PAYLOAD_STAGING_STRATEGY, strategy.name().toLowerCase());
+
+            underTest = new BagItPackageAssembler();
+            underTest.init(params, packageMetadata);
+            underTest.createResource("myProject/dataFile.txt", PackageResourceType.DATA, source.toPath());
+            underTest.assemblePackage();
+
+            File bagDir = new File(packageLocationName, packageName);
+            File staged = new File(bagDir, "data/myProject/dataFile.txt");
+            assertEquals(strategy.name(), "This is the data file.", FileUtils.readFileToString(staged));
+            assertEquals(strategy.name(),
+                    DigestUtils.md5Hex("This is the data file.") + "  data/myProject/dataFile.txt",
+                    FileUtils.readFileToString(new File(bagDir, "manifest-md5.txt")).trim());
+
+            boolean sameFileStore = Files.getFileStore(source.toPath()).equals(Files.getFileStore(staged.toPath()));
+            assertEquals(strategy.name(), strategy == GeneralParameterNames.STAGING_STRATEGY.LINK && sameFileStore,
+                    Files.isSameFile(source.toPath(), staged.toPath()));
+
+            FileUtils.deleteDirectory(bagDir);
+        }
+    }
+
+    /**
+     * Test that the known checksums of payload files which are linked or copied by the operating system are used for
+     * the manifests, also to find unchanged files when assembling incrementally, and that the files are read when the
+     * checksums are not known for all of the algorithms of the manifests.
+     * @throws IOException
+     */
+    @Test
+    public void testKnownChecksumsOfStagedFiles() throws IOException {
+        File source = new File(packageStagingLocation, "source.txt");
+        FileUtils.writeStringToFile(source, "This is the data file.");
+        //a checksum which is not the actual one, to show that the file isn't read
+        Map<String, String> checksums = Collections.singletonMap("md5", "0123456789abcdef0123456789abcdef");
+        File bagDir = new File(packageLocationName, packageName);
+        File staged = new File(bagDir, "data/myProject/dataFile.txt");
+
+        for (GeneralParameterNames.STAGING_STRATEGY strategy : GeneralParameterNames.STAGING_STRATEGY.values()) {
+            for (int run = 0; run < 2; run++) {
+                PackageGenerationParameters params = new PackageGenerationParameters();
+                setupCommonPackageParams(params, packageMetadata);
+                params.addParam(GeneralParameterNames.ARCHIVING_FORMAT, "exploded");
+                params.addParam(GeneralParameterNames.CHECKSUM_ALGORITHMS, checksumAlg);
+                params.addParam(GeneralParameterNames.PAYLOAD_STAGING_STRATEGY, strategy.name().toLowerCase());
+                params.addParam(GeneralParameterNames.INCREMENTAL_ASSEMBLY, Boolean.toString(run > 0));
+
+                underTest = new BagItPackageAssembler();
+                underTest.init(params, packageMetadata);
+                underTest.createResource("myProject/dataFile.txt", PackageResourceType.DATA, source.toPath(),
+                        checksums);
+                underTest.assemblePackage();
+
+                if (run == 0 && strategy == GeneralParameterNames.STAGING_STRATEGY.TRANSFER) {
+                    assertTrue(staged.setLastModified(1000000000000L));
+                }
+            }
+
+            String checksum = strategy == GeneralParameterNames.STAGING_STRATEGY.COPY ?
+                    DigestUtils.md5Hex("This is the data file.") : "0123456789abcdef0123456789abcdef";
+            assertEquals(strategy.name(), checksum + "  data/myProject/dataFile.txt",
+                    FileUtils.readFileToString(new File(bagDir, "manifest-md5.txt")).trim());
+            if (strategy == GeneralParameterNames.STAGING_STRATEGY.TRANSFER) {
+                assertEquals(1000000000000L, staged.lastModified());
+            }
+
+            FileUtils.deleteDirectory(bagDir);
+        }
+
+        PackageGenerationParameters params = new PackageGenerationParameters();
+        setupCommonPackageParams(params, packageMetadata);
+        params.addParam(GeneralParameterNames.ARCHIVING_FORMAT, "exploded");
+        params.addParam(GeneralParameterNames.CHECKSUM_ALGORITHMS, Arrays.asList("md5", "sha1"));
+        params.addParam(GeneralParameterNames.PAYLOAD_STAGING_STRATEGY, "transfer");
+
+        underTest = new BagItPackageAssembler();
+        underTest.init(params, packageMetadata);
+        underTest.createResource("myProject/dataFile.txt", PackageResourceType.DATA, source.toPath(), checksums);
+        underTest.assemblePackage();
+
+        assertEquals(DigestUtils.md5Hex("This is the data file.") + "  data/myProject/dataFile.txt",
+                FileUtils.readFileToString(new File(bagDir, "manifest-md5.txt")).trim());
+        assertEquals(DigestUtils.sha1Hex("This is the data file.") + "  data/myProject/dataFile.txt",
+                FileUtils.readFileToString(new File(bagDir, "manifest-sha1.txt")).trim());
+
+        FileUtils.deleteDirectory(bagDir);
+    }
+
+    /**
+     * Test that assembling an exploded bag again incrementally only rewrites the payload files which changed, removes
+     * the ones which are not part of the payload anymore, and writes manifests for the new payload.
+     * @throws IOException
+     */
+    @Test
+    public void testIncrementalAssembly() throws IOException {
+        File source = new File(packageStagingLocation, "source.txt");
+        FileUtils.writeStringToFile(source, "This is the linked data file.");
+        File bagDir = new File(packageLocationName, packageName);
+        File kept = new File(bagDir, "data/myProject/kept.txt");
+        File fromPath = new File(bagDir, "data/myProject/fromPath.txt");
+        File changed = new File(bagDir, "data/myProject/changed.txt");
+        File removed = new File(bagDir, "data/oldProject/removed.txt");
+
+        for (int run = 0; run < 2; run++) {
+            PackageGenerationParameters params = new PackageGenerationParameters();
+            setupCommonPackageParams(params, packageMetadata);
+            params.addParam(GeneralParameterNames.ARCHIVING_FORMAT, "exploded");
+            params.addParam(GeneralParameterNames.CHECKSUM_ALGORITHMS, checksumAlg);
+            params.addParam(GeneralParameterNames.INCREMENTAL_ASSEMBLY, "true");
+
+            underTest = new BagItPackageAssembler();
+            underTest.init(params, packageMetadata);
+            underTest.createResource("myProject/kept.txt", PackageResourceType.DATA,
+                    new ByteArrayInputStream("This is the kept data file.".getBytes()));
+            underTest.createResource("myProject/fromPath.txt", PackageResourceType.DATA, source.toPath());
+            underTest.createResource("myProject/changed.txt", PackageResourceType.DATA,
+                    new ByteArrayInputStream(("This is the " + (run == 0 ? "old" : "new") + " data file.").getBytes()));
+            if (run == 0) {
+                underTest.createResource("oldProject/removed.txt", PackageResourceType.DATA,
+                        new ByteArrayInputStream("This is the removed data file.".getBytes()));
+            }
+            underTest.assemblePackage();
+
+            if (run == 0) {
+                assertTrue(removed.isFile());
+                for (File file : new File[] {kept, fromPath, changed}) {
+                    assertTrue(file.setLastModified(1000000000000L));
+                }
+                FileUtils.writeStringToFile(new File(bagDir, "data/stray.txt"), "Not part of the payload.");
+            }
+        }
+
+        assertEquals(1000000000000L, kept.lastModified());
+        assertEquals(1000000000000L, fromPath.lastModified());
+        assertEquals("This is the new data file.", FileUtils.readFileToString(changed));
+        assertFalse(removed.exists());
+        assertFalse(removed.getParentFile().exists());
+        assertFalse(new File(bagDir, "data/stray.txt").exists());
+
+        List<String> manifest = FileUtils.readLines(new File(bagDir, "manifest-md5.txt"));
+        assertEquals(Arrays.asList(
+                DigestUtils.md5Hex("This is the new data file.") + "  data/myProject/changed.txt",
+                DigestUtils.md5Hex("This is the linked data file.") + "  data/myProject/fromPath.txt",
+                DigestUtils.md5Hex("This is the kept data file.") + "  data/myProject/kept.txt"), manifest);
+        assertTrue(FileUtils.readFileToString(new File(bagDir, "bag-info.txt")).contains(
+                BagItParameterNames.PAYLOAD_OXUM + ": " + (26 + 29 + 27) + ".3 "));
+
+        FileUtils.deleteDirectory(bagDir);
+    }
+
+    /**
+     * Test that local payload files are referred to in fetch.txt rather than included in a holey bag, with the
+     * checksums they are known to have, or else their computed checksums.
+     * @throws IOException
+     */
+    @Test
+    public void testHoleyBag() throws IOException {
+        File sharedDir = new File(packageStagingLocation, "shared store");
+        File known = new File(sharedDir, "known.txt");
+        FileUtils.writeStringToFile(known, "This file has known checksums.");
+        File unknown = new File(sharedDir, "sub dir/unknown.txt");
+        FileUtils.writeStringToFile(unknown, "This file doesn't.");
+        File outside = new File(packageStagingLocation, "outside.txt");
+        FileUtils.writeStringToFile(outside, "This file is not on the shared store.");
+
+        for (String baseUrl : new String[] {null, "http://example.org/store"}) {
+            PackageGenerationParameters params = new PackageGenerationParameters();
+            setupCommonPackageParams(params, packageMetadata);
+            params.addParam(GeneralParameterNames.ARCHIVING_FORMAT, "exploded");
+            params.addParam(GeneralParameterNames.CHECKSUM_ALGORITHMS, checksumAlg);
+            params.addParam(GeneralParameterNames.HOLEY_BAG, "true");
+            params.addParam(GeneralParameterNames.FETCH_BASE_LOCATION, sharedDir.getPath());
+            if (baseUrl != null) {
+                params.addParam(GeneralParameterNames.FETCH_BASE_URL, baseUrl);
+            }
+
+            underTest = new BagItPackageAssembler();
+            underTest.init(params, packageMetadata);
+            //a checksum which is not the actual one, to show that the file isn't read
+            underTest.createResource("myProject/known.txt", PackageResourceType.DATA, known.toPath(),
+                    Collections.singletonMap("md5", "0123456789abcdef0123456789abcdef"));
+            underTest.createResource("myProject/unknown.txt", PackageResourceType.DATA, unknown.toPath());
+            underTest.createResource("myProject/outside.txt", PackageResourceType.DATA, outside.toPath());
+            underTest.assemblePackage();
+
+            File bagDir = new File(packageLocationName, packageName);
+            assertFalse(new File(bagDir, "data/myProject/known.txt").exists());
+            assertFalse(new File(bagDir, "data/myProject/unknown.txt").exists());
+            assertTrue(new File(bagDir, "data/myProject/outside.txt").isFile());
+
+            String knownUrl = baseUrl != null ? baseUrl + "/known.txt" : known.toPath().toAbsolutePath().toUri().toString();
+            String unknownUrl = baseUrl != null ? baseUrl + "/sub%20dir/unknown.txt" :
+                    unknown.toPath().toAbsolutePath().toUri().toString();
+            assertEquals(Arrays.asList(
+                    knownUrl + " 30 data/myProject/known.txt",
+                    unknownUrl + " 18 data/myProject/unknown.txt"),
+                    FileUtils.readLines(new File(bagDir, "fetch.txt")));
+
+            assertEquals(Arrays.asList(
+                    "0123456789abcdef0123456789abcdef  data/myProject/known.txt",
+                    DigestUtils.md5Hex("This file is not on the shared store.") + "  data/myProject/outside.txt",
+                    DigestUtils.md5Hex("This file doesn't.") + "  data/myProject/unknown.txt"),
+                    FileUtils.readLines(new File(bagDir, "manifest-md5.txt")));
+            assertTrue(FileUtils.readFileToString(new File(bagDir, "tagmanifest-md5.txt")).contains("  fetch.txt"));
+            assertTrue(FileUtils.readFileToString(new File(bagDir, "bag-info.txt")).contains(
+                    BagItParameterNames.PAYLOAD_OXUM + ": " + (30 + 18 + 37) + ".3 "));
+
+            FileUtils.deleteDirectory(bagDir);
+        }
+    }
+
+    @Test
+    public void testInvalidPayloadStagingStrategyThrowsError() {
+        PackageGenerationParameters params = new PackageGenerationParameters();
+        setupCommonPackageParams(params, packageMetadata);
+        params.addParam(GeneralParameterNames.PAYLOAD_STAGING_STRATEGY, "teleport");
+
+        expected.expect(PackageToolException.class);
+        expected.expectMessage("Specified payload staging strategy <teleport> is not supported. The supported " +
+                "strategies are: [LINK, TRANSFER, COPY].");
+
+        underTest = new BagItPackageAssembler();
+        underTest.init(params, packageMetadata);
+    }
+
+    /**
+     * Test that a compressed bag is compressed as it is archived, without an intermediate uncompressed archive.
+     * @throws Exception
+     */
+    @Test
+    public void testNoIntermediateArchive() throws Exception {
+        underTest.createResource("myProject/dataFile.txt", PackageResourceType.DATA,
+                new ByteArrayInputStream("This is the data file.".getBytes()));
+
+        Package pkg = underTest.assemblePackage();
+
+        Set<String> stagedFiles = FileUtils.listFiles(packageStagingLocation, null, true).stream()
+                .map(File::getName).collect(Collectors.toSet());
+        assertEquals(Collections.singleton(packageName + ".tar.gz"), stagedFiles);
+
+        try (InputStream serializedPackage = pkg.serialize();
+             CompressorInputStream cis = new CompressorStreamFactory()
+                     .createCompressorInputStream(CompressorStreamFactory.GZIP, serializedPackage);
+             ArchiveInputStream ais = new ArchiveStreamFactory().createArchiveInputStream(ArchiveStreamFactory.TAR,
+                     cis)) {
+            assertNotNull(ais.getNextEntry());
+        }
+    }
+
+    /**
+     * Test that a streamed bag has the same entries, with the same content, as a staged bag.
+     * @throws Exception
+     */
+    @Test
+    public void testStreamedBagMatchesStagedBag() throws Exception {
+        for (String archivingFormat : new String[] {ArchiveStreamFactory.TAR, ArchiveStreamFactory.ZIP}) {
+            Map<String, String> staged = assembleAndRead(archivingFormat, false);
+            Map<String, String> streamed = assembleAndRead(archivingFormat, true);
+
+            assertEquals(archivingFormat, staged, streamed);
+            assertTrue(streamed.containsKey(packageName + "/data/myProject/dataFile.txt"));
+        }
+    }
+
+    /**
+     * Test that payload of unknown length, too big to be buffered in memory, is streamed correctly.
+     * @throws Exception
+     */
+    @Test
+    public void testStreamedBagWithLargePayloadOfUnknownLength() throws Exception {
+        PackageGenerationParameters params = new PackageGenerationParameters();
+        setupCommonPackageParams(params, packageMetadata);
+        params.addParam(GeneralParameterNames.ARCHIVING_FORMAT, ArchiveStreamFactory.TAR);
+        params.addParam(GeneralParameterNames.STREAMING_ASSEMBLY, "true");
+
+        underTest = new BagItPackageAssembler();
+        underTest.init(params, packageMetadata);
+
+        byte[] content = new byte[3 * 1024 * 1024 + 17];
+        new java.util.Random(42).nextBytes(content);
+        underTest.createResource("big.bin", PackageResourceType.DATA, new ByteArrayInputStream(content));
+
+        Package pkg = underTest.assemblePackage();
+
+        try (InputStream serializedPackage = pkg.serialize();
+             ArchiveInputStream ais = new ArchiveStreamFactory().createArchiveInputStream(ArchiveStreamFactory.TAR,
+                     serializedPackage)) {
+            String manifest = null;
+            byte[] archived = null;
+            ArchiveEntry entry;
+            while ((entry = ais.getNextEntry()) != null) {
+                if (entry.getName().equals(packageName + "/data/big.bin")) {
+                    archived = IOUtils.toByteArray(ais);
+                } else if (entry.getName().equals(packageName + "/manifest-md5.txt")) {
+                    manifest = IOUtils.toString(ais);
+                }
+            }
+
+            Assert.assertArrayEquals(content, archived);
+            assertEquals(DigestUtils.md5Hex(content) + "  data/big.bin", manifest.trim());
+        }
+        pkg.cleanupPackage();
+    }
+
+    /**
+     * Test that bags compressed in parallel are plain gz and bzip2 files, holding the same content.
+     * @throws Exception
+     */
+    @Test
+    public void testParallelCompression() throws Exception {
+        byte[] content = new byte[3 * 1024 * 1024 + 17];
+        new java.util.Random(42).nextBytes(content);
+
+        for (String[] formats : new String[][] {{"pigz", CompressorStreamFactory.GZIP},
+                {"pbzip2", CompressorStreamFactory.BZIP2}}) {
+            PackageGenerationParameters params = new PackageGenerationParameters();
+            setupCommonPackageParams(params, packageMetadata);
+            params.addParam(GeneralParameterNames.ARCHIVING_FORMAT, ArchiveStreamFactory.TAR);
+            params.addParam(GeneralParameterNames.COMPRESSION_FORMAT, formats[0]);
+            params.addParam(GeneralParameterNames.COMPRESSION_THREADS, "3");
+
+            underTest = new BagItPackageAssembler();
+            underTest.init(params, packageMetadata);
+            underTest.createResource("big.bin", PackageResourceType.DATA, new ByteArrayInputStream(content));
+
+            Package pkg = underTest.assemblePackage();
+            assertEquals(packageName + ".tar." + formats[1], pkg.getPackageName());
+
+            byte[] archived = null;
+            try (InputStream serializedPackage = pkg.serialize();
+                 CompressorInputStream cis = new CompressorStreamFactory(true)
+                         .createCompressorInputStream(formats[1], serializedPackage);
+                 ArchiveInputStream ais = new ArchiveStreamFactory()
+                         .createArchiveInputStream(ArchiveStreamFactory.TAR, cis)) {
+                ArchiveEntry entry;
+                while ((entry = ais.getNextEntry()) != null) {
+                    if (entry.getName().equals(packageName + "/data/big.bin")) {
+                        archived = IOUtils.toByteArray(ais);
+                    }
+                }
+            }
+
+            Assert.assertArrayEquals(formats[0], content, archived);
+            pkg.cleanupPackage();
+        }
+    }
+
+    /**
+     * Test that bags compressed with zstd, at a given level and on several threads, and with lz4 hold the same
+     * content.
+     * @throws Exception
+     */
+    @Test
+    public void testZstdAndLz4Compression() throws Exception {
+        byte[] content = new byte[3 * 1024 * 1024 + 17];
+        new java.util.Random(42).nextBytes(content);
+
+        for (String format : new String[] {"zstd", "lz4"}) {
+            PackageGenerationParameters params = new PackageGenerationParameters();
+            setupCommonPackageParams(params, packageMetadata);
+            params.addParam(GeneralParameterNames.ARCHIVING_FORMAT, ArchiveStreamFactory.TAR);
+            params.addParam(GeneralParameterNames.COMPRESSION_FORMAT, format);
+            params.addParam(GeneralParameterNames.COMPRESSION_THREADS, "2");
+            params.addParam(GeneralParameterNames.COMPRESSION_LEVEL, "1");
+
+            underTest = new BagItPackageAssembler();
+            underTest.init(params, packageMetadata);
+            underTest.createResource("big.bin", PackageResourceType.DATA, new ByteArrayInputStream(content));
+
+            Package pkg = underTest.assemblePackage();
+            assertEquals(packageName + ".tar." + format, pkg.getPackageName());
+            assertEquals(format.equals("zstd") ? "application/zstd" : "application/x-lz4", pkg.getContentType());
+
+            byte[] archived = null;
+            try (InputStream serializedPackage = pkg.serialize();
+                 InputStream cis = format.equals("zstd")
+                         ? new ZstdInputStream(serializedPackage) : new Lz4FrameInputStream(serializedPackage);
+                 ArchiveInputStream ais = new ArchiveStreamFactory()
+                         .createArchiveInputStream(ArchiveStreamFactory.TAR, cis)) {
+                ArchiveEntry entry;
+                while ((entry = ais.getNextEntry()) != null) {
+                    if (entry.getName().equals(packageName + "/data/big.bin")) {
+                        archived = IOUtils.toByteArray(ais);
+                    }
+                }
+            }
+
+            Assert.assertArrayEquals(format, content, archived);
+            pkg.cleanupPackage();
+        }
+    }
+
+    @Test
+    public void testInvalidCompressionThreadsThrowsError() {
+        PackageGenerationParameters params = new PackageGenerationParameters();
+        setupCommonPackageParams(params, packageMetadata);
+        params.addParam(GeneralParameterNames.COMPRESSION_FORMAT, "pigz");
+        params.addParam(GeneralParameterNames.COMPRESSION_THREADS, "none");
+
+        expected.expect(PackageToolException.class);
+        expected.expectMessage("Specified number of compression threads <none> is not a positive number.");
+
+        underTest = new BagItPackageAssembler();
+        underTest.init(params, packageMetadata);
+    }
+
+    /**
+     * Test that zip archives deflated on several threads hold the same entries as zip archives deflated on one thread,
+     * and that the temporary files used to deflate them are removed.
+     * @throws Exception
+     */
+    @Test
+    public void testParallelZip() throws Exception {
+        Map<String, byte[]> singleThreaded = assembleAndReadZip(1);
+        Map<String, byte[]> multiThreaded = assembleAndReadZip(4);
+
+        assertEquals(singleThreaded.keySet(), multiThreaded.keySet());
+        for (Map.Entry<String, byte[]> entry : singleThreaded.entrySet()) {
+            Assert.assertArrayEquals(entry.getKey(), entry.getValue(), multiThreaded.get(entry.getKey()));
+        }
+        assertTrue(multiThreaded.containsKey(packageName + "/data/myProject/dataFile.txt"));
+        assertTrue(multiThreaded.containsKey(packageName + "/data/myProject/"));
+    }
+
+    /**
+     * Test that zip archives are written on a single thread unless the number of compression threads is set, so that
+     * their entries are in the same order from one run to the next.
+     * @throws Exception
+     */
+    @Test
+    public void testZipIsSequentialByDefault() throws Exception {
+        Map<String, byte[]> singleThreaded = assembleAndReadZip(1);
+        Map<String, byte[]> byDefault = assembleAndReadZip(null);
+
+        assertEquals(new ArrayList<>(singleThreaded.keySet()), new ArrayList<>(byDefault.keySet()));
+    }
+
+    private Map<String, byte[]> assembleAndReadZip(Integer threads) throws Exception {
+        PackageGenerationParameters params = new PackageGenerationParameters();
+        Map<String, List<String>> metadata = new HashMap<>();
+        setupCommonPackageParams(params, metadata);
+        params.addParam(GeneralParameterNames.ARCHIVING_FORMAT, ArchiveStreamFactory.ZIP);
+        if (threads != null) {
+            params.addParam(GeneralParameterNames.COMPRESSION_THREADS, threads.toString());
+        }
+
+        underTest = new BagItPackageAssembler();
+        underTest.init(params, metadata);
+
+        byte[] content = new byte[3 * 1024 * 1024 + 17];
+        new java.util.Random(42).nextBytes(content);
+        underTest.createResource("myProject/big.bin", PackageResourceType.DATA, new ByteArrayInputStream(content));
+        for (int i = 0; i < 20; i++) {
+            String fileContent = "This is data file " + i + ". data data data data data data data data data data.";
+            underTest.createResource("myProject/dataFile" + (i == 0 ? "" : i) + ".txt", PackageResourceType.DATA,
+                    new ByteArrayInputStream(fileContent.getBytes()));
+        }
+
+        Package pkg = underTest.assemblePackage();
+        assertEquals(packageName + ".zip", pkg.getPackageName());
+        try (Stream<Path> files = Files.list(Paths.get(packageLocationName))) {
+            assertFalse(files.anyMatch(file -> file.getFileName().toString().startsWith("scatter")));
+        }
+
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (InputStream serializedPackage = pkg.serialize();
+             ArchiveInputStream ais = new ArchiveStreamFactory().createArchiveInputStream(ArchiveStreamFactory.ZIP,
+                     serializedPackage)) {
+            ArchiveEntry entry;
+            while ((entry = ais.getNextEntry()) != null) {
+                entries.put(entry.getName(), entry.isDirectory() ? null : IOUtils.toByteArray(ais));
+            }
+        }
+        pkg.cleanupPackage();
+        return entries;
+    }
+
+    /**
+     * Test that a bag larger than the volume size is split into volumes no larger than it, which restore the bag when
+     * read one after the other, whether the bag is staged or streamed.
+     * @throws Exception
+     */
+    @Test
+    public void testSplitIntoVolumes() throws Exception {
+        byte[] content = new byte[300 * 1024 + 17];
+        new java.util.Random(42).nextBytes(content);
+
+        for (boolean streaming : new boolean[] {false, true}) {
+            PackageGenerationParameters params = new PackageGenerationParameters();
+            setupCommonPackageParams(params, packageMetadata);
+            params.addParam(GeneralParameterNames.ARCHIVING_FORMAT, ArchiveStreamFactory.TAR);
+            params.addParam(GeneralParameterNames.COMPRESSION_FORMAT, CompressorStreamFactory.GZIP);
+            params.addParam(GeneralParameterNames.VOLUME_SIZE, "64k");
+            params.addParam(GeneralParameterNames.STREAMING_ASSEMBLY, Boolean.toString(streaming));
+
+            underTest = new BagItPackageAssembler();
+            underTest.init(params, packageMetadata);
+            underTest.createResource("big.bin", PackageResourceType.DATA, new ByteArrayInputStream(content));
+
+            Package pkg = underTest.assemblePackage();
+            assertEquals(packageName + ".tar.gz", pkg.getPackageName());
+
+            List<Package> volumes = pkg.getVolumes();
+            assertEquals(5, volumes.size());
+            for (int i = 0; i < volumes.size(); i++) {
+                assertEquals(packageName + ".tar.gz.00" + (i + 1), volumes.get(i).getPackageName());
+                try (InputStream volume = volumes.get(i).serialize()) {
+                    long length = IOUtils.toByteArray(volume).length;
+                    assertTrue(length <= 64 * 1024);
+                    assertEquals(i < volumes.size() - 1, length == 64 * 1024);
+                }
+            }
+
+            byte[] archived = null;
+            try (InputStream serializedPackage = pkg.serialize();
+                 CompressorInputStream cis = new CompressorStreamFactory()
+                         .createCompressorInputStream(CompressorStreamFactory.GZIP, serializedPackage);
+                 ArchiveInputStream ais = new ArchiveStreamFactory()
+                         .createArchiveInputStream(ArchiveStreamFactory.TAR, cis)) {
+                ArchiveEntry entry;
+                while ((entry = ais.getNextEntry()) != null) {
+                    if (entry.getName().equals(packageName + "/data/big.bin")) {
+                        archived = IOUtils.toByteArray(ais);
+                    }
+                }
+            }
+
+            Assert.assertArrayEquals(content, archived);
+            pkg.cleanupPackage();
+            assertFalse(pkg.isAvailable());
+        }
+    }
+
+    @Test
+    public void testInvalidVolumeSizeThrowsError() {
+        PackageGenerationParameters params = new PackageGenerationParameters();
+        setupCommonPackageParams(params, packageMetadata);
+        params.addParam(GeneralParameterNames.VOLUME_SIZE, "100 gallons");
+
+        expected.expect(PackageToolException.class);
+        expected.expectMessage("Specified volume size <100 gallons> is not a positive number of bytes.");
+
+        underTest = new BagItPackageAssembler();
+        underTest.init(params, packageMetadata);
+    }
+
+    private Map<String, String> assembleAndRead(String archivingFormat, boolean streaming) throws Exception {
+        PackageGenerationParameters params = new PackageGenerationParameters();
+        Map<String, List<String>> metadata = new HashMap<>();
+        setupCommonPackageParams(params, metadata);
+        params.addParam(GeneralParameterNames.ARCHIVING_FORMAT, archivingFormat);
+        params.addParam(GeneralParameterNames.COMPRESSION_FORMAT, CompressorStreamFactory.GZIP);
+        params.addParam(GeneralParameterNames.CHECKSUM_ALGORITHMS, checksumAlg);
+        params.addParam(GeneralParameterNames.CHECKSUM_ALGORITHMS, "sha1");
+        params.addParam(GeneralParameterNames.STREAMING_ASSEMBLY, Boolean.toString(streaming));
+
+        underTest = new BagItPackageAssembler();
+        underTest.init(params, metadata);
+
+        String fileContent = "This is the data file. data data data data data data data data data data data data.";
+        underTest.createResource("myProject/dataFile.txt", PackageResourceType.DATA,
+                new ByteArrayInputStream(fileContent.getBytes()), fileContent.length());
+        underTest.createResource("myProject/otherFile.txt", PackageResourceType.DATA,
+                new ByteArrayInputStream(fileContent.getBytes()));
+        fileContent = "This is the metadata file. metadata metadata metadata metadata metadata metadata metadata .";
+        underTest.createResource("metadataFile.txt", PackageResourceType.METADATA,
+                new ByteArrayInputStream(fileContent.getBytes()));
+        underTest.createResource("rem.ttl", PackageResourceType.ORE_REM, new ByteArrayInputStream(new byte[0]));
+
+        Package pkg = underTest.assemblePackage();
+        assertEquals(packageName + "." + archivingFormat + ".gz", pkg.getPackageName());
+
+        Map<String, String> entries = new HashMap<>();
+        try (InputStream serializedPackage = pkg.serialize();
+             CompressorInputStream cis = new CompressorStreamFactory()
+                     .createCompressorInputStream(CompressorStreamFactory.GZIP, serializedPackage);
+             ArchiveInputStream ais = new ArchiveStreamFactory().createArchiveInputStream(archivingFormat, cis)) {
+            ArchiveEntry entry;
+            while ((entry = ais.getNextEntry()) != null) {
+                entries.put(entry.getName(), entry.isDirectory() ? null : IOUtils.toString(ais));
+            }
+        }
+        pkg.cleanupPackage();
+        return entries;
+    }
+
     @Test
     public void testInvalidArchiveThrowsError() {
         PackageGenerationParameters params = new PackageGenerationParameters();
@@ -876,7 +1555,7 @@ public class BagItPackageAssemblerTest {
         expected.expect(PackageToolException.class);
         expected.expectMessage("One or more initial parameters for the package assembler was invalid : " +
                 "Specified compression format fake is not supported. The supported compression formats are: " +
-                "gz (or gzip), bzip2, pack200, none.");
+                "gz (or gzip), bzip2, pack200, pigz, pbzip2, zstd, lz4, none.");
 
         underTest = new BagItPackageAssembler();
         underTest.init(params, packageMetadata);
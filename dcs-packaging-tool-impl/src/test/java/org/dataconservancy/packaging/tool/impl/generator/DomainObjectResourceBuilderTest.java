@@ -21,11 +21,15 @@ import java.io.InputStream;
 import java.net.URI;
 import java.net.URL;
 
+import java.nio.file.Path;
 import java.nio.file.Paths;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -64,6 +68,7 @@ import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.endsWith;
 import static org.mockito.Matchers.eq;
@@ -495,13 +500,15 @@ public class DomainObjectResourceBuilderTest {
         state.assembler = mock(PackageAssembler.class);
 
         when(state.assembler.createResource(
-                eq("bin/" + path(child, "")), eq(PackageResourceType.DATA), any(InputStream.class)))
+                eq("bin/" + path(child, "")), eq(PackageResourceType.DATA), any(Path.class),
+                anyMapOf(String.class, String.class)))
                 .thenThrow(new PackageToolException(PackagingToolReturnInfo.PKG_ASSEMBLER_DUPLICATE_RESOURCE));
 
         final String expectedSuffix = shaHex(child.getIdentifier().toString());
         final AtomicBoolean matchedSuffix = new AtomicBoolean(Boolean.FALSE);
         when(state.assembler.createResource(
-                endsWith(expectedSuffix), any(PackageResourceType.class), any(InputStream.class)))
+                endsWith(expectedSuffix), any(PackageResourceType.class), any(Path.class),
+                anyMapOf(String.class, String.class)))
                 .then(invocationOnMock -> {
                     matchedSuffix.set(Boolean.TRUE);
                     return uriGen.generateDomainObjectURI(state.tree);
@@ -510,11 +517,48 @@ public class DomainObjectResourceBuilderTest {
         underTest.init(state);
 
         verify(state.assembler, times(2))
-                .createResource(anyString(), any(PackageResourceType.class), any(InputStream.class));
+                .createResource(anyString(), any(PackageResourceType.class), any(Path.class),
+                        anyMapOf(String.class, String.class));
 
         assertTrue(matchedSuffix.get());
     }
 
+    /**
+     * Tests that the checksums computed when a file was ingested are handed to the assembler only while the size and
+     * modification time of the file are unchanged.
+     * @throws Exception
+     */
+    @Test
+    public void testChecksumsOfChangedFilesAreDropped() throws Exception {
+        for (boolean changed : new boolean[] {false, true}) {
+            URIGenerator uriGen = new SimpleURIGenerator();
+            PackageModelBuilderState state = bootstrap2();
+            FileInfo fileInfo = state.tree.getChildren().get(0).getFileInfo();
+            if (changed) {
+                fileInfo.setSize(fileInfo.getSize() + 1);
+            }
+            state.assembler = mock(PackageAssembler.class);
+
+            List<Map<?, ?>> handedOver = new ArrayList<>();
+            when(state.assembler.createResource(anyString(), any(PackageResourceType.class), any(Path.class),
+                    anyMapOf(String.class, String.class)))
+                    .then(invocationOnMock -> {
+                        handedOver.add(invocationOnMock.getArgumentAt(3, Map.class));
+                        return uriGen.generateDomainObjectURI(state.tree);
+                    });
+
+            new DomainObjectResourceBuilder().init(state);
+
+            assertEquals(1, handedOver.size());
+            if (changed) {
+                assertTrue(handedOver.get(0).isEmpty());
+            } else {
+                assertEquals(fileInfo.getChecksum(FileInfo.Algorithm.MD5), handedOver.get(0).get("md5"));
+                assertEquals(fileInfo.getChecksum(FileInfo.Algorithm.SHA1), handedOver.get(0).get("sha1"));
+            }
+        }
+    }
+
     @Test
     public void singleResourcePerDomainObject() throws Exception {
         PackageModelBuilderState state = bootstrap3();
@@ -533,7 +577,7 @@ public class DomainObjectResourceBuilderTest {
             assertEquals(1, domainObjectGraph.listSubjects().toList().size());
             reservedResources.getAndIncrement();
             return null;
-        }).when(state.assembler).putResource(any(), any());
+        }).when(state.assembler).putResource(any(), any(InputStream.class));
 
         state.tree.walk(n -> underTest.visitNode(n, state));
 
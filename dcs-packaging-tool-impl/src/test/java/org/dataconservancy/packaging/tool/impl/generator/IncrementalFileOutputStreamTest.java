@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.packaging.tool.impl.generator;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IncrementalFileOutputStreamTest {
+
+    @Rule
+    public TemporaryFolder tmpfolder = new TemporaryFolder();
+
+    /**
+     * Tests that the file is left as it is when the same content is written.
+     * @throws Exception
+     */
+    @Test
+    public void testSameContent() throws Exception {
+        File file = tmpfolder.newFile();
+        FileUtils.writeStringToFile(file, "the same content");
+        Object fileKey = Files.readAttributes(file.toPath(), "basic:fileKey").get("fileKey");
+
+        IncrementalFileOutputStream out = write(file, "the same", " content");
+
+        assertFalse(out.isChanged());
+        assertEquals("the same content", FileUtils.readFileToString(file));
+        assertEquals(fileKey, Files.readAttributes(file.toPath(), "basic:fileKey").get("fileKey"));
+    }
+
+    /**
+     * Tests that the file is replaced when the content differs from it, is shorter or is longer.
+     * @throws Exception
+     */
+    @Test
+    public void testChangedContent() throws Exception {
+        String[][] writes = {{"the other", " content"}, {"the same", " cont"}, {"the same", " content, and more"},
+                {"", "t"}, {}};
+        for (String[] content : writes) {
+            File file = new File(tmpfolder.newFolder(), "file");
+            FileUtils.writeStringToFile(file, "the same content");
+
+            IncrementalFileOutputStream out = write(file, content);
+
+            assertTrue(out.isChanged());
+            assertEquals(String.join("", content), FileUtils.readFileToString(file));
+            assertEquals(1, file.getParentFile().list().length);
+        }
+    }
+
+    /**
+     * Tests that a file the old file is linked to is left alone.
+     * @throws Exception
+     */
+    @Test
+    public void testLinkedFileIsLeftAlone() throws Exception {
+        File original = tmpfolder.newFile();
+        FileUtils.writeStringToFile(original, "the original content");
+        File file = new File(tmpfolder.getRoot(), "linked");
+        try {
+            Files.createLink(file.toPath(), original.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            return;
+        }
+
+        write(file, "the original", " content, changed");
+
+        assertEquals("the original content, changed", FileUtils.readFileToString(file));
+        assertEquals("the original content", FileUtils.readFileToString(original));
+    }
+
+    /**
+     * Tests that files with names too short to prefix a temporary file with are replaced too.
+     * @throws Exception
+     */
+    @Test
+    public void testShortFileNames() throws Exception {
+        for (String name : new String[] {"a", "ab", "x1"}) {
+            File file = new File(tmpfolder.newFolder(), name);
+            FileUtils.writeStringToFile(file, "the same content");
+
+            IncrementalFileOutputStream out = write(file, "the other content");
+
+            assertTrue(out.isChanged());
+            assertEquals("the other content", FileUtils.readFileToString(file));
+            assertEquals(1, file.getParentFile().list().length);
+        }
+    }
+
+    /**
+     * Tests that the new file is deleted when it can't replace the old one.
+     * @throws Exception
+     */
+    @Test
+    public void testFailureDeletesNewFile() throws Exception {
+        File file = new File(tmpfolder.newFolder(), "ab");
+        FileUtils.writeStringToFile(file, "the same content");
+
+        IncrementalFileOutputStream out = new IncrementalFileOutputStream(file);
+        out.write("the other content".getBytes());
+
+        // A directory which is not empty can't be replaced
+        Files.delete(file.toPath());
+        assertTrue(new File(file, "child").mkdirs());
+
+        try {
+            out.close();
+            fail("Expected the replacement to fail");
+        } catch (IOException e) {
+            // expected
+        }
+
+        assertFalse(out.isChanged());
+        assertEquals(1, file.getParentFile().list().length);
+    }
+
+    private IncrementalFileOutputStream write(File file, String... content) throws IOException {
+        IncrementalFileOutputStream out = new IncrementalFileOutputStream(file);
+        for (String part : content) {
+            out.write(part.getBytes());
+        }
+        out.close();
+        return out;
+    }
+}
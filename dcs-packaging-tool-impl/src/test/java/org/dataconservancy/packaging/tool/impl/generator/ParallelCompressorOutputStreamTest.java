@@ -0,0 +1,183 @@
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.packaging.tool.impl.generator;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelCompressorOutputStreamTest {
+
+    private byte[] content;
+
+    @Before
+    public void setUp() {
+        // Several blocks, the last one partial, half random and half repetitive so that it compresses somewhat
+        content = new byte[3 * ParallelCompressorOutputStream.GZIP_BLOCK_SIZE + 12345];
+        Random random = new Random(7);
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (i / 1000) % 2 == 0 ? (byte) random.nextInt() : (byte) (i % 13);
+        }
+    }
+
+    /**
+     * Tests that the concatenated gzip members are read back as the original content, including by the JDK, which
+     * is what gzip and other standard tools do.
+     * @throws Exception
+     */
+    @Test
+    public void testGzipRoundTrip() throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = ParallelCompressorOutputStream.gzip(compressed, 4)) {
+            writeInPieces(out);
+        }
+
+        assertTrue(compressed.size() < content.length);
+        assertArrayEquals(content, IOUtils.toByteArray(
+                new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray()))));
+        assertArrayEquals(content, IOUtils.toByteArray(
+                new GzipCompressorInputStream(new ByteArrayInputStream(compressed.toByteArray()), true)));
+    }
+
+    /**
+     * Tests that the concatenated bzip2 streams are read back as the original content.
+     * @throws Exception
+     */
+    @Test
+    public void testBzip2RoundTrip() throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = ParallelCompressorOutputStream.bzip2(compressed, 4)) {
+            writeInPieces(out);
+        }
+
+        assertArrayEquals(content, IOUtils.toByteArray(
+                new BZip2CompressorInputStream(new ByteArrayInputStream(compressed.toByteArray()), true)));
+    }
+
+    /**
+     * Tests that compressing with a single thread, and with fewer threads than blocks, gives the same output.
+     * @throws Exception
+     */
+    @Test
+    public void testOutputDoesNotDependOnThreads() throws Exception {
+        ByteArrayOutputStream single = new ByteArrayOutputStream();
+        try (OutputStream out = ParallelCompressorOutputStream.gzip(single, 1)) {
+            out.write(content);
+        }
+
+        ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+        try (OutputStream out = ParallelCompressorOutputStream.gzip(parallel, 2)) {
+            out.write(content);
+        }
+
+        assertArrayEquals(single.toByteArray(), parallel.toByteArray());
+    }
+
+    /**
+     * Tests that empty content still produces a valid compressed stream.
+     * @throws Exception
+     */
+    @Test
+    public void testEmptyContent() throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        ParallelCompressorOutputStream.gzip(compressed, 2).close();
+
+        assertTrue(compressed.size() > 0);
+        assertEquals(0, IOUtils.toByteArray(
+                new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray()))).length);
+    }
+
+    /**
+     * Tests that a failure to compress a block is reported when the block is written out.
+     * @throws Exception
+     */
+    @Test
+    public void testCompressionFailure() throws Exception {
+        OutputStream out = new ParallelCompressorOutputStream(new ByteArrayOutputStream(), 2, 10, (block, length) -> {
+            throw new IOException("Broken compressor");
+        });
+        out.write(new byte[25]);
+
+        try {
+            out.close();
+            fail("Expected the compression failure to be reported");
+        } catch (IOException e) {
+            assertEquals("Broken compressor", e.getMessage());
+        }
+    }
+
+    /**
+     * Tests that the underlying stream is still closed after a failure to compress was reported by a write.
+     * @throws Exception
+     */
+    @Test
+    public void testUnderlyingStreamClosedAfterFailure() throws Exception {
+        final boolean[] closed = new boolean[1];
+        OutputStream underlying = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        OutputStream out = new ParallelCompressorOutputStream(underlying, 2, 10, (block, length) -> {
+            throw new IOException("Broken compressor");
+        });
+
+        try {
+            out.write(new byte[50]);
+            fail("Expected the compression failure to be reported");
+        } catch (IOException e) {
+            assertEquals("Broken compressor", e.getMessage());
+        }
+
+        out.close();
+        assertTrue(closed[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidThreads() {
+        ParallelCompressorOutputStream.gzip(new ByteArrayOutputStream(), 0);
+    }
+
+    private void writeInPieces(OutputStream out) throws IOException {
+        int offset = 0;
+        int piece = 1;
+        while (offset < content.length) {
+            int length = Math.min(piece, content.length - offset);
+            if (length == 1) {
+                out.write(content[offset]);
+            } else {
+                out.write(content, offset, length);
+            }
+            offset += length;
+            piece = piece * 3 + 1;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.packaging.tool.impl.generator;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TarChannelWriterTest {
+
+    @Rule
+    public TemporaryFolder tmpfolder = new TemporaryFolder();
+
+    private File directory;
+
+    private File file;
+
+    private File emptyFile;
+
+    private String longName;
+
+    @Before
+    public void setup() throws Exception {
+        directory = tmpfolder.newFolder("bag");
+
+        byte[] content = new byte[100000];
+        new Random(16).nextBytes(content);
+        file = new File(directory, "data.bin");
+        FileUtils.writeByteArrayToFile(file, content);
+
+        emptyFile = new File(directory, "empty.txt");
+        assertTrue(emptyFile.createNewFile());
+
+        StringBuilder name = new StringBuilder("bag/data/");
+        while (name.length() < 150) {
+            name.append("long-directory-name/");
+        }
+        longName = name.append("data.bin").toString();
+    }
+
+    /**
+     * Tests that the archive is the same as the one written by {@link TarArchiveOutputStream}.
+     * @throws Exception
+     */
+    @Test
+    public void testSameArchiveAsTarArchiveOutputStream() throws Exception {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(expected)) {
+            tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
+            tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+
+            tar.putArchiveEntry(new TarArchiveEntry(directory, "bag/"));
+            tar.closeArchiveEntry();
+            for (String name : new String[] {"bag/data.bin", longName}) {
+                tar.putArchiveEntry(new TarArchiveEntry(file, name));
+                try (InputStream in = new FileInputStream(file)) {
+                    IOUtils.copy(in, tar);
+                }
+                tar.closeArchiveEntry();
+            }
+            tar.putArchiveEntry(new TarArchiveEntry(emptyFile, "bag/empty.txt"));
+            tar.closeArchiveEntry();
+        }
+
+        File archive = tmpfolder.newFile("bag.tar");
+        try (TarChannelWriter writer = new TarChannelWriter(archive)) {
+            writer.putDirectory(directory, "bag/");
+            writer.putFile(file, "bag/data.bin");
+            writer.putFile(file, longName);
+            writer.putFile(emptyFile, "bag/empty.txt");
+        }
+
+        assertArrayEquals(expected.toByteArray(), FileUtils.readFileToByteArray(archive));
+    }
+
+    /**
+     * Tests that the archive can be read back, including the entry with a long name.
+     * @throws Exception
+     */
+    @Test
+    public void testReadArchive() throws Exception {
+        File archive = tmpfolder.newFile("bag.tar");
+        try (TarChannelWriter writer = new TarChannelWriter(archive)) {
+            writer.putDirectory(directory, "bag");
+            writer.putFile(file, longName);
+        }
+
+        try (TarArchiveInputStream in = new TarArchiveInputStream(
+                new ByteArrayInputStream(FileUtils.readFileToByteArray(archive)))) {
+            TarArchiveEntry entry = in.getNextTarEntry();
+            assertEquals("bag/", entry.getName());
+            assertTrue(entry.isDirectory());
+
+            entry = in.getNextTarEntry();
+            assertEquals(longName, entry.getName());
+            assertArrayEquals(FileUtils.readFileToByteArray(file), IOUtils.toByteArray(in));
+
+            assertNull(in.getNextTarEntry());
+        }
+    }
+}
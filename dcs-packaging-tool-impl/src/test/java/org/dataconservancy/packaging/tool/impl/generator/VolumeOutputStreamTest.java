@@ -0,0 +1,107 @@
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.packaging.tool.impl.generator;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class VolumeOutputStreamTest {
+
+    @Rule
+    public TemporaryFolder tmpfolder = new TemporaryFolder();
+
+    /**
+     * Tests that content larger than a volume is split into numbered volumes, which restore the content when
+     * concatenated.
+     * @throws Exception
+     */
+    @Test
+    public void testSplitContent() throws Exception {
+        File file = new File(tmpfolder.getRoot(), "package.tar");
+        byte[] content = write(file, 2500, 1000);
+
+        List<File> volumes = Arrays.asList(new File(file.getPath() + ".001"), new File(file.getPath() + ".002"),
+                new File(file.getPath() + ".003"));
+        assertFalse(file.exists());
+        assertEquals(1000, volumes.get(0).length());
+        assertEquals(1000, volumes.get(1).length());
+        assertEquals(500, volumes.get(2).length());
+
+        ByteArrayOutputStream concatenated = new ByteArrayOutputStream();
+        for (File volume : volumes) {
+            concatenated.write(FileUtils.readFileToByteArray(volume));
+        }
+        assertArrayEquals(content, concatenated.toByteArray());
+    }
+
+    /**
+     * Tests that content filling volumes exactly doesn't leave an empty volume behind.
+     * @throws Exception
+     */
+    @Test
+    public void testContentFillingVolumes() throws Exception {
+        File file = new File(tmpfolder.getRoot(), "package.tar");
+        VolumeOutputStream out = new VolumeOutputStream(file, 1000);
+        out.write(new byte[2000]);
+        out.close();
+
+        assertEquals(Arrays.asList(new File(file.getPath() + ".001"), new File(file.getPath() + ".002")),
+                out.getVolumes());
+        assertEquals(2, tmpfolder.getRoot().list().length);
+    }
+
+    /**
+     * Tests that content fitting in one volume, including no content at all, is written to the file itself.
+     * @throws Exception
+     */
+    @Test
+    public void testSingleVolume() throws Exception {
+        for (int length : new int[] {0, 1, 1000}) {
+            File file = new File(tmpfolder.newFolder(), "package.tar");
+            byte[] content = write(file, length, 1000);
+
+            assertEquals(1, file.getParentFile().list().length);
+            assertArrayEquals(content, FileUtils.readFileToByteArray(file));
+        }
+    }
+
+    private byte[] write(File file, int length, long volumeSize) throws IOException {
+        byte[] content = new byte[length];
+        new Random(19).nextBytes(content);
+
+        VolumeOutputStream out = new VolumeOutputStream(file, volumeSize);
+        //in uneven chunks, crossing the volume boundaries
+        for (int off = 0; off < length; off += 333) {
+            out.write(content, off, Math.min(333, length - off));
+        }
+        out.close();
+
+        return content;
+    }
+}
@@ -35,6 +35,71 @@ public class GeneralParameterNames {
     public static final String EXTERNAL_PROJECT_ID = "External-Project-Id";
 	public static final String DOMAIN_PROFILE = "Domain-Profile";
 
+    /**
+     * Parameter indicating whether the package is serialized as its resources are added, instead of being staged
+     * on disk and serialized at the end.  Possible values are {@code true} and {@code false}, the default.  It has
+     * no effect on exploded packages.
+     */
+    public static final String STREAMING_ASSEMBLY = "Streaming-Assembly";
+
+    /**
+     * Parameter giving the maximum size of the files the package is serialized to.  Packages larger than this are
+     * split into numbered volumes as they are serialized.  The size is a number of bytes, optionally followed by a
+     * {@code K}, {@code M}, {@code G} or {@code T} multiplier, e.g. {@code 100G}.  It has no effect on exploded
+     * packages.
+     */
+    public static final String VOLUME_SIZE = "Volume-Size";
+
+    /**
+     * Parameter indicating whether an existing exploded package is updated in place, rewriting only the payload
+     * files whose content changed and removing the ones which are not part of the package anymore.  Possible values
+     * are {@code true} and {@code false}, the default.  It has no effect on archived packages.
+     */
+    public static final String INCREMENTAL_ASSEMBLY = "Incremental-Assembly";
+
+    /**
+     * Parameter giving the number of threads used to compress the package when a parallel compression format
+     * ({@code pigz}, {@code pbzip2} or {@code zstd}) is requested in {@link #COMPRESSION_FORMAT}.  Defaults to the
+     * number of available processors.  When it is set, the entries of {@code zip} archives are deflated on that many
+     * threads too, in which case their order in the archive varies from one run to the next; otherwise {@code zip}
+     * archives are written on a single thread.
+     */
+    public static final String COMPRESSION_THREADS = "Compression-Threads";
+
+    /**
+     * Parameter giving the compression level, when the {@code zstd} compression format is requested in
+     * {@link #COMPRESSION_FORMAT}.  Defaults to the default level of the format.
+     */
+    public static final String COMPRESSION_LEVEL = "Compression-Level";
+
+    /**
+     * Parameter identifying how payload files are staged on disk, both for exploded packages and for the staging
+     * directory of archived packages.  Possible values are contained in {@code GeneralParameterNames#STAGING_STRATEGY},
+     * the default is {@code COPY}.
+     */
+    public static final String PAYLOAD_STAGING_STRATEGY = "Payload-Staging-Strategy";
+
+    /**
+     * Parameter indicating whether payload files which are local files are referred to in the {@code fetch.txt} of
+     * the bag, rather than included in the bag, making it a "holey" bag to be completed by whoever receives it.
+     * Possible values are {@code true} and {@code false}, the default.  Only the files under
+     * {@link #FETCH_BASE_LOCATION} are referred to, when it is set.
+     */
+    public static final String HOLEY_BAG = "Holey-Bag";
+
+    /**
+     * Parameter giving the directory whose files are referred to rather than included, in a holey bag.  Defaults to
+     * all local files.
+     */
+    public static final String FETCH_BASE_LOCATION = "Fetch-Base-Location";
+
+    /**
+     * Parameter giving the URL the files under {@link #FETCH_BASE_LOCATION} are fetched from, in a holey bag: the
+     * URL of a file is its path relative to the base location, resolved against this URL.  Defaults to the
+     * {@code file:} URL of the file.
+     */
+    public static final String FETCH_BASE_URL = "Fetch-Base-Url";
+
     /**
      * Possible values for the {@link #REM_SERIALIZATION_FORMAT} parameter. This is a list
      * of supported serialization formats for RDF data (ORE-ReM, domain objects, etc)
@@ -56,4 +121,27 @@ public class GeneralParameterNames {
          */
         TURTLE
 	}
+
+    /**
+     * Possible values for the {@link #PAYLOAD_STAGING_STRATEGY} parameter.  Strategies which can't be applied to a
+     * file, e.g. because the staging location and the file are on different file systems, fall back to the next one.
+     */
+    public enum STAGING_STRATEGY {
+        /**
+         * Hard link the staged file to the original file, which then share their content.  Modifying one modifies
+         * the other, so this is only suitable when neither is changed afterwards.
+         */
+        LINK,
+
+        /**
+         * Copy the file within the operating system, without moving its content through the Java heap.  File systems
+         * supporting it may share the content until either copy is modified.
+         */
+        TRANSFER,
+
+        /**
+         * Copy the content of the file as a stream.
+         */
+        COPY
+    }
 }
\ No newline at end of file
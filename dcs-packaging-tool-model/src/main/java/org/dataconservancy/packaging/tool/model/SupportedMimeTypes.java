@@ -46,6 +46,8 @@ public class SupportedMimeTypes {
             mimeTypesMap.put("gzip", "application/x-gzip");
             mimeTypesMap.put("bzip2", "application/x-bzip2");
             mimeTypesMap.put("pack200", "application/x-java-pack200");
+            mimeTypesMap.put("zstd", "application/zstd");
+            mimeTypesMap.put("lz4", "application/x-lz4");
         }
         String mimeType = mimeTypesMap.get(format);
         if (mimeType == null) {
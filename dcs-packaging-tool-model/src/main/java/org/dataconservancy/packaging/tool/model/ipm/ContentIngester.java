@@ -0,0 +1,144 @@
+package org.dataconservancy.packaging.tool.model.ipm;
+
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Hex;
+import org.dataconservancy.dcs.model.DetectedFormat;
+import org.dataconservancy.dcs.util.ContentDetectionService;
+import org.dataconservancy.dcs.util.droid.SignatureWindow;
+
+/**
+ * Reads the content of a regular file exactly once, feeding every buffer both to the MD5 and SHA-1 digests and to a
+ * bounded {@link SignatureWindow} of head and tail bytes. Format detection then runs against the window instead of
+ * reading the file from disk a second time, or is skipped when content with the same SHA-1 digest was identified
+ * before.
+ */
+public class ContentIngester {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final int bufferSize;
+    private final int windowCapacity;
+
+    public ContentIngester() {
+        this(DEFAULT_BUFFER_SIZE, SignatureWindow.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param bufferSize the size of the buffer used to read the file
+     * @param windowCapacity the number of bytes kept for each of the head and the tail of the file
+     */
+    public ContentIngester(int bufferSize, int windowCapacity) {
+        this.bufferSize = bufferSize;
+        this.windowCapacity = windowCapacity;
+    }
+
+    /**
+     * Calculates the checksums and detects the formats of a regular file, reading it only once.
+     * @param path The path to the file.
+     * @param expectedSize The size of the file according to its attributes, used to size the signature window.
+     * @return The checksums and formats of the file.
+     * @throws IOException If the file can't be read.
+     */
+    public Result ingest(Path path, long expectedSize) throws IOException {
+        MessageDigest md5;
+        MessageDigest sha1;
+
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+            sha1 = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+
+        SignatureWindow window = new SignatureWindow(expectedSize, windowCapacity);
+        byte[] buffer = new byte[bufferSize];
+
+        try (FileInfo.ChecksumCalculatingInputStream in = new FileInfo.ChecksumCalculatingInputStream(
+                Files.newInputStream(path), Arrays.asList(md5, sha1))) {
+            int read;
+            while ((read = in.read(buffer, 0, buffer.length)) != -1) {
+                window.update(buffer, 0, read);
+            }
+        }
+
+        Map<FileInfo.Algorithm, String> checksums = new HashMap<>();
+        checksums.put(FileInfo.Algorithm.MD5, Hex.encodeHexString(md5.digest()));
+        checksums.put(FileInfo.Algorithm.SHA1, Hex.encodeHexString(sha1.digest()));
+
+        List<DetectedFormat> detectedFormats = ContentDetectionService.getInstance().detectFormats(path.toFile(),
+                window, checksums.get(FileInfo.Algorithm.SHA1));
+
+        return new Result(checksums, toFormatStrings(detectedFormats));
+    }
+
+    /**
+     * Converts detected formats into the strings stored on a {@link FileInfo}: the PRONOM format URI, if there is
+     * one, followed by the mime type.
+     * @param detectedFormats the formats detected for a file
+     * @return the format strings
+     */
+    static List<String> toFormatStrings(List<DetectedFormat> detectedFormats) {
+        List<String> formats = new ArrayList<>();
+        for (DetectedFormat format : detectedFormats) {
+            if (format.getId() != null && !format.getId().isEmpty()) {
+                formats.add("info:pronom/" + format.getId());
+            }
+
+            if (format.getMimeType() != null && !format.getMimeType().isEmpty()) {
+                formats.add(format.getMimeType());
+            }
+        }
+
+        return formats;
+    }
+
+    /**
+     * Checksums and formats of an ingested file.
+     */
+    public static class Result {
+        private final Map<FileInfo.Algorithm, String> checksums;
+        private final List<String> formats;
+
+        Result(Map<FileInfo.Algorithm, String> checksums, List<String> formats) {
+            this.checksums = checksums;
+            this.formats = formats;
+        }
+
+        public Map<FileInfo.Algorithm, String> getChecksums() {
+            return checksums;
+        }
+
+        public List<String> getFormats() {
+            return formats;
+        }
+    }
+}
@@ -27,20 +27,12 @@ import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.commons.codec.binary.Hex;
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.output.NullOutputStream;
-import org.dataconservancy.dcs.model.DetectedFormat;
-import org.dataconservancy.dcs.util.ContentDetectionService;
-
 /**
  * Information about a file or directory.
  */
@@ -59,6 +51,7 @@ public class FileInfo {
 
     /**
      * Default constructor that should be used in most cases. Will read the file at the path location and load the necessary file attributes.
+     * The content of a regular file is read only once; see {@link ContentIngester}.
      * @param path The path to the file.
      */
     public FileInfo(Path path) {
@@ -68,46 +61,9 @@ public class FileInfo {
         try {
             fileAttributes = new FileInfoAttributes(Files.readAttributes(path, BasicFileAttributes.class));
             if (fileAttributes.isRegularFile()) {
-                checksums = new HashMap<>();
-                formats = new ArrayList<>();
-
-                MessageDigest md5 = null;
-                MessageDigest sha1 = null;
-
-                try {
-                    md5 = MessageDigest.getInstance("MD5");
-                    sha1 = MessageDigest.getInstance("SHA-1");
-                } catch (NoSuchAlgorithmException e) {
-                    throw new RuntimeException(e.getMessage(), e);
-                }
-
-                try (ChecksumCalculatingInputStream in = new ChecksumCalculatingInputStream(
-                        Files.newInputStream(path), Arrays.asList(md5, sha1))) {
-
-                    IOUtils.copy(in, new NullOutputStream());
-
-                    in.digests().forEach((md, digest) -> {
-                        String encoded = Hex.encodeHexString(digest);
-                        if (md.getAlgorithm().equals("MD5")) {
-                            checksums.put(Algorithm.MD5, encoded);
-                        }
-
-                        if (md.getAlgorithm().equals("SHA-1")) {
-                            checksums.put(Algorithm.SHA1, encoded);
-                        }
-                    });
-                }
-
-                List<DetectedFormat> fileFormats = ContentDetectionService.getInstance().detectFormats(path.toFile());
-                for (DetectedFormat format : fileFormats) {
-                    if (format.getId() != null && !format.getId().isEmpty()) {
-                        formats.add(createFormatURIString(format));
-                    }
-
-                    if (format.getMimeType() != null && !format.getMimeType().isEmpty()) {
-                        formats.add(format.getMimeType());
-                    }
-                }
+                ContentIngester.Result ingested = new ContentIngester().ingest(path, fileAttributes.size());
+                checksums = ingested.getChecksums();
+                formats = ingested.getFormats();
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -359,18 +315,16 @@ public class FileInfo {
     }
 
     /**
-     * Converts format id from the DcsFormat objects into formatURI string with qualifying namespace. Only applicable
-     * to pronom format identifier at this point.
-     * @param format the DetectedFormat object
-     * @return a formatURI string with qualifying namespace
+     * @return The key uniquely identifying the file on its file system (e.g. the device and inode), or null if it is
+     * not known. The key is only known if this FileInfo was created by reading the file; it is not persisted.
      */
-    private String createFormatURIString(DetectedFormat format) {
-        String formatString = "";
-        if (format.getId() != null && !format.getId().isEmpty()) {
-            formatString = "info:pronom/" + format.getId();
+    public Object getFileKey() {
+        Object fileKey = null;
+        if (fileAttributes != null) {
+            fileKey = fileAttributes.fileKey();
         }
 
-        return formatString;
+        return fileKey;
     }
 
     @Override
@@ -430,6 +384,7 @@ public class FileInfo {
         private boolean isDirectory;
         private boolean isSymbolicLink;
         private long size;
+        private Object fileKey;
 
         public FileInfoAttributes() {
 
@@ -442,6 +397,7 @@ public class FileInfo {
             isDirectory = superAttributes.isDirectory();
             isSymbolicLink = superAttributes.isSymbolicLink();
             size = superAttributes.size();
+            fileKey = superAttributes.fileKey();
         }
 
         @Override
@@ -510,7 +466,7 @@ public class FileInfo {
 
         @Override
         public Object fileKey() {
-            return null;
+            return fileKey;
         }
 
         @Override
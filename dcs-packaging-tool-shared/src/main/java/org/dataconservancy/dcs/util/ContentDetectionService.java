@@ -15,14 +15,21 @@
  */
 package org.dataconservancy.dcs.util;
 
+import org.apache.commons.io.FilenameUtils;
 import org.dataconservancy.dcs.model.DetectedFormat;
 import org.dataconservancy.dcs.util.droid.DroidDriver;
+import org.dataconservancy.dcs.util.droid.SignatureWindow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
 
 /**
  * Detects file format base on file's content and/or filename extension.
@@ -30,6 +37,25 @@ import java.util.Properties;
  */
 public class ContentDetectionService {
 
+    /**
+     * How the formats of files are detected.
+     */
+    public enum DetectionPolicy {
+        /**
+         * Every file goes through the full DROID identification: binary signatures, container signatures and the
+         * extension as a last resort.
+         */
+        FULL,
+        /**
+         * A file whose extension belongs to a single format is checked against the binary signatures of that format
+         * only, and is identified as that format if one of them matches.  Other files go through the full
+         * identification.
+         */
+        FAST
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContentDetectionService.class);
+
     public final static String MIME_TYPE_SCHEME_URI = "http://www.iana.org/assignments/media-types/";
     public final static String PRONOM_SCHEME_URI = "http://www.nationalarchives.gov.uk/PRONOM/";
 
@@ -41,6 +67,19 @@ public class ContentDetectionService {
 
     private DroidDriver droidDriver = new DroidDriver();
 
+    /**
+     * Shared by the instances of all threads, so that the scan window is configured once for the whole application.
+     */
+    private static volatile int maxBytesToScan = -1;
+
+    private static volatile DetectedFormatCache formatCache = new DetectedFormatCache();
+
+    private static volatile DetectionPolicy detectionPolicy = DetectionPolicy.FULL;
+
+    private static volatile double verificationRate;
+
+    private static final DetectionMetrics detectionMetrics = new DetectionMetrics();
+
     private static final ThreadLocal<ContentDetectionService> contentDetectionService =
             ThreadLocal.withInitial(ContentDetectionService::new);
 
@@ -53,7 +92,8 @@ public class ContentDetectionService {
 
 
     /**
-     * Returns an instance of contentDetectionService.
+     * Returns an instance of contentDetectionService.  Each thread has its own instance, which is cheap to create
+     * since the DROID signatures are parsed once and shared by all of them.
      * @return an instance of ContentDetectionService
      */
     public static ContentDetectionService getInstance() {
@@ -61,6 +101,107 @@ public class ContentDetectionService {
     }
 
 
+    /**
+     * Limits the number of bytes scanned for signatures at the beginning and at the end of the files whose formats
+     * are detected, on all threads.  By default entire files are scanned, which makes the detection of large files
+     * (e.g. video or HDF5 files) take about as long as reading them.  With a scan window, detection takes about the
+     * same time for files of any size, but formats whose signatures are only found further inside a file are missed.
+     * <p>
+     * When the formats are detected from a {@link SignatureWindow}, a scan window no larger than the signature
+     * window means that binary signatures are matched without reading the file again.
+     * </p>
+     * @param maxBytes the maximum number of bytes to scan from each end of a file, or a negative number to scan
+     *                 entire files
+     */
+    public static void setMaxBytesToScan(int maxBytes) {
+        maxBytesToScan = maxBytes < 0 ? -1 : maxBytes;
+    }
+
+    /**
+     * @return the maximum number of bytes scanned from each end of a file, or -1 if entire files are scanned
+     */
+    public static int getMaxBytesToScan() {
+        return maxBytesToScan;
+    }
+
+    /**
+     * Describes the settings, shared by all threads, which change the formats detected in the same content, so that
+     * formats cached along with other information about a file are only used with the settings they were detected
+     * with.
+     * @return the settings formats are currently detected with
+     */
+    public static String getDetectionSettings() {
+        return "scan " + maxBytesToScan + " policy " + detectionPolicy;
+    }
+
+    /**
+     * Sets the cache of the formats detected in file content, shared by all threads.  By default formats are cached
+     * in memory, so that content found in several files is identified once.
+     * @param cache the cache, or null to identify all content
+     */
+    public static void setFormatCache(DetectedFormatCache cache) {
+        if (cache != null) {
+            cache.setSignatures(getInstance().getSignatures());
+        }
+        formatCache = cache;
+    }
+
+    /**
+     * @return the cache of the formats detected in file content, or null if there is none
+     */
+    public static DetectedFormatCache getFormatCache() {
+        return formatCache;
+    }
+
+    /**
+     * Sets how the formats of files are detected, on all threads.  Defaults to {@link DetectionPolicy#FULL}.
+     * <p>
+     * With the {@link DetectionPolicy#FAST} policy, most files of common formats are identified by matching the
+     * signatures of a single format instead of all of them.  A file is then identified as the format its extension
+     * belongs to, even if a more specific format, e.g. a profile of that format, would also have matched it.
+     * </p>
+     * @param policy the detection policy, or null for the default
+     */
+    public static void setDetectionPolicy(DetectionPolicy policy) {
+        detectionPolicy = policy != null ? policy : DetectionPolicy.FULL;
+    }
+
+    /**
+     * @return how the formats of files are detected
+     */
+    public static DetectionPolicy getDetectionPolicy() {
+        return detectionPolicy;
+    }
+
+    /**
+     * Sets the share of the files identified from their extension under the {@link DetectionPolicy#FAST} policy
+     * which are identified in full as well, to verify that both find the same formats.  The formats found in full are
+     * answered when they differ, and the difference is counted in the {@link #getDetectionMetrics() metrics}.
+     * Defaults to 0, no verification.
+     * @param rate the share of files to verify, from 0 to 1
+     */
+    public static void setVerificationRate(double rate) {
+        if (!(rate >= 0 && rate <= 1)) {
+            throw new IllegalArgumentException("The verification rate must be between 0 and 1: " + rate);
+        }
+        verificationRate = rate;
+        detectionMetrics.setVerificationRate(rate);
+    }
+
+    /**
+     * @return the share of the files identified from their extension which are verified
+     */
+    public static double getVerificationRate() {
+        return verificationRate;
+    }
+
+    /**
+     * @return the counts of the ways the formats of files were detected, on all threads
+     */
+    public static DetectionMetrics getDetectionMetrics() {
+        return detectionMetrics;
+    }
+
     /**
      * Detect bytestream format of the provided file, using UK National Archives profiling tool DROID.
      * <p>
@@ -81,7 +222,115 @@ public class ContentDetectionService {
             return detectFormats(file.getName());
         }
 
-        List<DetectedFormat> detectedFormats =  droidDriver.detectFormats(file);
+        return orUnknown(detect(file, null));
+    }
+
+    /**
+     * Detect bytestream format of the provided file from the head and tail bytes captured while the file was read
+     * for another purpose, e.g. while calculating its checksums.  This avoids reading the file from disk a second
+     * time; bytes outside of the window are only read if a signature requires them.
+     * <p>
+     * The returned list follows the same contract as {@link #detectFormats(File)}.
+     * </p>
+     * @param file - whose formats are to be detected
+     * @param window - the signature window captured while reading <b>file</b>
+     * @return {@link java.util.List} of {@link org.dataconservancy.dcs.model.DetectedFormat}s for the provided file.
+     */
+    public List<DetectedFormat> detectFormats(File file, SignatureWindow window) {
+
+        if (!file.exists()) {
+            return detectFormats(file.getName());
+        }
+
+        return orUnknown(detect(file, window));
+    }
+
+    /**
+     * Detect bytestream format of the provided file from its signature window, like
+     * {@link #detectFormats(File, SignatureWindow)}, unless content with the same SHA-1 digest was identified before
+     * in a file with the same extension, in which case the formats are answered by the
+     * {@link #setFormatCache(DetectedFormatCache) format cache}.  Formats identified from the extension only, under
+     * the {@link DetectionPolicy#FAST} policy, are not cached.
+     * @param file - whose formats are to be detected
+     * @param window - the signature window captured while reading <b>file</b>
+     * @param sha1 - the hex encoded SHA-1 digest of the content of <b>file</b>
+     * @return {@link java.util.List} of {@link org.dataconservancy.dcs.model.DetectedFormat}s for the provided file.
+     */
+    public List<DetectedFormat> detectFormats(File file, SignatureWindow window, String sha1) {
+        DetectedFormatCache cache = formatCache;
+        if (cache == null || !file.exists()) {
+            return detectFormats(file, window);
+        }
+
+        String extension = FilenameUtils.getExtension(file.getName());
+        int maxBytes = maxBytesToScan;
+        List<DetectedFormat> detectedFormats = cache.get(sha1, extension, maxBytes);
+        if (detectedFormats == null) {
+            droidDriver.setMaxBytesToScan(maxBytes);
+            detectedFormats = detectFast(file, window, extension);
+            if (detectedFormats == null) {
+                detectedFormats = detectFull(file, window);
+                cache.put(sha1, extension, maxBytes, detectedFormats);
+            }
+        }
+
+        return orUnknown(detectedFormats);
+    }
+
+    private List<DetectedFormat> detect(File file, SignatureWindow window) {
+        droidDriver.setMaxBytesToScan(maxBytesToScan);
+        List<DetectedFormat> detectedFormats = detectFast(file, window, FilenameUtils.getExtension(file.getName()));
+        return detectedFormats != null ? detectedFormats : detectFull(file, window);
+    }
+
+    /**
+     * Identifies a file as the single format its extension belongs to, if the file matches a signature of that
+     * format, under the {@link DetectionPolicy#FAST} policy.  Some of the files identified this way are identified in
+     * full as well, to verify them.
+     * @return the format of the file, or null if the file has to be identified in full
+     */
+    private List<DetectedFormat> detectFast(File file, SignatureWindow window, String extension) {
+        if (detectionPolicy != DetectionPolicy.FAST || extension.isEmpty()) {
+            return null;
+        }
+
+        List<DetectedFormat> applicableFormats = droidDriver.getApplicableFormats(extension);
+        if (applicableFormats == null || applicableFormats.size() != 1) {
+            return null;
+        }
+        DetectedFormat format = applicableFormats.get(0);
+        if (!droidDriver.matchesSignatureOf(file, window, format.getId())) {
+            return null;
+        }
+        detectionMetrics.countFastDetection();
+
+        //formats identified in full don't list the extensions of the format
+        format.setPossibleExtensions(new ArrayList<>());
+        List<DetectedFormat> detectedFormats = new ArrayList<>();
+        detectedFormats.add(format);
+
+        if (verificationRate > 0 && ThreadLocalRandom.current().nextDouble() < verificationRate) {
+            List<DetectedFormat> fullFormats = window != null ? droidDriver.detectFormats(file, window)
+                    : droidDriver.detectFormats(file);
+            List<String> fullIds = fullFormats.stream().map(DetectedFormat::getId).collect(Collectors.toList());
+            boolean mismatch = fullIds.size() != 1 || !format.getId().equals(fullIds.get(0));
+            detectionMetrics.countVerification(mismatch);
+            if (mismatch) {
+                LOG.warn("{} was identified as {} from its extension, but as {} in full", file, format.getId(),
+                        fullIds);
+                return fullFormats;
+            }
+        }
+
+        return detectedFormats;
+    }
+
+    private List<DetectedFormat> detectFull(File file, SignatureWindow window) {
+        detectionMetrics.countFullDetection();
+        return window != null ? droidDriver.detectFormats(file, window) : droidDriver.detectFormats(file);
+    }
+
+    private List<DetectedFormat> orUnknown(List<DetectedFormat> detectedFormats) {
         //according to the contract, must return this format if none is detected
         if(detectedFormats.size() == 0){
             String unknownType = "application/octet-stream";
@@ -114,6 +363,16 @@ public class ContentDetectionService {
         return droidDriver.getApplicableFormats(extension);
     }
 
+    /**
+     * Returns the name and version of the tool used to detect file formats and of the signatures it uses, which
+     * identify the formats detected in the same content.  Formats cached by content must be discarded when these
+     * change.
+     * @return the name and version of the detector tool and of its signatures
+     */
+    public String getSignatures() {
+        return getDetectorName() + " " + getDetectorVersion() + " signatures V" + droidDriver.getSignatureVersion();
+    }
+
     /**
      *
      * Returns name of the tool used to detect file format
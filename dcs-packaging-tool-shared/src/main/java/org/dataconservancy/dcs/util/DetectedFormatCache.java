@@ -0,0 +1,224 @@
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.dcs.util;
+
+import org.dataconservancy.dcs.model.DetectedFormat;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of the formats detected in the content of files, keyed by the SHA-1 digest of the content, so that files
+ * holding the same content are only identified once. DROID also looks at the extension of the file name, both when no
+ * signature matches and to flag mismatches, and only scans the ends of files when a scan window is set, so the
+ * extension and the scan window are part of the key as well.
+ * <p>
+ * The entries are held, and persisted if a cache file is given, by a {@link PersistentLruCache}; the cache file
+ * records the signatures the formats were detected with.
+ * </p>
+ */
+public class DetectedFormatCache {
+
+    private static final int MAGIC = 0x44434446;
+
+    private static final int VERSION = 1;
+
+    private final PersistentLruCache<List<DetectedFormat>> entries;
+
+    private long hits;
+
+    private long misses;
+
+    /**
+     * Creates a cache kept in memory only.
+     */
+    public DetectedFormatCache() {
+        this(null);
+    }
+
+    /**
+     * @param cacheFile The file the cache is persisted to, or null to only keep the cache in memory.
+     */
+    public DetectedFormatCache(Path cacheFile) {
+        this.entries = new PersistentLruCache<>("format cache", cacheFile, MAGIC, VERSION, 100000,
+                new PersistentLruCache.RecordCodec<List<DetectedFormat>>() {
+                    @Override
+                    public void write(DataOutputStream out, String key, List<DetectedFormat> formats)
+                            throws IOException {
+                        DetectedFormatCache.write(out, key, formats);
+                    }
+
+                    @Override
+                    public Map.Entry<String, List<DetectedFormat>> read(DataInputStream in) throws IOException {
+                        return DetectedFormatCache.read(in);
+                    }
+                });
+    }
+
+    public int getMaxEntries() {
+        return entries.getMaxEntries();
+    }
+
+    /**
+     * @param maxEntries The maximum number of contents held by the cache, the least recently used are evicted first.
+     */
+    public void setMaxEntries(int maxEntries) {
+        entries.setMaxEntries(maxEntries);
+    }
+
+    /**
+     * @return The number of lookups answered by the cache.
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return The number of lookups the cache had no entry for.
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Identifies the signatures formats are detected with, so that a cache file written with other signatures is not
+     * used. Only has an effect before the cache is first used.
+     * @param signatures The name and version of the signatures.
+     */
+    void setSignatures(String signatures) {
+        entries.setSignatures(signatures);
+    }
+
+    /**
+     * Answers the formats detected in content before.
+     * @param sha1 The SHA-1 digest of the content.
+     * @param extension The extension of the name of the file holding the content.
+     * @param maxBytesToScan The number of bytes scanned at each end of the content, or -1 if all of it is scanned.
+     * @return A copy of the formats, or null if the content is not in the cache.
+     */
+    public synchronized List<DetectedFormat> get(String sha1, String extension, int maxBytesToScan) {
+        List<DetectedFormat> formats = entries.get(key(sha1, extension, maxBytesToScan));
+        if (formats == null) {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return copy(formats);
+    }
+
+    /**
+     * Caches the formats detected in content.
+     * @param sha1 The SHA-1 digest of the content.
+     * @param extension The extension of the name of the file holding the content.
+     * @param maxBytesToScan The number of bytes scanned at each end of the content, or -1 if all of it was scanned.
+     * @param formats The formats, which are copied.
+     */
+    public void put(String sha1, String extension, int maxBytesToScan, List<DetectedFormat> formats) {
+        entries.put(key(sha1, extension, maxBytesToScan), copy(formats));
+    }
+
+    /**
+     * Writes new entries to the cache file, compacting it first if it holds too many evicted or superseded entries.
+     */
+    public void flush() {
+        entries.flush();
+    }
+
+    /**
+     * Flushes and closes the cache file. The cache is read back from the file if it is used again.
+     */
+    public void close() {
+        entries.close();
+    }
+
+    private static void write(DataOutputStream out, String key, List<DetectedFormat> formats) throws IOException {
+        out.writeUTF(key);
+        out.writeShort(formats.size());
+        for (DetectedFormat format : formats) {
+            writeNullable(out, format.getId());
+            writeNullable(out, format.getName());
+            writeNullable(out, format.getVersion());
+            writeNullable(out, format.getMimeType());
+            List<String> extensions = format.getPossibleExtensions() != null ? format.getPossibleExtensions()
+                    : new ArrayList<>();
+            out.writeShort(extensions.size());
+            for (String extension : extensions) {
+                out.writeUTF(extension);
+            }
+        }
+    }
+
+    private static Map.Entry<String, List<DetectedFormat>> read(DataInputStream in) throws IOException {
+        String key = in.readUTF();
+        int formatCount = in.readUnsignedShort();
+        List<DetectedFormat> formats = new ArrayList<>(formatCount);
+        for (int i = 0; i < formatCount; i++) {
+            formats.add(readFormat(in));
+        }
+        return new AbstractMap.SimpleImmutableEntry<>(key, formats);
+    }
+
+    private static DetectedFormat readFormat(DataInputStream in) throws IOException {
+        DetectedFormat format = new DetectedFormat();
+        format.setId(readNullable(in));
+        format.setName(readNullable(in));
+        format.setVersion(readNullable(in));
+        format.setMimeType(readNullable(in));
+        int extensionCount = in.readUnsignedShort();
+        for (int i = 0; i < extensionCount; i++) {
+            format.getPossibleExtensions().add(in.readUTF());
+        }
+        return format;
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static List<DetectedFormat> copy(List<DetectedFormat> formats) {
+        List<DetectedFormat> copy = new ArrayList<>(formats.size());
+        for (DetectedFormat format : formats) {
+            DetectedFormat formatCopy = new DetectedFormat();
+            formatCopy.setId(format.getId());
+            formatCopy.setName(format.getName());
+            formatCopy.setVersion(format.getVersion());
+            formatCopy.setMimeType(format.getMimeType());
+            if (format.getPossibleExtensions() != null) {
+                formatCopy.setPossibleExtensions(new ArrayList<>(format.getPossibleExtensions()));
+            }
+            copy.add(formatCopy);
+        }
+        return copy;
+    }
+
+    private static String key(String sha1, String extension, int maxBytesToScan) {
+        return sha1.toLowerCase() + '\0' + extension.toLowerCase() + '\0' + maxBytesToScan;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.dcs.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts how the formats of files were detected by the {@link ContentDetectionService}, on all threads: how many
+ * files were identified from their extension and a check of the signatures of that format only, how many went through
+ * the full DROID identification, and how many of the former were verified against the full identification, and found
+ * to differ.  Formats answered by the {@link DetectedFormatCache} are counted by the cache.
+ */
+public class DetectionMetrics {
+
+    private final AtomicLong fastDetections = new AtomicLong();
+
+    private final AtomicLong fullDetections = new AtomicLong();
+
+    private final AtomicLong verifications = new AtomicLong();
+
+    private final AtomicLong mismatches = new AtomicLong();
+
+    private volatile double verificationRate;
+
+    /**
+     * @return the number of files identified from their extension, without the full identification
+     */
+    public long getFastDetectionCount() {
+        return fastDetections.get();
+    }
+
+    /**
+     * @return the number of files identified by the full identification, not counting verifications
+     */
+    public long getFullDetectionCount() {
+        return fullDetections.get();
+    }
+
+    /**
+     * @return the number of files identified from their extension which were also identified in full to verify them
+     */
+    public long getVerificationCount() {
+        return verifications.get();
+    }
+
+    /**
+     * @return the number of verified files whose full identification found other formats
+     */
+    public long getMismatchCount() {
+        return mismatches.get();
+    }
+
+    /**
+     * @return the share of the files identified from their extension which are verified, between 0 and 1
+     */
+    public double getVerificationRate() {
+        return verificationRate;
+    }
+
+    /**
+     * Starts counting over.
+     */
+    public void reset() {
+        fastDetections.set(0);
+        fullDetections.set(0);
+        verifications.set(0);
+        mismatches.set(0);
+    }
+
+    void setVerificationRate(double verificationRate) {
+        this.verificationRate = verificationRate;
+    }
+
+    void countFastDetection() {
+        fastDetections.incrementAndGet();
+    }
+
+    void countFullDetection() {
+        fullDetections.incrementAndGet();
+    }
+
+    void countVerification(boolean mismatch) {
+        verifications.incrementAndGet();
+        if (mismatch) {
+            mismatches.incrementAndGet();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d files identified from their extension, %d in full; %d verified (rate %.3f), "
+                + "%d mismatches", getFastDetectionCount(), getFullDetectionCount(), getVerificationCount(),
+                getVerificationRate(), getMismatchCount());
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.dcs.util;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used entries of a cache, keyed by strings, optionally persisted to an append-only log file.
+ * <p>
+ * Entries are kept in memory, most recently used last, and evicted once there are more than {@code maxEntries} of
+ * them. If a cache file is given, new entries are appended to it, and it is read back the first time the cache is
+ * used; it is rewritten without the evicted and superseded entries once it holds more than twice as many records as
+ * the cache. The cache file records the signatures the cached values were computed with, and is started over when
+ * they change. Only one cache at a time uses a cache file, which is locked through a {@code .lock} file next to it;
+ * other caches, e.g. in another process, work in memory only. If the cache file can't be read or written the cache
+ * keeps working in memory only.
+ * </p>
+ * @param <V> the type of the cached values
+ */
+public class PersistentLruCache<V> {
+
+    /**
+     * Writes and reads the records of the cache file.
+     * @param <V> the type of the cached values
+     */
+    public interface RecordCodec<V> {
+
+        /**
+         * Writes the record of an entry.
+         * @param out the cache file
+         * @param key the key of the entry
+         * @param value the value of the entry
+         * @throws IOException if the record can't be written
+         */
+        void write(DataOutputStream out, String key, V value) throws IOException;
+
+        /**
+         * Reads the record of an entry, throwing an {@link EOFException} if it is incomplete or invalid.
+         * @param in the cache file
+         * @return the key and the value of the entry
+         * @throws IOException if the record can't be read
+         */
+        Map.Entry<String, V> read(DataInputStream in) throws IOException;
+    }
+
+    /**
+     * Entries in access order, evicting the least recently used once there are more than {@code maxEntries}.
+     * @param <V> the type of the cached values
+     */
+    private static final class LruMap<V> extends LinkedHashMap<String, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        private int maxEntries;
+
+        private LruMap(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+            return size() > maxEntries;
+        }
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(PersistentLruCache.class);
+
+    private static final int MIN_COMPACTION_RECORDS = 1024;
+
+    private final String name;
+
+    private final Path cacheFile;
+
+    private final int magic;
+
+    private final int version;
+
+    private final RecordCodec<V> codec;
+
+    private int maxEntries;
+
+    private String signatures = "";
+
+    private LruMap<V> entries;
+
+    private DataOutputStream log;
+
+    private int logRecords;
+
+    private FileChannel lockChannel;
+
+    /**
+     * @param name The name of the cache in messages, e.g. "format cache".
+     * @param cacheFile The file the cache is persisted to, or null to only keep the cache in memory.
+     * @param magic The number identifying the cache files of the cache.
+     * @param version The version of the format of the records, cache files of other versions are started over.
+     * @param maxEntries The maximum number of entries held by the cache.
+     * @param codec Writes and reads the records of the cache file.
+     */
+    public PersistentLruCache(String name, Path cacheFile, int magic, int version, int maxEntries,
+                              RecordCodec<V> codec) {
+        this.name = name;
+        this.cacheFile = cacheFile;
+        this.magic = magic;
+        this.version = version;
+        this.codec = codec;
+        setMaxEntries(maxEntries);
+    }
+
+    public synchronized int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @param maxEntries The maximum number of entries held by the cache, the least recently used are evicted first.
+     */
+    public synchronized void setMaxEntries(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("The " + name + " must hold at least one entry: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        if (entries != null) {
+            entries.maxEntries = maxEntries;
+        }
+    }
+
+    /**
+     * Identifies the signatures the cached values are computed with, so that a cache file written with other
+     * signatures is not used. Only has an effect before the cache is first used.
+     * @param signatures The name and version of the signatures.
+     */
+    public synchronized void setSignatures(String signatures) {
+        this.signatures = signatures != null ? signatures : "";
+    }
+
+    /**
+     * @param key The key of the entry.
+     * @return The cached value, or null if the cache has no entry for the key.
+     */
+    public synchronized V get(String key) {
+        open();
+        return entries.get(key);
+    }
+
+    /**
+     * Caches a value, and appends it to the cache file.
+     * @param key The key of the entry.
+     * @param value The value, which must not be changed afterwards.
+     */
+    public synchronized void put(String key, V value) {
+        open();
+        entries.put(key, value);
+
+        if (log != null) {
+            try {
+                codec.write(log, key, value);
+                logRecords++;
+            } catch (IOException e) {
+                disablePersistence(e);
+            }
+        }
+    }
+
+    /**
+     * Writes new entries to the cache file, compacting it first if it holds too many evicted or superseded entries.
+     */
+    public synchronized void flush() {
+        if (log == null) {
+            return;
+        }
+
+        try {
+            if (logRecords > MIN_COMPACTION_RECORDS && logRecords > 2 * entries.size()) {
+                compact();
+            } else {
+                log.flush();
+            }
+        } catch (IOException e) {
+            disablePersistence(e);
+        }
+    }
+
+    /**
+     * Flushes and closes the cache file. The cache is read back from the file if it is used again.
+     */
+    public synchronized void close() {
+        flush();
+
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                LOG.warn("Unable to close {} '{}': {}", name, cacheFile, e.getMessage());
+            }
+        }
+
+        log = null;
+        entries = null;
+        unlock();
+    }
+
+    /**
+     * Loads the cache file the first time the cache is used, and opens it for appending.
+     */
+    private void open() {
+        if (entries != null) {
+            return;
+        }
+
+        entries = new LruMap<>(maxEntries);
+        logRecords = 0;
+
+        if (cacheFile == null) {
+            return;
+        }
+
+        try {
+            Files.createDirectories(cacheFile.toAbsolutePath().getParent());
+            if (!lock()) {
+                LOG.info("{} '{}' is in use by another cache, caching in memory only", name, cacheFile);
+                return;
+            }
+
+            long validLength = load();
+            if (validLength > 0) {
+                try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.WRITE)) {
+                    // Drop a record left incomplete by an earlier crash
+                    channel.truncate(validLength);
+                }
+                log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile.toFile(), true)));
+            } else {
+                // New, unreadable or outdated cache file, start over
+                log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile.toFile(), false)));
+                writeHeader(log);
+            }
+        } catch (IOException e) {
+            disablePersistence(e);
+        }
+    }
+
+    /**
+     * Reads the entries of the cache file.
+     * @return The length of the valid part of the file, or 0 if the file doesn't exist or can't be used.
+     */
+    private long load() throws IOException {
+        if (!Files.exists(cacheFile)) {
+            return 0;
+        }
+
+        long validLength = 0;
+        try (CountingInputStream counter = new CountingInputStream(
+                new BufferedInputStream(Files.newInputStream(cacheFile)));
+             DataInputStream in = new DataInputStream(counter)) {
+            if (in.readInt() != magic || in.readInt() != version) {
+                LOG.info("Ignoring {} '{}' written in an unknown format", name, cacheFile);
+                return 0;
+            }
+            if (!in.readUTF().equals(signatures)) {
+                LOG.info("Ignoring {} '{}' written with other signatures", name, cacheFile);
+                return 0;
+            }
+            validLength = counter.getByteCount();
+
+            while (true) {
+                Map.Entry<String, V> entry = codec.read(in);
+                entries.put(entry.getKey(), entry.getValue());
+                logRecords++;
+                validLength = counter.getByteCount();
+            }
+        } catch (EOFException | UTFDataFormatException e) {
+            // End of the log, possibly in the middle of a record that was being written
+        }
+
+        return validLength;
+    }
+
+    /**
+     * Rewrites the cache file with only the entries currently held by the cache.
+     */
+    private void compact() throws IOException {
+        log.close();
+
+        Path compacted = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(compacted)))) {
+            writeHeader(out);
+            for (Map.Entry<String, V> entry : entries.entrySet()) {
+                codec.write(out, entry.getKey(), entry.getValue());
+            }
+        }
+        Files.move(compacted, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile.toFile(), true)));
+        logRecords = entries.size();
+    }
+
+    private void disablePersistence(IOException e) {
+        LOG.warn("Unable to use {} file '{}', caching in memory only: {}", name, cacheFile, e.getMessage());
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException ignored) {
+                // Already failing
+            }
+        }
+        log = null;
+        unlock();
+    }
+
+    private void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(magic);
+        out.writeInt(version);
+        out.writeUTF(signatures);
+    }
+
+    /**
+     * Locks the cache file against other caches, in this process or in others.
+     * @return true if the lock was acquired, false if another cache holds it
+     */
+    private boolean lock() throws IOException {
+        lockChannel = FileChannel.open(cacheFile.resolveSibling(cacheFile.getFileName() + ".lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        boolean locked;
+        try {
+            locked = lockChannel.tryLock() != null;
+        } catch (OverlappingFileLockException e) {
+            // Held by another cache of this process
+            locked = false;
+        }
+
+        if (!locked) {
+            unlock();
+        }
+        return locked;
+    }
+
+    private void unlock() {
+        if (lockChannel != null) {
+            try {
+                // Closing the channel releases the lock
+                lockChannel.close();
+            } catch (IOException e) {
+                LOG.warn("Unable to unlock {} '{}': {}", name, cacheFile, e.getMessage());
+            }
+        }
+        lockChannel = null;
+    }
+}
@@ -42,13 +42,70 @@ public class DroidDriver {
      * @return a List of the detected file formats
      */
     public List<DetectedFormat> detectFormats(File file) {
-        List<DetectedFormat> formats = new ArrayList<>();
+        if (!file.exists()) {
+            return detectFormats(file.getName());
+        }
 
+        return toDetectedFormats(droidIdentifier.detectFormat(file));
+    }
+
+    /**
+     * Takes a file and the signature window captured while it was read, and returns a list of DetectedFormats after
+     * running file identification against the window.  If the file doesn't actually exist it will simply use
+     * detection based on the file name.
+     *
+     * @param file  the file.
+     * @param window the head and tail bytes of the file
+     * @return a List of the detected file formats
+     */
+    public List<DetectedFormat> detectFormats(File file, SignatureWindow window) {
         if (!file.exists()) {
             return detectFormats(file.getName());
         }
 
-        IdentificationResultCollection identificationResultCollection = droidIdentifier.detectFormat(file);
+        return toDetectedFormats(droidIdentifier.detectFormat(file, window));
+    }
+
+    /**
+     * Checks a file against the binary signatures of one format only.
+     *
+     * @param file  the file.
+     * @param window the head and tail bytes of the file, or null to read the file
+     * @param puid the PRONOM identifier of the format
+     * @return true if the file matches a binary signature of the format
+     * @see DroidIdentifier#matchesSignatureOf(File, SignatureWindow, String)
+     */
+    public boolean matchesSignatureOf(File file, SignatureWindow window, String puid) {
+        return file.exists() && droidIdentifier.matchesSignatureOf(file, window, puid);
+    }
+
+    /**
+     * Limits the number of bytes scanned for signatures at the beginning and at the end of files.
+     *
+     * @param maxBytes the maximum number of bytes to scan from each end, or a negative number to scan entire files
+     * @see DroidIdentifier#setMaxBytesToScan(int)
+     */
+    public void setMaxBytesToScan(int maxBytes) {
+        droidIdentifier.setMaxBytesToScan(maxBytes);
+    }
+
+    /**
+     * @return the maximum number of bytes scanned from each end of a file, or -1 if entire files are scanned
+     */
+    public int getMaxBytesToScan() {
+        return droidIdentifier.getMaxBytesToScan();
+    }
+
+    /**
+     * @return the version of the binary signatures formats are detected with, or null if they couldn't be loaded
+     */
+    public String getSignatureVersion() {
+        return droidIdentifier.getSignatureVersion();
+    }
+
+    private List<DetectedFormat> toDetectedFormats(IdentificationResultCollection identificationResultCollection) {
+        List<DetectedFormat> formats = new ArrayList<>();
+
         for (IdentificationResult identificationResult : identificationResultCollection.getResults()){
             DetectedFormat format = new DetectedFormat();
             format.setId(identificationResult.getPuid());
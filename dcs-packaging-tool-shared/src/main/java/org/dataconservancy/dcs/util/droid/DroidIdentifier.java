@@ -17,13 +17,8 @@ package org.dataconservancy.dcs.util.droid;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import uk.gov.nationalarchives.droid.container.ContainerFileIdentificationRequestFactory;
-import uk.gov.nationalarchives.droid.container.ContainerSignatureSaxParser;
-import uk.gov.nationalarchives.droid.container.ole2.Ole2Identifier;
-import uk.gov.nationalarchives.droid.container.ole2.Ole2IdentifierEngine;
-import uk.gov.nationalarchives.droid.container.zip.ZipIdentifier;
-import uk.gov.nationalarchives.droid.container.zip.ZipIdentifierEngine;
 import uk.gov.nationalarchives.droid.core.BinarySignatureIdentifier;
+import uk.gov.nationalarchives.droid.core.IdentificationRequestByteReaderAdapter;
 import uk.gov.nationalarchives.droid.core.interfaces.IdentificationMethod;
 import uk.gov.nationalarchives.droid.core.interfaces.IdentificationRequest;
 import uk.gov.nationalarchives.droid.core.interfaces.IdentificationResult;
@@ -31,45 +26,72 @@ import uk.gov.nationalarchives.droid.core.interfaces.IdentificationResultCollect
 import uk.gov.nationalarchives.droid.core.interfaces.IdentificationResultImpl;
 import uk.gov.nationalarchives.droid.core.interfaces.RequestIdentifier;
 import uk.gov.nationalarchives.droid.core.interfaces.archive.ArchiveFormatResolver;
-import uk.gov.nationalarchives.droid.core.interfaces.archive.ArchiveFormatResolverImpl;
 import uk.gov.nationalarchives.droid.core.interfaces.archive.ContainerIdentifier;
 import uk.gov.nationalarchives.droid.core.interfaces.archive.ContainerIdentifierFactory;
-import uk.gov.nationalarchives.droid.core.interfaces.archive.ContainerIdentifierFactoryImpl;
 import uk.gov.nationalarchives.droid.core.interfaces.resource.FileSystemIdentificationRequest;
 import uk.gov.nationalarchives.droid.core.interfaces.resource.RequestMetaData;
+import uk.gov.nationalarchives.droid.core.signature.ByteReader;
 import uk.gov.nationalarchives.droid.core.signature.FileFormat;
-import uk.gov.nationalarchives.droid.core.signature.droid6.FFSignatureFile;
+import uk.gov.nationalarchives.droid.core.signature.droid6.InternalSignature;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.lang.reflect.Field;
 import java.net.URI;
 import java.util.List;
 
 /**
  * Wrapper class for the DROID API. 
- *
+ * <p>
+ * The signature files are parsed once per JVM into a {@link DroidSignatureEngine} shared by all identifiers, so an
+ * identifier is cheap to create.  An identifier keeps the identification in progress to itself, so it must not be
+ * used by several threads at once; use one identifier per thread instead.
+ * </p>
  */
 public class DroidIdentifier {
     
     private final Logger log = LoggerFactory.getLogger(DroidIdentifier.class);
 
-    private String signatureFilePath;
-    private String containerSignatureFilePath;
-    private BinarySignatureIdentifier droid;
-    private ContainerIdentifierFactory containerIdentifierFactory;
-    private ArchiveFormatResolver containerFormatResolver;
+    private final DroidSignatureEngine engine;
+    private final BinarySignatureIdentifier droid;
+    private final ContainerIdentifierFactory containerIdentifierFactory;
+    private final ArchiveFormatResolver containerFormatResolver;
     private IdentificationRequest identificationRequest;
-    private boolean initialized;
-    
-    // This is set to -1 so the entire file is always scanned.
-    private int maxBytes = -1;
 
     public DroidIdentifier() {
-        if (!initialized) {
-            initializeDroid();
-        }
+        engine = DroidSignatureEngine.getInstance();
+        droid = engine.getDroid();
+        containerIdentifierFactory = engine.getContainerIdentifierFactory();
+        containerFormatResolver = engine.getContainerFormatResolver();
+    }
+
+    /**
+     * Limits the number of bytes scanned for signatures at the beginning and at the end of a file, and of the entries
+     * of container files.  Signatures which can occur anywhere in a file are only looked for within these bytes, so
+     * the identification of large files no longer takes time proportional to their size, at the price of missing
+     * formats whose signatures lie further inside.
+     * <p>
+     * DROID keeps this limit with the signatures, so it applies to all identifiers.
+     * </p>
+     *
+     * @param maxBytes the maximum number of bytes to scan from each end, or a negative number to scan entire files
+     */
+    public void setMaxBytesToScan(int maxBytes) {
+        engine.setMaxBytesToScan(maxBytes < 0 ? -1 : maxBytes);
+    }
+
+    /**
+     * @return the maximum number of bytes scanned from each end of a file, or -1 if entire files are scanned
+     */
+    public int getMaxBytesToScan() {
+        return engine.getMaxBytesToScan();
+    }
+
+    /**
+     * @return the version of the binary signatures formats are identified with, or null if they couldn't be loaded
+     */
+    public String getSignatureVersion() {
+        return engine.getSignatureFile() != null ? engine.getSignatureFile().getVersion() : null;
     }
 
     /**
@@ -81,7 +103,69 @@ public class DroidIdentifier {
     public IdentificationResultCollection detectFormat(File file) {
 
         openIdentificationRequest(file);
-        droid.setMaxBytesToScan(maxBytes);
+        return identify();
+    }
+
+    /**
+     * Identifies the format of a given file from the bytes captured in a signature window, so that the file does not
+     * have to be read again. Bytes outside of the window are read from the file only if a signature requires them.
+     *
+     * @param file the file to be processed
+     * @param window the signature window captured while reading the file
+     * @return collection of identification results
+     */
+    public IdentificationResultCollection detectFormat(File file, SignatureWindow window) {
+
+        identificationRequest = new WindowedIdentificationRequest(file, window);
+        return identify();
+    }
+
+    /**
+     * Checks a file against the binary signatures of one format only, rather than against all of them.  This is a
+     * cheap check that a file has the format its name suggests; it doesn't tell whether a format of higher priority
+     * matches the file as well.  Container formats, and formats without binary signatures, never match, since their
+     * files can't be identified by their binary signatures alone.
+     *
+     * @param file the file to be checked
+     * @param window the signature window captured while reading the file, or null to read the file
+     * @param puid the PRONOM identifier of the format
+     * @return true if one of the binary signatures of the format matches the file
+     */
+    public boolean matchesSignatureOf(File file, SignatureWindow window, String puid) {
+        List<InternalSignature> signatures = engine.getInternalSignatures(puid);
+        if (signatures.isEmpty() || containerFormatResolver.forPuid(puid) != null) {
+            return false;
+        }
+
+        if (window != null) {
+            identificationRequest = new WindowedIdentificationRequest(file, window);
+        } else {
+            openIdentificationRequest(file);
+        }
+        try {
+            ByteReader reader = new IdentificationRequestByteReaderAdapter(identificationRequest);
+            long maxBytes = engine.getMaxBytesToScan();
+            for (InternalSignature signature : signatures) {
+                if (signature.matches(reader, maxBytes)) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (RuntimeException e) {
+            log.error("Could not check the signatures of " + puid + " against " + file, e);
+            return false;
+        } finally {
+            closeIdentificationRequest();
+        }
+    }
+
+    /**
+     * Runs binary, container and extension identification against the currently open identification request, and
+     * closes the request.
+     *
+     * @return collection of identification results
+     */
+    private IdentificationResultCollection identify() {
         IdentificationResultCollection results = droid.matchBinarySignatures(identificationRequest);
         results = processContainerResults(results);
         droid.removeLowerPriorityHits(results);
@@ -101,7 +185,7 @@ public class DroidIdentifier {
      */
     public List<FileFormat> getFileFormatByExtension(String extension) {
         try {
-            return retrieveSigFileDetails().getFileFormatsForExtension(extension);
+            return engine.getSignatureFile().getFileFormatsForExtension(extension);
         } catch (Exception e) {
             log.error("Could not retrieve Droid Signature file to looking file format for given extension \""
                     + extension + "\"", e);
@@ -125,7 +209,7 @@ public class DroidIdentifier {
         else {
             for (IdentificationResult identificationResult : results.getResults()) {
                 try {
-                    FileFormat fileFormat = retrieveSigFileDetails().getFileFormat(identificationResult.getPuid());
+                    FileFormat fileFormat = engine.getSignatureFile().getFileFormat(identificationResult.getPuid());
                     IdentificationResultImpl result = new IdentificationResultImpl();
                     result.setMimeType(fileFormat.getMimeType());
                     result.setName(fileFormat.getName());
@@ -158,7 +242,6 @@ public class DroidIdentifier {
             if (format != null) {
                 try {
                     ContainerIdentifier containerIdentifier = containerIdentifierFactory.getIdentifier(format);
-                    containerIdentifier.setMaxBytesToScan(maxBytes);
                     IdentificationResultCollection containerResults = containerIdentifier.submit(identificationRequest);
                     if (containerResults.getResults().size() > 0) {
                         droid.removeLowerPriorityHits(containerResults);
@@ -189,50 +272,6 @@ public class DroidIdentifier {
         return droid.matchExtensions(identificationRequest, false);
     }
 
-    /**
-     * Helper method that initializes DroidIdentifier and gets it ready for identification.
-     */
-    private void initializeDroid() {
-        try {
-            setSignatureFiles();
-            droid = new BinarySignatureIdentifier();
-            droid.setSignatureFile(signatureFilePath);
-            droid.init();
-            
-            containerIdentifierFactory = new ContainerIdentifierFactoryImpl();
-            containerFormatResolver = new ArchiveFormatResolverImpl();
-            
-            Ole2Identifier ole2Identifier = new Ole2Identifier();
-            ZipIdentifier zipIdentifier = new ZipIdentifier();
-            
-            ole2Identifier.setSignatureFilePath(containerSignatureFilePath);
-            ole2Identifier.setSignatureFileParser(new ContainerSignatureSaxParser());
-            ole2Identifier.setContainerType("OLE2");
-            ole2Identifier.setDroidCore(droid);
-            ole2Identifier.setContainerIdentifierFactory(containerIdentifierFactory);
-            ole2Identifier.setContainerFormatResolver(containerFormatResolver);
-            Ole2IdentifierEngine ole2IdentifierEngine = new Ole2IdentifierEngine();
-            ole2IdentifierEngine.setRequestFactory(new ContainerFileIdentificationRequestFactory());
-            ole2Identifier.setIdentifierEngine(ole2IdentifierEngine);
-            ole2Identifier.init();
-            
-            zipIdentifier.setSignatureFilePath(containerSignatureFilePath);
-            zipIdentifier.setSignatureFileParser(new ContainerSignatureSaxParser());
-            zipIdentifier.setContainerType("ZIP");
-            zipIdentifier.setDroidCore(droid);
-            zipIdentifier.setContainerIdentifierFactory(containerIdentifierFactory);
-            zipIdentifier.setContainerFormatResolver(containerFormatResolver);
-            ZipIdentifierEngine zipIdentifierEngine = new ZipIdentifierEngine();
-            zipIdentifierEngine.setRequestFactory(new ContainerFileIdentificationRequestFactory());
-            zipIdentifier.setIdentifierEngine(zipIdentifierEngine);
-            zipIdentifier.init();
-            initialized = true;
-        }
-        catch (Exception e) {
-            log.error("Could not initialize Droid.", e);
-        }
-    }
-    
     /**
      * Helper method to open an identification request.
      */
@@ -262,27 +301,4 @@ public class DroidIdentifier {
             log.error("Could not close identification request.", e);
         }
     }
-
-    /**
-     * Helper method that initializes DroidSignatureFile and sets signature files.
-     */
-    private void setSignatureFiles() {
-        DroidSignatureFileManager fileManager = new DroidSignatureFileManager();
-        
-        File signatureFile = fileManager.getLatestSignatureFile();
-        if (signatureFile != null) {
-            signatureFilePath = signatureFile.getPath();
-        }
-
-        File containerFile = fileManager.getLatestContainerFile();
-        if (containerFile != null) {
-            containerSignatureFilePath = containerFile.getPath();
-        }
-    }
-
-    private FFSignatureFile retrieveSigFileDetails() throws Exception {
-        Field privateField = BinarySignatureIdentifier.class.getDeclaredField("sigFile");
-        privateField.setAccessible(true);
-        return (FFSignatureFile) privateField.get(droid);
-    }
 }
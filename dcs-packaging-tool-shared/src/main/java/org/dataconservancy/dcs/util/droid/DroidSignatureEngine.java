@@ -0,0 +1,216 @@
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.dcs.util.droid;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.gov.nationalarchives.droid.container.AbstractContainerIdentifier;
+import uk.gov.nationalarchives.droid.container.ContainerFileIdentificationRequestFactory;
+import uk.gov.nationalarchives.droid.container.ContainerSignatureDefinitions;
+import uk.gov.nationalarchives.droid.container.ContainerSignatureSaxParser;
+import uk.gov.nationalarchives.droid.container.ole2.Ole2Identifier;
+import uk.gov.nationalarchives.droid.container.ole2.Ole2IdentifierEngine;
+import uk.gov.nationalarchives.droid.container.zip.ZipIdentifier;
+import uk.gov.nationalarchives.droid.container.zip.ZipIdentifierEngine;
+import uk.gov.nationalarchives.droid.core.BinarySignatureIdentifier;
+import uk.gov.nationalarchives.droid.core.SignatureParseException;
+import uk.gov.nationalarchives.droid.core.interfaces.archive.ArchiveFormatResolver;
+import uk.gov.nationalarchives.droid.core.interfaces.archive.ArchiveFormatResolverImpl;
+import uk.gov.nationalarchives.droid.core.interfaces.archive.ContainerIdentifierFactory;
+import uk.gov.nationalarchives.droid.core.interfaces.archive.ContainerIdentifierFactoryImpl;
+import uk.gov.nationalarchives.droid.core.signature.droid6.FFSignatureFile;
+import uk.gov.nationalarchives.droid.core.signature.droid6.InternalSignature;
+
+import javax.xml.bind.JAXBException;
+import java.io.File;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The DROID signature model shared by all {@link DroidIdentifier}s of the JVM. The binary and container signature
+ * files are parsed once, when the engine is first used, and are only read afterwards, so that the engine can be used
+ * by any number of threads at once. Identifiers keep the state of the identification in progress to themselves.
+ * <p>
+ * The number of bytes scanned for signatures is kept by DROID in the signature model, so it is a setting of the
+ * engine, shared by all identifiers.
+ * </p>
+ */
+final class DroidSignatureEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(DroidSignatureEngine.class);
+
+    private final BinarySignatureIdentifier droid = new BinarySignatureIdentifier();
+    private final ContainerIdentifierFactory containerIdentifierFactory = new ContainerIdentifierFactoryImpl();
+    private final ArchiveFormatResolver containerFormatResolver = new ArchiveFormatResolverImpl();
+    private final List<AbstractContainerIdentifier> containerIdentifiers = new ArrayList<>();
+    private FFSignatureFile signatureFile;
+    private final Map<String, List<InternalSignature>> internalSignatures = new HashMap<>();
+
+    private volatile int maxBytes = -1;
+
+    private DroidSignatureEngine() {
+        initializeDroid();
+    }
+
+    /**
+     * @return the engine of the JVM, which is initialized by the first call
+     */
+    static DroidSignatureEngine getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    BinarySignatureIdentifier getDroid() {
+        return droid;
+    }
+
+    ContainerIdentifierFactory getContainerIdentifierFactory() {
+        return containerIdentifierFactory;
+    }
+
+    ArchiveFormatResolver getContainerFormatResolver() {
+        return containerFormatResolver;
+    }
+
+    /**
+     * @return the parsed binary signature file, or null if DROID could not be initialized
+     */
+    FFSignatureFile getSignatureFile() {
+        return signatureFile;
+    }
+
+    /**
+     * @param puid the PRONOM identifier of a format
+     * @return the binary signatures identifying the format, which is empty if the format has none
+     */
+    List<InternalSignature> getInternalSignatures(String puid) {
+        List<InternalSignature> signatures = internalSignatures.get(puid);
+        return signatures != null ? signatures : Collections.emptyList();
+    }
+
+    /**
+     * Limits the number of bytes scanned for signatures at the beginning and at the end of files, and of the entries
+     * of container files, for all identifiers.
+     *
+     * @param maxBytes the maximum number of bytes to scan from each end, or -1 to scan entire files
+     */
+    void setMaxBytesToScan(int maxBytes) {
+        if (maxBytes == this.maxBytes) {
+            return;
+        }
+        synchronized (this) {
+            droid.setMaxBytesToScan(maxBytes);
+            containerIdentifiers.forEach(identifier -> identifier.setMaxBytesToScan(maxBytes));
+            // written last, so that threads reading it also see the settings above
+            this.maxBytes = maxBytes;
+        }
+    }
+
+    /**
+     * @return the maximum number of bytes scanned from each end of a file, or -1 if entire files are scanned
+     */
+    int getMaxBytesToScan() {
+        return maxBytes;
+    }
+
+    /**
+     * Parses the signature files, and sets up the binary and container identifiers.  The container signature file is
+     * parsed once for both container identifiers.
+     */
+    private void initializeDroid() {
+        DroidSignatureFileManager fileManager = new DroidSignatureFileManager();
+        File binarySignatures = fileManager.getLatestSignatureFile();
+        File containerSignatures = fileManager.getLatestContainerFile();
+
+        try {
+            droid.setSignatureFile(binarySignatures == null ? null : binarySignatures.getPath());
+            droid.init();
+            droid.setMaxBytesToScan(maxBytes);
+            Field sigFile = BinarySignatureIdentifier.class.getDeclaredField("sigFile");
+            sigFile.setAccessible(true);
+            signatureFile = (FFSignatureFile) sigFile.get(droid);
+            for (InternalSignature signature : signatureFile.getSignatures()) {
+                for (int i = 0; i < signature.getNumFileFormats(); i++) {
+                    internalSignatures.computeIfAbsent(signature.getFileFormat(i).getPUID(), puid -> new ArrayList<>())
+                            .add(signature);
+                }
+            }
+
+            String containerSignaturePath = containerSignatures == null ? null : containerSignatures.getPath();
+            ContainerSignatureSaxParser containerSignatureParser = new SharedContainerSignatureParser();
+
+            Ole2Identifier ole2Identifier = new Ole2Identifier();
+            ole2Identifier.setSignatureFilePath(containerSignaturePath);
+            ole2Identifier.setSignatureFileParser(containerSignatureParser);
+            ole2Identifier.setContainerType("OLE2");
+            ole2Identifier.setDroidCore(droid);
+            ole2Identifier.setContainerIdentifierFactory(containerIdentifierFactory);
+            ole2Identifier.setContainerFormatResolver(containerFormatResolver);
+            Ole2IdentifierEngine ole2IdentifierEngine = new Ole2IdentifierEngine();
+            ole2IdentifierEngine.setRequestFactory(new ContainerFileIdentificationRequestFactory());
+            ole2Identifier.setIdentifierEngine(ole2IdentifierEngine);
+            ole2Identifier.init();
+            containerIdentifiers.add(ole2Identifier);
+
+            ZipIdentifier zipIdentifier = new ZipIdentifier();
+            zipIdentifier.setSignatureFilePath(containerSignaturePath);
+            zipIdentifier.setSignatureFileParser(containerSignatureParser);
+            zipIdentifier.setContainerType("ZIP");
+            zipIdentifier.setDroidCore(droid);
+            zipIdentifier.setContainerIdentifierFactory(containerIdentifierFactory);
+            zipIdentifier.setContainerFormatResolver(containerFormatResolver);
+            ZipIdentifierEngine zipIdentifierEngine = new ZipIdentifierEngine();
+            zipIdentifierEngine.setRequestFactory(new ContainerFileIdentificationRequestFactory());
+            zipIdentifier.setIdentifierEngine(zipIdentifierEngine);
+            zipIdentifier.init();
+            containerIdentifiers.add(zipIdentifier);
+        }
+        catch (Exception e) {
+            log.error("Could not initialize Droid.", e);
+        }
+    }
+
+    /**
+     * Container signature parser which only parses the container signature file the first time it is asked to, and
+     * answers the same definitions afterwards.  The definitions are only read by the container identifiers.
+     */
+    private static class SharedContainerSignatureParser extends ContainerSignatureSaxParser {
+
+        private ContainerSignatureDefinitions definitions;
+
+        SharedContainerSignatureParser() throws JAXBException {
+        }
+
+        @Override
+        public ContainerSignatureDefinitions parse(InputStream in) throws SignatureParseException {
+            if (definitions == null) {
+                definitions = super.parse(in);
+            }
+            return definitions;
+        }
+    }
+
+    /**
+     * Initializes the engine on first use, and publishes it safely to all threads.
+     */
+    private static class Holder {
+        private static final DroidSignatureEngine INSTANCE = new DroidSignatureEngine();
+    }
+}
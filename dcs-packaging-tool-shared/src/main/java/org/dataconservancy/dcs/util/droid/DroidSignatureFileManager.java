@@ -16,6 +16,7 @@
 package org.dataconservancy.dcs.util.droid;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,7 +27,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 /**
  * Helper class for loading the latest signature file and container file from nationalarchives.gov.uk. Note that currently we only fetch the latest signature file.
@@ -51,6 +56,20 @@ public class DroidSignatureFileManager {
     private static final String LATEST_KNOWN_CONTAINER_VERSION = "20140717";
     private final Logger log = LoggerFactory.getLogger(this.getClass());
 
+    private final File cacheDirectory;
+
+    public DroidSignatureFileManager() {
+        this(null);
+    }
+
+    /**
+     * @param cacheDirectory the directory signature files are extracted to from the classpath, or null to use the
+     *                       signature file directory in the user's home directory
+     */
+    DroidSignatureFileManager(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
     /**
      * Gets the latest signature file available by droid. Checks once a month to see if there is a new file, otherwise returns the currently saved file.
      *
@@ -59,6 +78,11 @@ public class DroidSignatureFileManager {
     public File getLatestSignatureFile() {
 
         //The code below to fetch the latest file is broken, so for now just read from the class path.
+        File cachedFile = getCachedClasspathFile(DEFAULT_SIGNATURE_FILE);
+        if (cachedFile != null) {
+            return cachedFile;
+        }
+
         try {
             File signatureFile = File.createTempFile("DROID_SignatureFile_V68", ".xml");
 	    signatureFile.deleteOnExit();
@@ -156,6 +180,11 @@ public class DroidSignatureFileManager {
     public File getLatestContainerFile() {
 
         //The code below to get latest version doesn't work so just get file from classpath.
+        File cachedFile = getCachedClasspathFile(DEFAULT_CONTAINER_FILE);
+        if (cachedFile != null) {
+            return cachedFile;
+        }
+
         try {
            File containerFile = File.createTempFile("container-signature", ".xml");
            getClasspathContainerFile(containerFile);
@@ -323,6 +352,73 @@ public class DroidSignatureFileManager {
         return newFileRetrieved;
     }
 
+    /**
+     * Gets a signature file from the classpath as a file which can be read by the droid library, without copying it
+     * on every run.  A signature file which is a file on the classpath is used as it is.  A signature file packaged
+     * in a jar is extracted to the signature file directory the first time it is needed, and reused by later runs for
+     * as long as it has the size of the packaged file and is not older than it.
+     * @param resource The classpath resource of the signature file.
+     * @return The signature file, or null if it can't be read as a file or extracted to the signature file directory.
+     */
+    private File getCachedClasspathFile(String resource) {
+        URL resourceUrl = DroidSignatureFileManager.class.getResource(resource);
+        if (resourceUrl == null) {
+            log.error("Unable to find classpath signature file: " + resource);
+            return null;
+        }
+
+        if ("file".equals(resourceUrl.getProtocol())) {
+            try {
+                return new File(resourceUrl.toURI());
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                log.debug("Unable to read classpath signature file " + resourceUrl + " in place: " + e.getMessage());
+            }
+        }
+
+        File directory = cacheDirectory != null ? cacheDirectory : getFileDirectory();
+        if (directory == null) {
+            return null;
+        }
+
+        return extractSignatureFile(resourceUrl, new File(directory, FilenameUtils.getName(resource)));
+    }
+
+    /**
+     * Extracts a signature file to the given file, unless it was already extracted.  The file is replaced at once, so
+     * that other processes reading it never see a partial file.
+     * @param resourceUrl The url of the signature file.
+     * @param cachedFile The file to extract the signature file to.
+     * @return The extracted file, or null if the signature file couldn't be extracted.
+     */
+    File extractSignatureFile(URL resourceUrl, File cachedFile) {
+        File extracted = null;
+        try {
+            URLConnection connection = resourceUrl.openConnection();
+            //so that the jar is closed with the stream, rather than kept open for the life of the JVM
+            connection.setUseCaches(false);
+            try (InputStream in = connection.getInputStream()) {
+                long length = connection.getContentLengthLong();
+                long lastModified = connection.getLastModified();
+                if (length >= 0 && cachedFile.length() == length && cachedFile.lastModified() >= lastModified) {
+                    return cachedFile;
+                }
+
+                extracted = File.createTempFile(cachedFile.getName(), ".tmp", cachedFile.getParentFile());
+                Files.copy(in, extracted.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.move(extracted.toPath(), cachedFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            log.info("Extracted droid file " + resourceUrl + " to " + cachedFile);
+            return cachedFile;
+        } catch (IOException e) {
+            log.warn("Unable to extract droid file " + resourceUrl + " to " + cachedFile + ": " + e.getMessage());
+            if (extracted != null && !extracted.delete()) {
+                extracted.deleteOnExit();
+            }
+            return null;
+        }
+    }
+
     /**
      * Method to get the signature file from the classpath and copy it to a file so it can be read by the droid library.
      * @param signatureFile The file to save the classpath file to.
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.dcs.util.droid;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+
+/**
+ * Bounded view of the beginning and the end of a stream of bytes, captured while the stream is being read for some
+ * other purpose (e.g. calculating checksums). DROID binary signatures are anchored to the beginning or the end of a
+ * file, so a window of the head and tail bytes is enough to identify most content without reading the file again.
+ * <p>
+ * Bytes are offered to the window in order using {@link #update(byte[], int, int)}. The first {@code headCapacity}
+ * bytes are kept in the head buffer, and the last {@code tailCapacity} bytes after that are kept in a ring buffer.
+ * If the whole stream fits in the two buffers the window is {@link #isComplete() complete}, and every byte of the
+ * content can be served from memory.
+ * </p>
+ */
+public class SignatureWindow {
+
+    /**
+     * Default number of bytes kept for each of the head and the tail of the content.
+     */
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private final byte[] head;
+    private final byte[] tail;
+    private int headLength = 0;
+    private long length = 0;
+
+    /**
+     * Creates a window sized for content of the expected length, keeping at most {@link #DEFAULT_CAPACITY} bytes of
+     * the head and of the tail.
+     * @param expectedLength the expected length of the content, used to avoid allocating buffers for small files
+     */
+    public SignatureWindow(long expectedLength) {
+        this(expectedLength, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a window sized for content of the expected length.
+     * @param expectedLength the expected length of the content, used to avoid allocating buffers for small files
+     * @param capacity the maximum number of bytes kept for each of the head and the tail of the content
+     */
+    public SignatureWindow(long expectedLength, int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Window capacity must not be negative: " + capacity);
+        }
+
+        long expected = Math.max(expectedLength, 0);
+        int headCapacity = (int) Math.min(expected, capacity);
+        int tailCapacity = (int) Math.min(expected - headCapacity, capacity);
+
+        head = new byte[headCapacity];
+        tail = new byte[tailCapacity];
+    }
+
+    /**
+     * Offers the next bytes of the content to the window.
+     * @param b the buffer holding the bytes
+     * @param off the offset of the first byte in the buffer
+     * @param len the number of bytes to offer
+     */
+    public void update(byte[] b, int off, int len) {
+        int consumed = 0;
+
+        if (headLength < head.length) {
+            consumed = Math.min(len, head.length - headLength);
+            System.arraycopy(b, off, head, headLength, consumed);
+            headLength += consumed;
+        }
+
+        if (tail.length > 0) {
+            // Only the last tail.length bytes of what remains can end up in the ring buffer
+            int skip = Math.max(0, len - consumed - tail.length);
+            long position = length + consumed + skip;
+            for (int i = off + consumed + skip; i < off + len; i++, position++) {
+                tail[(int) ((position - head.length) % tail.length)] = b[i];
+            }
+        }
+
+        length += len;
+    }
+
+    /**
+     * @return the number of bytes offered to the window so far
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * @return true if every byte offered to the window is still held by it
+     */
+    public boolean isComplete() {
+        return length <= head.length + tail.length;
+    }
+
+    /**
+     * Answers the byte at the supplied position of the content, if it is held by the window.
+     * @param position the zero-based position of the byte in the content
+     * @return the byte as an unsigned value, or -1 if the byte is outside of the window
+     */
+    public int read(long position) {
+        if (position < 0 || position >= length) {
+            return -1;
+        }
+
+        if (position < headLength) {
+            return head[(int) position] & 0xff;
+        }
+
+        if (tail.length > 0 && position >= head.length && position >= length - tail.length) {
+            return tail[(int) ((position - head.length) % tail.length)] & 0xff;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Opens a stream over the content held by the window. Only available when the window is
+     * {@link #isComplete() complete}.
+     * @return a stream over the whole content
+     * @throws IllegalStateException if the window does not hold the whole content
+     */
+    public InputStream openStream() {
+        if (!isComplete()) {
+            throw new IllegalStateException("Signature window does not hold the whole content (" + length + " bytes)");
+        }
+
+        InputStream headStream = new ByteArrayInputStream(head, 0, headLength);
+        int tailLength = (int) (length - headLength);
+        if (tailLength == 0) {
+            return headStream;
+        }
+
+        // The ring buffer has not wrapped, because the window is complete
+        return new SequenceInputStream(headStream, new ByteArrayInputStream(tail, 0, tailLength));
+    }
+}
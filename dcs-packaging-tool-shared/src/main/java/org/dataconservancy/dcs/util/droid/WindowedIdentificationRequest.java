@@ -0,0 +1,193 @@
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.dcs.util.droid;
+
+import net.domesdaybook.reader.ByteReader;
+import org.apache.commons.io.FilenameUtils;
+import uk.gov.nationalarchives.droid.core.interfaces.IdentificationRequest;
+import uk.gov.nationalarchives.droid.core.interfaces.RequestIdentifier;
+import uk.gov.nationalarchives.droid.core.interfaces.resource.RequestMetaData;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * DROID identification request served from a {@link SignatureWindow} captured while the file was read for another
+ * purpose. Bytes outside of the window are read from the file on demand, which only happens for large files whose
+ * signatures are not anchored close to the beginning or the end of the content. They are read in blocks of
+ * {@value #BLOCK_SIZE} bytes, the last few of which are kept, like DROID does when it reads files itself, so that
+ * scanning the whole content costs about as much as one sequential read of the file.
+ * <p>
+ * DROID's container identifiers (zip and OLE2) read the entire content through {@link #getSourceInputStream()}.
+ * Unless the window holds the entire content, that stream is opened on the file, so container files larger than
+ * the window are still read from disk a second time.
+ * </p>
+ */
+class WindowedIdentificationRequest implements IdentificationRequest {
+
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    private static final int CACHED_BLOCKS = 4;
+
+    private final File file;
+    private final SignatureWindow window;
+    private final RequestMetaData metaData;
+    private final RequestIdentifier identifier;
+    private final String extension;
+    private final ByteBuffer[] blocks = new ByteBuffer[CACHED_BLOCKS];
+    private final long[] blockPositions = new long[CACHED_BLOCKS];
+    private int nextBlock = 0;
+    private FileChannel channel;
+
+    WindowedIdentificationRequest(File file, SignatureWindow window) {
+        this.file = file;
+        this.window = window;
+        this.metaData = new RequestMetaData(window.length(), file.lastModified(), file.getName());
+        this.identifier = new RequestIdentifier(file.toURI());
+        this.extension = FilenameUtils.getExtension(file.getName()).toLowerCase();
+        Arrays.fill(blockPositions, -1);
+    }
+
+    @Override
+    public byte getByte(long position) {
+        int b = window.read(position);
+        if (b > -1) {
+            return (byte) b;
+        }
+
+        if (position < 0) {
+            throw new IndexOutOfBoundsException("Position " + position + " is before the start of " + file);
+        }
+
+        long blockPosition = position - position % BLOCK_SIZE;
+        ByteBuffer block;
+        try {
+            block = getBlock(blockPosition);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read byte " + position + " of " + file + ": " + e.getMessage(), e);
+        }
+
+        int offset = (int) (position - blockPosition);
+        if (offset >= block.limit()) {
+            throw new IndexOutOfBoundsException("Position " + position + " is beyond the end of " + file);
+        }
+
+        return block.get(offset);
+    }
+
+    /**
+     * @param blockPosition the position of the block in the file, a multiple of the block size
+     * @return the block, read from the file unless it is one of the blocks kept
+     * @throws IOException if the file can't be read
+     */
+    private ByteBuffer getBlock(long blockPosition) throws IOException {
+        for (int i = 0; i < CACHED_BLOCKS; i++) {
+            if (blockPositions[i] == blockPosition) {
+                return blocks[i];
+            }
+        }
+
+        if (channel == null) {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        }
+
+        // Replace the block read the longest time ago
+        int i = nextBlock;
+        nextBlock = (nextBlock + 1) % CACHED_BLOCKS;
+        if (blocks[i] == null) {
+            blocks[i] = ByteBuffer.allocate(BLOCK_SIZE);
+        }
+        ByteBuffer block = blocks[i];
+        blockPositions[i] = -1;
+
+        block.clear();
+        while (block.hasRemaining() && channel.read(block, blockPosition + block.position()) >= 0) {
+            // Keep reading until the block is full or the end of the file is reached
+        }
+        block.flip();
+
+        blockPositions[i] = blockPosition;
+        return block;
+    }
+
+    @Override
+    public ByteReader getReader() {
+        return this::getByte;
+    }
+
+    @Override
+    public String getFileName() {
+        return file.getName();
+    }
+
+    @Override
+    public long size() {
+        return window.length();
+    }
+
+    @Override
+    public String getExtension() {
+        return extension;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        Arrays.fill(blocks, null);
+        Arrays.fill(blockPositions, -1);
+    }
+
+    @Override
+    public InputStream getSourceInputStream() throws IOException {
+        if (window.isComplete()) {
+            return window.openStream();
+        }
+
+        return new FileInputStream(file);
+    }
+
+    @Override
+    public File getSourceFile() {
+        return file;
+    }
+
+    /**
+     * The content was already captured by the signature window, so there is nothing to read here.
+     * @param in ignored
+     */
+    @Override
+    public void open(InputStream in) {
+    }
+
+    @Override
+    public RequestMetaData getRequestMetaData() {
+        return metaData;
+    }
+
+    @Override
+    public RequestIdentifier getIdentifier() {
+        return identifier;
+    }
+}
@@ -15,14 +15,18 @@
  */
 package org.dataconservancy.dcs.util;
 
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
 import org.dataconservancy.dcs.model.DetectedFormat;
 import org.dataconservancy.dcs.util.droid.BaseFileSetUpTest;
+import org.dataconservancy.dcs.util.droid.SignatureWindow;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.io.File;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.ResourceBundle;
@@ -108,6 +112,99 @@ public class ContentDetectionServiceTest extends BaseFileSetUpTest {
         assertTrue(mimetypes.contains(ZIP_MIMETYPE));
     }
 
+    /**
+     * Test that a scan window set on one thread applies to the detection done on every thread
+     */
+    @Test
+    public void testScanWindowAppliesToAllThreads() throws Exception {
+        Thread configuring = new Thread(() -> ContentDetectionService.setMaxBytesToScan(1024));
+        configuring.start();
+        configuring.join();
+
+        try {
+            assertEquals(1024, ContentDetectionService.getMaxBytesToScan());
+            List<DetectedFormat> formats = underTest.detectFormats(PNG_FILE);
+            assertEquals(1, formats.size());
+            assertEquals(PNG_MIMETYPE, formats.get(0).getMimeType());
+        } finally {
+            ContentDetectionService.setMaxBytesToScan(-1);
+        }
+    }
+
+    /**
+     * Test that the formats of content identified before are answered by the format cache
+     */
+    @Test
+    public void testFormatsOfSameContentAreCached() throws Exception {
+        DetectedFormatCache cache = new DetectedFormatCache();
+        ContentDetectionService.setFormatCache(cache);
+        try {
+            SignatureWindow window = new SignatureWindow(PNG_FILE.length());
+            byte[] content = FileUtils.readFileToByteArray(PNG_FILE);
+            window.update(content, 0, content.length);
+            String sha1 = DigestUtils.sha1Hex(content);
+
+            List<DetectedFormat> formats = underTest.detectFormats(PNG_FILE, window, sha1);
+            assertEquals(PNG_MIMETYPE, formats.get(0).getMimeType());
+            assertEquals(0, cache.getHitCount());
+
+            assertEquals(formats, underTest.detectFormats(PNG_FILE, window, sha1));
+            assertEquals(1, cache.getHitCount());
+
+            //an unknown format is not cached as such
+            formats = underTest.detectFormats(MALFORMED_XML_FILE, new SignatureWindow(0), sha1);
+            assertEquals(1, formats.size());
+            assertEquals("application/octet-stream", formats.get(0).getMimeType());
+            assertEquals(Collections.emptyList(), cache.get(sha1, "xml", -1));
+        } finally {
+            ContentDetectionService.setFormatCache(new DetectedFormatCache());
+        }
+    }
+
+    /**
+     * Test that under the fast policy a file is identified as the single format of its extension if it matches a
+     * signature of that format, and is identified in full otherwise
+     */
+    @Test
+    public void testFastDetectionPolicy() throws Exception {
+        DetectionMetrics metrics = ContentDetectionService.getDetectionMetrics();
+        ContentDetectionService.setDetectionPolicy(ContentDetectionService.DetectionPolicy.FAST);
+        ContentDetectionService.setVerificationRate(1);
+        metrics.reset();
+        try {
+            List<DetectedFormat> formats = underTest.detectFormats(TAR_FILE);
+            assertEquals(1, formats.size());
+            assertEquals("x-fmt/265", formats.get(0).getId());
+            assertEquals(1, metrics.getFastDetectionCount());
+            assertEquals(1, metrics.getVerificationCount());
+            assertEquals(0, metrics.getMismatchCount());
+            assertEquals(0, metrics.getFullDetectionCount());
+
+            //text has no signature to check, and a tar file named as a gzip file doesn't match the gzip signature
+            assertEquals(TEXT_MIMETYPE, underTest.detectFormats(TEXT_FILE).get(0).getMimeType());
+            assertEquals(PNG_MIMETYPE, underTest.detectFormats(PNG_TXT_FILE).get(0).getMimeType());
+            assertEquals("x-fmt/265", underTest.detectFormats(TAR_GZ_FILE).get(0).getId());
+            assertEquals(1, metrics.getFastDetectionCount());
+            assertEquals(3, metrics.getFullDetectionCount());
+
+            ContentDetectionService.setDetectionPolicy(ContentDetectionService.DetectionPolicy.FULL);
+            assertEquals("x-fmt/265", underTest.detectFormats(TAR_FILE).get(0).getId());
+            assertEquals(1, metrics.getFastDetectionCount());
+        } finally {
+            ContentDetectionService.setDetectionPolicy(ContentDetectionService.DetectionPolicy.FULL);
+            ContentDetectionService.setVerificationRate(0);
+            metrics.reset();
+        }
+    }
+
+    /**
+     * Test that a verification rate outside of 0 to 1 is rejected
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidVerificationRate() {
+        ContentDetectionService.setVerificationRate(1.5);
+    }
+
     /**
      * Test that given a valiD file extension, getApplicableFormats would return formats applicable to that extension.
      * Given an invalid format, null would be returned.
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.dcs.util;
+
+import org.dataconservancy.dcs.model.DetectedFormat;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for the cache of detected formats
+ */
+public class DetectedFormatCacheTest {
+
+    private static final String SHA1 = "2fd4e1c67a2d28fced849ee1bb76e7391b93eb12";
+
+    @Rule
+    public TemporaryFolder tmpfolder = new TemporaryFolder();
+
+    /**
+     * Tests that formats are answered for the same content, extension and scan window only, and are copies that can
+     * be changed without changing the cache.
+     */
+    @Test
+    public void testGetAndPut() {
+        DetectedFormatCache cache = new DetectedFormatCache();
+        assertNull(cache.get(SHA1, "png", -1));
+
+        cache.put(SHA1, "png", -1, Collections.singletonList(png()));
+        List<DetectedFormat> formats = cache.get(SHA1.toUpperCase(), "PNG", -1);
+        assertEquals(Collections.singletonList(png()), formats);
+        formats.get(0).setName("Changed");
+        formats.add(png());
+        assertEquals(Collections.singletonList(png()), cache.get(SHA1, "png", -1));
+
+        assertNull(cache.get(SHA1, "txt", -1));
+        assertNull(cache.get(SHA1, "png", 1024));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+    }
+
+    /**
+     * Tests that the least recently used content is evicted first.
+     */
+    @Test
+    public void testEviction() {
+        DetectedFormatCache cache = new DetectedFormatCache();
+        cache.setMaxEntries(2);
+        cache.put("1", "", -1, Collections.singletonList(png()));
+        cache.put("2", "", -1, Collections.singletonList(png()));
+        assertNotNull(cache.get("1", "", -1));
+        cache.put("3", "", -1, Collections.singletonList(png()));
+
+        assertNotNull(cache.get("1", "", -1));
+        assertNull(cache.get("2", "", -1));
+        assertNotNull(cache.get("3", "", -1));
+    }
+
+    /**
+     * Tests that entries are read back from the cache file, including formats with missing values, and that the file
+     * is ignored once the signatures change.
+     */
+    @Test
+    public void testPersistence() throws Exception {
+        Path cacheFile = tmpfolder.getRoot().toPath().resolve("formats.cache");
+        DetectedFormat unknown = new DetectedFormat();
+        unknown.setMimeType("application/octet-stream");
+
+        DetectedFormatCache cache = new DetectedFormatCache(cacheFile);
+        cache.setSignatures("V68");
+        cache.put(SHA1, "png", -1, Collections.singletonList(png()));
+        cache.put("1", "", -1, Collections.singletonList(unknown));
+        cache.close();
+
+        cache = new DetectedFormatCache(cacheFile);
+        cache.setSignatures("V68");
+        assertEquals(Collections.singletonList(png()), cache.get(SHA1, "png", -1));
+        DetectedFormat format = cache.get("1", "", -1).get(0);
+        assertNull(format.getId());
+        assertEquals("application/octet-stream", format.getMimeType());
+        cache.close();
+
+        cache = new DetectedFormatCache(cacheFile);
+        cache.setSignatures("V77");
+        assertNull(cache.get(SHA1, "png", -1));
+        cache.close();
+    }
+
+    /**
+     * Tests that a record left incomplete in the cache file is dropped, and the records before it are kept.
+     */
+    @Test
+    public void testIncompleteRecord() throws Exception {
+        Path cacheFile = tmpfolder.getRoot().toPath().resolve("formats.cache");
+        DetectedFormatCache cache = new DetectedFormatCache(cacheFile);
+        cache.put("1", "", -1, Collections.singletonList(png()));
+        cache.put("2", "", -1, Collections.singletonList(png()));
+        cache.close();
+
+        try (RandomAccessFile file = new RandomAccessFile(cacheFile.toFile(), "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        cache = new DetectedFormatCache(cacheFile);
+        assertNotNull(cache.get("1", "", -1));
+        assertNull(cache.get("2", "", -1));
+        cache.put("3", "", -1, Collections.singletonList(png()));
+        cache.close();
+
+        cache = new DetectedFormatCache(cacheFile);
+        assertNotNull(cache.get("1", "", -1));
+        assertNotNull(cache.get("3", "", -1));
+    }
+
+    private DetectedFormat png() {
+        DetectedFormat format = new DetectedFormat();
+        format.setId("fmt/11");
+        format.setName("Portable Network Graphics");
+        format.setVersion("1.0");
+        format.setMimeType("image/png");
+        return format;
+    }
+}
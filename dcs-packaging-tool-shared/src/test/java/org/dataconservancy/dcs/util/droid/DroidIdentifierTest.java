@@ -15,6 +15,7 @@
  */
 package org.dataconservancy.dcs.util.droid;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Test;
 import uk.gov.nationalarchives.droid.core.interfaces.IdentificationResult;
 import uk.gov.nationalarchives.droid.core.interfaces.IdentificationResultCollection;
@@ -22,12 +23,18 @@ import uk.gov.nationalarchives.droid.core.signature.FileFormat;
 
 import java.io.File;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import static junit.framework.TestCase.assertFalse;
 import static junit.framework.TestCase.assertNull;
 import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 
 
 /**
@@ -52,6 +59,73 @@ public class DroidIdentifierTest extends BaseFileSetUpTest {
         assertTrue("Portable Network Graphics".equals(result.getName()));
     }
 
+    /**
+     * Test that formats are still detected when only the beginning and the end of a file are scanned, and that any
+     * negative limit means that entire files are scanned
+     */
+    @Test
+    public void testDetectFormatWithinScanWindow() {
+        DroidIdentifier droidIdentifier = new DroidIdentifier();
+        assertEquals(-1, droidIdentifier.getMaxBytesToScan());
+
+        droidIdentifier.setMaxBytesToScan(1024);
+        assertEquals(1024, droidIdentifier.getMaxBytesToScan());
+        assertTrue(PNG_FILE.length() > 2 * 1024);
+        IdentificationResultCollection irc = droidIdentifier.detectFormat(PNG_FILE);
+        assertTrue(0 < irc.getResults().size());
+        assertEquals("fmt/11", irc.getResults().get(0).getPuid());
+
+        irc = droidIdentifier.detectFormat(ZIP_FILE);
+        assertTrue(0 < irc.getResults().size());
+        assertEquals(ZIP_MIMETYPE, irc.getResults().get(0).getMimeType());
+
+        droidIdentifier.setMaxBytesToScan(-42);
+        assertEquals(-1, droidIdentifier.getMaxBytesToScan());
+    }
+
+    /**
+     * Test that identifiers share the signatures, and identify formats correctly when used on several threads at once
+     */
+    @Test
+    public void testIdentifiersOnSeveralThreads() throws Exception {
+        assertSame(DroidSignatureEngine.getInstance(), DroidSignatureEngine.getInstance());
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> mimeTypes = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                File file = i % 2 == 0 ? PNG_FILE : JPG_FILE;
+                mimeTypes.add(executor.submit(() -> {
+                    IdentificationResultCollection irc = new DroidIdentifier().detectFormat(file);
+                    return irc.getResults().get(0).getMimeType();
+                }));
+            }
+            for (int i = 0; i < mimeTypes.size(); i++) {
+                assertEquals(i % 2 == 0 ? PNG_MIMETYPE : JPG_MIMETYPE, mimeTypes.get(i).get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Test that a file is checked against the signatures of a single format, read from the file or from a signature
+     * window, and that formats without signatures never match
+     */
+    @Test
+    public void testMatchesSignatureOf() throws Exception {
+        DroidIdentifier droidIdentifier = new DroidIdentifier();
+        assertTrue(droidIdentifier.matchesSignatureOf(PNG_FILE, null, "fmt/11"));
+        assertFalse(droidIdentifier.matchesSignatureOf(PNG_FILE, null, "x-fmt/265"));
+        assertTrue(droidIdentifier.matchesSignatureOf(TAR_FILE, null, "x-fmt/265"));
+        assertFalse(droidIdentifier.matchesSignatureOf(TEXT_FILE, null, "x-fmt/111"));
+
+        SignatureWindow window = new SignatureWindow(PNG_FILE.length());
+        byte[] content = FileUtils.readFileToByteArray(PNG_FILE);
+        window.update(content, 0, content.length);
+        assertTrue(droidIdentifier.matchesSignatureOf(PNG_FILE, window, "fmt/11"));
+    }
+
     @Test
     public void testGetFormatsForExtension() throws Exception {
         DroidIdentifier droidIdentifier = new DroidIdentifier();
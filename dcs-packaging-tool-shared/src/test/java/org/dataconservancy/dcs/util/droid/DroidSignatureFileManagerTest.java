@@ -15,10 +15,18 @@
  */
 package org.dataconservancy.dcs.util.droid;
 
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
 /**
@@ -26,6 +34,9 @@ import static org.junit.Assert.assertNotNull;
  */
 public class DroidSignatureFileManagerTest {
 
+    @Rule
+    public TemporaryFolder tmpfolder = new TemporaryFolder();
+
     @Test
     public void testGetSignatureFile() {
         DroidSignatureFileManager manager = new DroidSignatureFileManager();
@@ -39,4 +50,53 @@ public class DroidSignatureFileManagerTest {
         File containerFile = manager.getLatestContainerFile();
         assertNotNull(containerFile);
     }
+
+    /**
+     * Test that a signature file which is a file on the classpath is used in place rather than copied
+     */
+    @Test
+    public void testClasspathFileIsUsedInPlace() throws Exception {
+        DroidSignatureFileManager manager = new DroidSignatureFileManager(tmpfolder.getRoot());
+        File signatureFile = manager.getLatestSignatureFile();
+        assertEquals(new File(getClass().getResource("/SignatureFiles/DROID_SignatureFile_V68.xml").toURI()),
+                signatureFile);
+        assertEquals(0, tmpfolder.getRoot().list().length);
+    }
+
+    /**
+     * Test that a signature file packaged in a jar is extracted once, reused afterwards, and extracted again when the
+     * packaged file changes
+     */
+    @Test
+    public void testPackagedFileIsExtractedOnce() throws Exception {
+        File jar = new File(tmpfolder.newFolder(), "signatures.jar");
+        writeJar(jar, "<FFSignatureFile/>");
+        URL resourceUrl = new URL("jar:" + jar.toURI() + "!/SignatureFiles/signatures.xml");
+
+        File cacheDirectory = tmpfolder.newFolder();
+        File cachedFile = new File(cacheDirectory, "signatures.xml");
+        DroidSignatureFileManager manager = new DroidSignatureFileManager(cacheDirectory);
+
+        assertEquals(cachedFile, manager.extractSignatureFile(resourceUrl, cachedFile));
+        assertEquals("<FFSignatureFile/>", FileUtils.readFileToString(cachedFile, "UTF-8"));
+        assertEquals(1, cacheDirectory.list().length);
+
+        //an extracted file of the same size is reused rather than written again
+        FileUtils.writeStringToFile(cachedFile, "<FFSignatureFileX>", "UTF-8");
+        assertEquals(cachedFile, manager.extractSignatureFile(resourceUrl, cachedFile));
+        assertEquals("<FFSignatureFileX>", FileUtils.readFileToString(cachedFile, "UTF-8"));
+
+        writeJar(jar, "<FFSignatureFile Version=\"2\"/>");
+        assertEquals(cachedFile, manager.extractSignatureFile(resourceUrl, cachedFile));
+        assertEquals("<FFSignatureFile Version=\"2\"/>", FileUtils.readFileToString(cachedFile, "UTF-8"));
+        assertEquals(1, cacheDirectory.list().length);
+    }
+
+    private void writeJar(File jar, String signatures) throws Exception {
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+            out.putNextEntry(new ZipEntry("SignatureFiles/signatures.xml"));
+            out.write(signatures.getBytes("UTF-8"));
+            out.closeEntry();
+        }
+    }
 }
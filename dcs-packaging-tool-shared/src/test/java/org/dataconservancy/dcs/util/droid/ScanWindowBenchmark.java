@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.dcs.util.droid;
+
+import uk.gov.nationalarchives.droid.core.interfaces.IdentificationResult;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compares the identification of the files of a local corpus with scan windows of several sizes against the
+ * identification of the entire files, reporting the throughput of each window and the share of files identified as
+ * the same formats.  Not run as part of the tests; run it with the test classpath:
+ * <pre>
+ * java org.dataconservancy.dcs.util.droid.ScanWindowBenchmark &lt;corpus directory&gt; [&lt;window bytes&gt; ...]
+ * </pre>
+ * The corpus is read once before measuring, so that all runs find it in the page cache.
+ */
+public class ScanWindowBenchmark {
+
+    private static final int[] DEFAULT_WINDOWS = {512, 4 * 1024, 64 * 1024, 1024 * 1024};
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: ScanWindowBenchmark <corpus directory> [<window bytes> ...]");
+            System.exit(1);
+        }
+
+        List<File> corpus;
+        try (Stream<Path> paths = Files.walk(Paths.get(args[0]))) {
+            corpus = paths.filter(Files::isRegularFile).map(Path::toFile).collect(Collectors.toList());
+        }
+        long corpusBytes = corpus.stream().mapToLong(File::length).sum();
+
+        int[] windows = DEFAULT_WINDOWS;
+        if (args.length > 1) {
+            windows = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                windows[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+
+        DroidIdentifier identifier = new DroidIdentifier();
+        identify(identifier, corpus);
+
+        long start = System.nanoTime();
+        List<Set<String>> expected = identify(identifier, corpus);
+        long fullScan = System.nanoTime() - start;
+
+        System.out.printf("%d files, %d bytes%n", corpus.size(), corpusBytes);
+        System.out.printf("%12s %12s %12s %10s%n", "window", "seconds", "MB/s", "accuracy");
+        print("entire", fullScan, corpusBytes, 1.0);
+
+        for (int window : windows) {
+            identifier.setMaxBytesToScan(window);
+            start = System.nanoTime();
+            List<Set<String>> actual = identify(identifier, corpus);
+            long elapsed = System.nanoTime() - start;
+
+            int same = 0;
+            for (int i = 0; i < corpus.size(); i++) {
+                if (expected.get(i).equals(actual.get(i))) {
+                    same++;
+                }
+            }
+            print(String.valueOf(window), elapsed, corpusBytes, corpus.isEmpty() ? 1.0 : (double) same / corpus.size());
+        }
+    }
+
+    private static List<Set<String>> identify(DroidIdentifier identifier, List<File> corpus) {
+        List<Set<String>> puids = new ArrayList<>();
+        for (File file : corpus) {
+            Set<String> filePuids = new TreeSet<>();
+            for (IdentificationResult result : identifier.detectFormat(file).getResults()) {
+                filePuids.add(result.getPuid());
+            }
+            puids.add(filePuids);
+        }
+        return puids;
+    }
+
+    private static void print(String window, long nanos, long bytes, double accuracy) {
+        double seconds = nanos / 1e9;
+        System.out.printf("%12s %12.3f %12.1f %9.1f%%%n", window, seconds, bytes / 1e6 / seconds, accuracy * 100);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2015 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.dcs.util.droid;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.dataconservancy.dcs.model.DetectedFormat;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.gov.nationalarchives.droid.core.interfaces.IdentificationResult;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the SignatureWindow class
+ */
+public class SignatureWindowTest extends BaseFileSetUpTest {
+
+    @Rule
+    public TemporaryFolder tmpfolder = new TemporaryFolder();
+
+    /**
+     * Content that fits in the window is held entirely and can be streamed back unchanged.
+     * @throws IOException
+     */
+    @Test
+    public void testSmallContentIsComplete() throws IOException {
+        byte[] content = "The quick brown fox".getBytes();
+        SignatureWindow window = new SignatureWindow(content.length, 16);
+
+        window.update(content, 0, 5);
+        window.update(content, 5, content.length - 5);
+
+        assertTrue(window.isComplete());
+        assertEquals(content.length, window.length());
+        assertArrayEquals(content, IOUtils.toByteArray(window.openStream()));
+    }
+
+    /**
+     * Only the head and the tail of large content are held by the window.
+     */
+    @Test
+    public void testLargeContentKeepsHeadAndTail() {
+        byte[] content = new byte[1000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+
+        SignatureWindow window = new SignatureWindow(content.length, 10);
+        for (int i = 0; i < content.length; i += 7) {
+            window.update(content, i, Math.min(7, content.length - i));
+        }
+
+        assertFalse(window.isComplete());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(content[i] & 0xff, window.read(i));
+        }
+        for (int i = content.length - 10; i < content.length; i++) {
+            assertEquals(content[i] & 0xff, window.read(i));
+        }
+        assertEquals(-1, window.read(500));
+        assertEquals(-1, window.read(content.length));
+    }
+
+    /**
+     * Formats detected from a window are the same as formats detected by reading the file.
+     * @throws IOException
+     */
+    @Test
+    public void testDetectFormatsFromWindow() throws IOException {
+        DroidDriver droidDriver = new DroidDriver();
+        byte[] content = FileUtils.readFileToByteArray(PNG_FILE);
+        SignatureWindow window = new SignatureWindow(content.length);
+        window.update(content, 0, content.length);
+
+        List<DetectedFormat> fromWindow = droidDriver.detectFormats(PNG_FILE, window);
+        List<DetectedFormat> fromFile = droidDriver.detectFormats(PNG_FILE);
+
+        assertEquals(fromFile, fromWindow);
+    }
+
+    /**
+     * Scanning the whole of a large file whose signature is not found near its ends, e.g. a PDF without a trailer,
+     * takes no longer from a window than from the file, and finds the same formats.
+     * @throws IOException
+     */
+    @Test
+    public void testFullScanOutsideWindow() throws IOException {
+        File pdf = tmpfolder.newFile("large.pdf");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(pdf))) {
+            out.write("%PDF-1.4\n".getBytes());
+            byte[] filler = new byte[WindowedIdentificationRequest.BLOCK_SIZE];
+            Arrays.fill(filler, (byte) ' ');
+            for (int i = 0; i < 128; i++) {
+                out.write(filler);
+            }
+        }
+
+        DroidIdentifier identifier = new DroidIdentifier();
+        SignatureWindow window = new SignatureWindow(pdf.length());
+        try (InputStream in = Files.newInputStream(pdf.toPath())) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                window.update(buffer, 0, read);
+            }
+        }
+        assertFalse(window.isComplete());
+
+        // Once each first, so that both find the file in the page cache
+        Set<String> fromFile = puids(identifier, pdf, null);
+        Set<String> fromWindow = puids(identifier, pdf, window);
+        assertEquals(fromFile, fromWindow);
+
+        long start = System.nanoTime();
+        puids(identifier, pdf, null);
+        long fileNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        puids(identifier, pdf, window);
+        long windowNanos = System.nanoTime() - start;
+
+        assertTrue("Scanning from the window took " + windowNanos / 1000000 + " ms, from the file "
+                + fileNanos / 1000000 + " ms", windowNanos <= 2 * fileNanos + 200000000L);
+    }
+
+    private Set<String> puids(DroidIdentifier identifier, File file, SignatureWindow window) {
+        Set<String> puids = new TreeSet<>();
+        for (IdentificationResult result : (window != null ? identifier.detectFormat(file, window)
+                : identifier.detectFormat(file)).getResults()) {
+            puids.add(result.getPuid());
+        }
+        return puids;
+    }
+}